@@ -1,40 +1,48 @@
 package com.reucon.maven.plugin.openfire;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 import java.io.Reader;
-import java.io.Writer;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.maven.archiver.MavenArchiveConfiguration;
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.factory.ArtifactFactory;
+import org.apache.maven.artifact.repository.ArtifactRepository;
 import org.apache.maven.artifact.resolver.filter.ScopeArtifactFilter;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Model;
 import org.apache.maven.model.Resource;
+import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
 import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecution;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.archiver.jar.JarArchiver;
-import org.codehaus.plexus.util.DirectoryScanner;
 import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.IOUtil;
 import org.codehaus.plexus.util.InterpolationFilterReader;
+import org.codehaus.plexus.util.ReaderFactory;
 import org.codehaus.plexus.util.StringUtils;
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
 
 public abstract class AbstractOpenfireMojo extends AbstractMojo
 {
@@ -126,6 +134,14 @@ public abstract class AbstractOpenfireMojo extends AbstractMojo
      */
     private File webXml;
 
+    /**
+     * The manifest generated by the <tt>manifest</tt> goal. If it exists it is copied to
+     * <tt>web/META-INF/MANIFEST.MF</tt>.
+     *
+     * @parameter default-value="${project.build.directory}/MANIFEST.MF"
+     */
+    private File manifestFile;
+
     /**
      * The file name mapping to use to copy libraries and tlds. If no file mapping is
      * set (default) the file is copied with its standard name.
@@ -135,6 +151,310 @@ public abstract class AbstractOpenfireMojo extends AbstractMojo
      */
     private String outputFileNameMapping;
 
+    /**
+     * Whether to merge the runtime dependencies into a single jar in <tt>lib/</tt> instead of copying
+     * each of them. Openfire's plugin class loader searches every jar in <tt>lib/</tt>, so fewer jars
+     * mean faster class lookups and fewer open file handles.
+     *
+     * @parameter default-value="false"
+     */
+    private boolean mergeLibraries;
+
+    /**
+     * The name of the merged jar in <tt>lib/</tt> if <tt>mergeLibraries</tt> is enabled.
+     *
+     * @parameter default-value="${project.artifactId}-lib.jar"
+     */
+    private String mergedLibraryName;
+
+    /**
+     * Dependencies that are copied as they are even if <tt>mergeLibraries</tt> is enabled, given as
+     * <tt>groupId:artifactId</tt>. Use this for signed jars like security providers that must keep
+     * their signatures.
+     *
+     * @parameter
+     */
+    private List<String> mergeExcludes;
+
+    /**
+     * The report listing the origin of each entry in the merged jar, its combined resources and conflicts.
+     *
+     * @parameter default-value="${project.build.directory}/openfire-merged-libraries.txt"
+     */
+    private File mergedLibraryReport;
+
+    /**
+     * Whether to generate <tt>lib/INDEX.LIST</tt> mapping each package to the jars in <tt>lib/</tt>
+     * that contain it. The index is built from the central directories of the jars only.
+     * <p/>
+     * The index is informational only, e.g. for tools that inspect the plugin. Neither the JDK nor
+     * Openfire's plugin class loader read a loose <tt>INDEX.LIST</tt>, so it does not speed up class
+     * loading.
+     *
+     * @parameter default-value="false"
+     */
+    private boolean indexLibraries;
+
+    /**
+     * Whether to report runtime dependencies that are not reachable from the plugin's classes, its
+     * compiled JSPs and the classes named in <tt>plugin.xml</tt> and <tt>web.xml</tt>.
+     *
+     * @parameter default-value="false"
+     */
+    private boolean analyzeReachability;
+
+    /**
+     * Whether to exclude unreachable runtime dependencies from <tt>lib/</tt>. Implies
+     * <tt>analyzeReachability</tt>.
+     *
+     * @parameter default-value="false"
+     */
+    private boolean pruneUnreachableLibraries;
+
+    /**
+     * Classes and dependencies that are always considered reachable, e.g. because they are loaded by
+     * reflection. Entries containing a colon are dependencies given as <tt>groupId:artifactId</tt>,
+     * all other entries are class names or package patterns like <tt>com.example.*</tt>.
+     *
+     * @parameter
+     */
+    private List<String> reachabilityKeeps;
+
+    /**
+     * Whether to leave out runtime dependencies that the Openfire server already ships. These are the
+     * resolved dependencies of the <tt>openfireArtifact</tt> dependency and the compile and runtime
+     * dependencies declared in its POM that are not optional. Disabled by default as it changes what is
+     * packaged: a plugin then uses Openfire's version of these libraries.
+     *
+     * @parameter property="openfire.excludeOpenfireProvided" default-value="false"
+     */
+    private boolean excludeOpenfireProvided;
+
+    /**
+     * Whether to pack the project's classes, including the compiled JSPs, into
+     * <tt>lib/${project.artifactId}-classes.jar</tt> instead of copying them to <tt>classes/</tt>.
+     * This saves Openfire from extracting and loading thousands of single class files.
+     *
+     * @parameter default-value="false"
+     */
+    private boolean archiveClasses;
+
+    /**
+     * Whether to write gzip compressed siblings (<tt>.gz</tt>) of the static text resources in
+     * <tt>web/</tt> so they do not need to be compressed on every request.
+     *
+     * @parameter default-value="false"
+     */
+    private boolean precompressWebResources;
+
+    /**
+     * The comma separated list of resources in <tt>web/</tt> to precompress.
+     * Default is all js, css, html, htm, svg, json and txt files.
+     *
+     * @parameter
+     */
+    private String precompressIncludes = "**/*.js,**/*.css,**/*.html,**/*.htm,**/*.svg,**/*.json,**/*.txt";
+
+    /**
+     * The minimum size in bytes of a resource to be precompressed.
+     *
+     * @parameter default-value="1024"
+     */
+    private long precompressMinSize;
+
+    /**
+     * Groups of JavaScript or stylesheet files in <tt>web/</tt> to concatenate and minify into bundles.
+     * The files are taken from <tt>web/</tt> after <tt>webResources</tt> and <tt>warSourceDirectory</tt>
+     * have been copied, e.g.
+     * <pre>
+     * &lt;webBundles&gt;
+     *   &lt;webBundle&gt;
+     *     &lt;name&gt;js/console.js&lt;/name&gt;
+     *     &lt;includes&gt;
+     *       &lt;include&gt;js/lib/*.js&lt;/include&gt;
+     *       &lt;include&gt;js/app.js&lt;/include&gt;
+     *     &lt;/includes&gt;
+     *     &lt;sourceMap&gt;true&lt;/sourceMap&gt;
+     *   &lt;/webBundle&gt;
+     * &lt;/webBundles&gt;
+     * </pre>
+     *
+     * @parameter
+     */
+    private WebBundle[] webBundles;
+
+    /**
+     * The directory holding the input hashes of the web bundles. A bundle is only rebuilt if its hash changes.
+     *
+     * @parameter default-value="${project.build.directory}/openfire-bundles"
+     */
+    private File webBundleCacheDirectory;
+
+    /**
+     * Whether to check the version continuity of the database scripts and write an index of them
+     * (key, dialect, version, statement count and checksum) to <tt>database/index.list</tt>.
+     * <p/>
+     * The index is informational only, e.g. for tools that inspect the plugin. Openfire does not read
+     * it, it still selects the upgrade scripts by their directories.
+     *
+     * @parameter default-value="false"
+     */
+    private boolean indexDatabaseScripts;
+
+    /**
+     * Whether to fail the build if the check of the database scripts finds a problem.
+     *
+     * @parameter default-value="false"
+     */
+    private boolean failOnDatabaseProblems;
+
+    /**
+     * The encoding of the filtered files.
+     *
+     * @parameter property="encoding" default-value="${project.build.sourceEncoding}"
+     */
+    private String encoding;
+
+    private ResourceFilter resourceFilter;
+
+    private final Map<File, FileTreeSnapshot> snapshots = new HashMap<File, FileTreeSnapshot>();
+
+    private ExplodeManifest explodeManifest;
+
+    private BuildPlan buildPlan;
+
+    /**
+     * The encoding of the i18n properties files. If not set, a file is read as UTF-8, or as ISO-8859-1 if
+     * it is not valid UTF-8, like <code>PropertyResourceBundle</code> does since Java 9.
+     *
+     * @parameter
+     */
+    private String i18nEncoding;
+
+    /**
+     * Whether to write the i18n properties files to the plugin as ASCII with <tt>\\u</tt> escapes, so
+     * they load the same on every Java version. Otherwise they are copied as they are.
+     *
+     * @parameter default-value="false"
+     */
+    private boolean normalizeI18n;
+
+    /**
+     * Whether to check the i18n bundles for duplicate keys, keys missing from a locale and keys that
+     * are not used in any source file.
+     *
+     * @parameter default-value="false"
+     */
+    private boolean validateI18n;
+
+    /**
+     * Whether to fail the build if the validation of the i18n bundles finds a problem.
+     *
+     * @parameter default-value="false"
+     */
+    private boolean failOnI18nProblems;
+
+    /**
+     * Whether to compile each i18n bundle into a <code>ListResourceBundle</code> class next to
+     * its properties file, which is then used by <code>ResourceBundle.getBundle()</code> instead.
+     *
+     * @parameter default-value="false"
+     */
+    private boolean compileI18n;
+
+    /**
+     * Whether to copy static assets in <tt>web/</tt> to content hashed names like <tt>app.3f9a1c0b.js</tt>
+     * and rewrite references to them. The mapping is written to <tt>web/WEB-INF/asset-manifest.properties</tt>.
+     * <p/>
+     * Only references in static HTML and stylesheets are rewritten. JSPs are precompiled by <tt>jspc</tt>
+     * from their sources and Openfire serves the compiled pages, so their references keep pointing at the
+     * original names, which is why <tt>fingerprintKeepOriginals</tt> is on by default.
+     *
+     * @parameter default-value="false"
+     */
+    private boolean fingerprintWebResources;
+
+    /**
+     * The comma separated list of assets in <tt>web/</tt> to fingerprint.
+     * Default is all js, css, image and font files.
+     *
+     * @parameter
+     */
+    private String fingerprintIncludes =
+            "**/*.js,**/*.css,**/*.png,**/*.gif,**/*.jpg,**/*.jpeg,**/*.svg,**/*.ico,**/*.woff,**/*.woff2,**/*.ttf";
+
+    /**
+     * The comma separated list of files in <tt>web/</tt> in which references to fingerprinted assets are
+     * rewritten. Default is all html, htm and css files. Adding JSPs only has an effect on pages that are
+     * not precompiled.
+     *
+     * @parameter
+     */
+    private String fingerprintReferences = "**/*.html,**/*.htm,**/*.css";
+
+    /**
+     * The path Openfire serves <tt>web/</tt> of the plugin at. Absolute references are only rewritten if
+     * they point below it, references to assets of other plugins or the admin console are left alone.
+     * Leave empty to only rewrite relative references.
+     *
+     * @parameter default-value="/plugins/${project.artifactId}"
+     */
+    private String fingerprintContextPath;
+
+    /**
+     * Whether to keep fingerprinted assets under their original names as well, which is needed
+     * for precompiled JSPs and other references that are not rewritten.
+     *
+     * @parameter default-value="true"
+     */
+    private boolean fingerprintKeepOriginals;
+
+    /**
+     * A directory to cache plugin jars in, keyed by a hash of all inputs of the build. If the inputs did not
+     * change the jar is restored from the cache instead of built. Disabled if not set.
+     *
+     * @parameter property="openfire.buildCacheDirectory"
+     */
+    private File buildCacheDirectory;
+
+    /**
+     * The maximum size of the build cache in megabytes. The least recently used entries are deleted
+     * when it is exceeded.
+     *
+     * @parameter property="openfire.buildCacheMaxSize" default-value="2048"
+     */
+    private long buildCacheMaxSize;
+
+    /**
+     * @parameter default-value="${mojoExecution}"
+     * @required
+     * @readonly
+     */
+    private MojoExecution mojoExecution;
+
+    /**
+     * The dependency on the Openfire server, given as <tt>groupId:artifactId</tt>.
+     *
+     * @parameter default-value="org.igniterealtime.openfire:openfire"
+     */
+    private String openfireArtifact;
+
+    /**
+     * The local repository used to look up the POM of the Openfire artifact.
+     *
+     * @parameter default-value="${localRepository}"
+     * @required
+     * @readonly
+     */
+    private ArtifactRepository localRepository;
+
+    /**
+     * @component
+     */
+    private ArtifactFactory artifactFactory;
+
+    private WebAssetFingerprinter fingerprinter;
+
     private static final String WEB_INF = "WEB-INF";
 
     private static final String META_INF = "META-INF";
@@ -168,8 +488,35 @@ public abstract class AbstractOpenfireMojo extends AbstractMojo
      */
     protected MavenArchiveConfiguration archive = new MavenArchiveConfiguration();
 
+    /**
+     * Builds reproducible plugin jars if set: all entries get this timestamp, they are sorted and the
+     * manifest is stripped of the build environment. The <tt>openfire-plugin.build.date</tt> is taken from
+     * it too. Either ISO 8601 like <tt>2015-06-01T00:00:00Z</tt> or seconds since the epoch.
+     *
+     * @parameter property="project.build.outputTimestamp"
+     */
+    private String outputTimestamp;
+
     private static final String[] EMPTY_STRING_ARRAY = {};
 
+    /**
+     * Returns the timestamp for reproducible builds.
+     *
+     * @return the timestamp in milliseconds since the epoch or <code>-1</code> if none is configured
+     * @throws MojoExecutionException if the timestamp is invalid
+     */
+    protected long getOutputTimestamp() throws MojoExecutionException
+    {
+        try
+        {
+            return ReproducibleJar.parseTimestamp(outputTimestamp);
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new MojoExecutionException(e.getMessage());
+        }
+    }
+
     public MavenProject getProject()
     {
         return project;
@@ -210,6 +557,32 @@ public abstract class AbstractOpenfireMojo extends AbstractMojo
         this.warSourceDirectory = warSourceDirectory;
     }
 
+    /**
+     * Returns the dependency on the Openfire server as <tt>groupId:artifactId</tt>.
+     */
+    public String getOpenfireArtifact()
+    {
+        return openfireArtifact;
+    }
+
+    /**
+     * Returns the file of the resolved <tt>openfireArtifact</tt> dependency.
+     *
+     * @return the Openfire jar or <code>null</code> if the project does not depend on Openfire
+     */
+    protected File getOpenfireArtifactFile()
+    {
+        for (Object o : project.getArtifacts())
+        {
+            Artifact artifact = (Artifact) o;
+            if (openfireArtifact.equals(artifact.getGroupId() + ":" + artifact.getArtifactId()))
+            {
+                return artifact.getFile();
+            }
+        }
+        return null;
+    }
+
     public File getWebXml()
     {
         return webXml;
@@ -220,6 +593,16 @@ public abstract class AbstractOpenfireMojo extends AbstractMojo
         this.webXml = webXml;
     }
 
+    public File getManifestFile()
+    {
+        return manifestFile;
+    }
+
+    public void setManifestFile(File manifestFile)
+    {
+        this.manifestFile = manifestFile;
+    }
+
     public String getOutputFileNameMapping()
     {
         return outputFileNameMapping;
@@ -274,6 +657,111 @@ public abstract class AbstractOpenfireMojo extends AbstractMojo
         }
     }
 
+    /**
+     * Returns the build cache or <code>null</code> if it is disabled.
+     */
+    protected BuildCache getBuildCache()
+    {
+        if (buildCacheDirectory == null)
+        {
+            return null;
+        }
+        return new BuildCache(getLog(), buildCacheDirectory, buildCacheMaxSize * 1024 * 1024);
+    }
+
+    /**
+     * Returns the key of this build in the build cache. It covers the plugin configuration, the sources,
+     * the compiled classes, the dependencies and the filter properties that are referenced by filtered files.
+     * The build date is left out, a restored plugin has the date of the build that produced it.
+     */
+    protected BuildCache.Key getBuildCacheKey() throws IOException, MojoExecutionException
+    {
+        BuildCache.Key key = new BuildCache.Key();
+        key.add("plugin", mojoExecution.getMojoDescriptor().getPluginDescriptor().getId());
+        key.add("goal", mojoExecution.getMojoDescriptor().getGoal());
+        key.add("configuration", mojoExecution.getConfiguration());
+        key.add("project", project.getId());
+        key.add("encoding", encoding);
+        key.add("outputTimestamp", outputTimestamp);
+
+        key.addDirectory("classes", classesDirectory, null);
+        key.addDirectory("webapp", warSourceDirectory, null);
+        key.addDirectory("openfire", openfireSourceDirectory, null);
+        key.addDirectory("database", databaseSourceDirectory, null);
+        key.addDirectory("i18n", i18nSourceDirectory, null);
+        key.addFile("webXml", webXml);
+        key.addFile("manifestFile", manifestFile);
+
+        List<File> filteredFiles = new ArrayList<File>();
+        for (String fileName : getWarFiles(openfireSourceDirectory))
+        {
+            if (fileName.endsWith(".html") || fileName.endsWith(".xml"))
+            {
+                filteredFiles.add(new File(openfireSourceDirectory, fileName));
+            }
+        }
+        if (webResources != null)
+        {
+            for (int i = 0; i < webResources.length; i++)
+            {
+                Resource resource = webResources[i];
+                File directory = new File(resource.getDirectory());
+                if (!directory.isAbsolute())
+                {
+                    directory = new File(project.getBasedir(), resource.getDirectory());
+                }
+                key.add("webResource" + i, resource.getTargetPath() + " " + resource.isFiltering());
+                key.addDirectory("webResource" + i, directory, null);
+                if (resource.isFiltering() && directory.isDirectory())
+                {
+                    filteredFiles.addAll(getSnapshot(directory).getFiles());
+                }
+            }
+        }
+        for (String filtersFile : filters)
+        {
+            key.addFile("filter", new File(filtersFile));
+        }
+
+        Map filterProperties = getBuildFilterProperties();
+        for (String name : getFilterTokens(filteredFiles))
+        {
+            if (!"openfire-plugin.build.date".equals(name))
+            {
+                key.add("property " + name, filterProperties.get(name));
+            }
+        }
+
+        for (Object dependency : project.getDependencies())
+        {
+            Dependency d = (Dependency) dependency;
+            key.add("dependency", d.getManagementKey() + ":" + d.getVersion() + ":" + d.getScope());
+        }
+        for (Object artifact : project.getArtifacts())
+        {
+            key.addArtifact((Artifact) artifact);
+        }
+        return key;
+    }
+
+    /**
+     * Returns the names of the <tt>${name}</tt> and <tt>@name@</tt> tokens in the given files.
+     */
+    private static Set<String> getFilterTokens(List<File> files) throws IOException
+    {
+        Pattern token = Pattern.compile("\\$\\{([^}\\s]+)\\}|@([\\w.-]+)@");
+        Set<String> names = new TreeSet<String>();
+        for (File file : files)
+        {
+            Matcher matcher = token.matcher(FileUtils.fileRead(file, "ISO-8859-1"));
+            while (matcher.find())
+            {
+                names.add(matcher.group(1) != null ? matcher.group(1) : matcher.group(2));
+            }
+        }
+        return names;
+    }
+
     private Map getBuildFilterProperties() throws MojoExecutionException
     {
         Map<Object, Object> filterProperties = new Properties();
@@ -283,7 +771,15 @@ public abstract class AbstractOpenfireMojo extends AbstractMojo
 
         // Project properties
         filterProperties.putAll(project.getProperties());
-        filterProperties.put("openfire-plugin.build.date", new SimpleDateFormat("MM/dd/yyyy").format(new Date()));
+        long time = getOutputTimestamp();
+        SimpleDateFormat buildDateFormat = new SimpleDateFormat("MM/dd/yyyy");
+        Date buildDate = new Date();
+        if (time >= 0)
+        {
+            buildDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+            buildDate = new Date(time);
+        }
+        filterProperties.put("openfire-plugin.build.date", buildDateFormat.format(buildDate));
 
         for (String filtersfile : filters)
         {
@@ -311,34 +807,27 @@ public abstract class AbstractOpenfireMojo extends AbstractMojo
      * exists, it will be copied to the <tt>META-INF</tt> directory and
      * renamed accordingly.
      *
+     * @param stage            the stage of the resource in the build plan
      * @param resource         the resource to copy
      * @param webappDirectory  the target directory
      * @param filterProperties
      * @throws java.io.IOException if an error occured while copying webResources
      */
-    public void copyResources(Resource resource, File webappDirectory, Map filterProperties) throws IOException
+    public void copyResources(String stage, Resource resource, File webappDirectory, Map filterProperties)
+            throws IOException
     {
         if (!resource.getDirectory().equals(webappDirectory.getPath()))
         {
             getLog().info("Copy webapp webResources to " + webappDirectory.getAbsolutePath());
             if (webappDirectory.exists())
             {
+                FileTreeSnapshot snapshot = getSnapshot(new File(resource.getDirectory()));
                 String[] fileNames = getWarFiles(resource);
                 String targetPath = (resource.getTargetPath() == null) ? "" : resource.getTargetPath();
-                File destination = new File(webappDirectory, targetPath);
                 for (String fileName : fileNames)
                 {
-                    if (resource.isFiltering())
-                    {
-                        copyFilteredFile(new File(resource.getDirectory(), fileName),
-                                new File(destination, fileName), null, getFilterWrappers(),
-                                filterProperties);
-                    }
-                    else
-                    {
-                        copyFileIfModified(new File(resource.getDirectory(), fileName),
-                                new File(destination, fileName));
-                    }
+                    copyWebFile(stage, snapshot.getFile(fileName), webappDirectory, targetPath, fileName,
+                            resource.isFiltering(), filterProperties);
                 }
             }
         }
@@ -363,42 +852,371 @@ public abstract class AbstractOpenfireMojo extends AbstractMojo
             getLog().info("Copying webResources to " + webappDirectory.getAbsolutePath());
             if (warSourceDirectory.exists())
             {
+                FileTreeSnapshot snapshot = getSnapshot(sourceDirectory);
                 String[] fileNames = getWarFiles(sourceDirectory);
                 for (String fileName : fileNames)
                 {
-                    copyFileIfModified(new File(sourceDirectory, fileName), new File(webappDirectory, fileName));
+                    copyWebFile("warSourceDirectory", snapshot.getFile(fileName), webappDirectory, "", fileName,
+                            false, null);
                 }
             }
         }
     }
 
-    private void copyOpenfirePluginConfiguration(File sourceDirectory, File openfirePluginDirectory,
-                                                 Map filterProperties) throws IOException
+    /**
+     * Copies a file to <tt>web/</tt>, giving it its fingerprinted name and rewriting references
+     * to fingerprinted assets if enabled. Files another stage of the build plan wins are skipped.
+     */
+    private void copyWebFile(String stage, File from, File webappDirectory, String targetPath, String fileName,
+                             boolean filtering, Map filterProperties) throws IOException
     {
-        if (!sourceDirectory.equals(openfirePluginDirectory))
+        File to = new File(new File(webappDirectory, targetPath), fileName);
+        if (buildPlan.isSkipped(stage, to))
         {
-            getLog().info("Copying Openfire Plugin configuration to " + openfirePluginDirectory.getAbsolutePath());
-            if (warSourceDirectory.exists())
+            getLog().debug("Skipped " + from + ", " + to + " is written by another stage");
+            return;
+        }
+        FilterWrapper[] wrappers = filtering ? getFilterWrappers() : new FilterWrapper[0];
+        boolean interpolationOnly = true;
+        if (fingerprinter != null)
+        {
+            final String path = WebAssetFingerprinter.toWebPath(targetPath, fileName);
+            if (fingerprinter.isReference(path))
             {
+                FilterWrapper[] rewriting = new FilterWrapper[wrappers.length + 1];
+                System.arraycopy(wrappers, 0, rewriting, 0, wrappers.length);
+                rewriting[wrappers.length] = new FilterWrapper()
+                {
+                    public Reader getReader(Reader fileReader, Map filterProperties)
+                    {
+                        return fingerprinter.newReader(fileReader, path);
+                    }
+                };
+                wrappers = rewriting;
+                interpolationOnly = false;
+            }
+
+            String fingerprintedPath = fingerprinter.getFingerprintedPath(path);
+            if (fingerprintedPath != null)
+            {
+                if (fingerprintKeepOriginals)
+                {
+                    copyWebFile(from, to, wrappers, filterProperties, interpolationOnly);
+                }
+                to = new File(webappDirectory, fingerprintedPath);
+            }
+        }
+        copyWebFile(from, to, wrappers, filterProperties, interpolationOnly);
+    }
+
+    private void copyWebFile(File from, File to, FilterWrapper[] wrappers, Map filterProperties,
+                             boolean interpolationOnly) throws IOException
+    {
+        explodeManifest.add(to, from);
+        if (wrappers.length == 0)
+        {
+            copyPlannedFile(from, to);
+        }
+        else
+        {
+            copyFilteredFile(from, to, wrappers, filterProperties, interpolationOnly);
+        }
+    }
+
+    /**
+     * Returns the files written to <tt>web/</tt> by this build so far, relative to it with platform
+     * separators.
+     */
+    private List<String> getWebFileNames()
+    {
+        String webPrefix = "web" + File.separator;
+        List<String> webFileNames = new ArrayList<String>();
+        for (ExplodeManifest.Entry entry : explodeManifest.getEntries())
+        {
+            if (entry.getFileName().startsWith(webPrefix))
+            {
+                webFileNames.add(entry.getFileName().substring(webPrefix.length()));
+            }
+        }
+        return webFileNames;
+    }
+
+    /**
+     * Computes the fingerprints of the assets copied to <tt>web/</tt> from <tt>webResources</tt> and
+     * <tt>warSourceDirectory</tt> and removes assets fingerprinted by a previous build that are outdated.
+     */
+    private void prepareFingerprints(List<Resource> webResources, File webDirectory) throws IOException
+    {
+        fingerprinter = new WebAssetFingerprinter(StringUtils.split(fingerprintIncludes, ","),
+                StringUtils.split(fingerprintReferences, ","), fingerprintContextPath);
+        if (webResources != null)
+        {
+            for (Resource resource : webResources)
+            {
+                fingerprinter.addSources(new File(resource.getDirectory()),
+                        resource.getTargetPath() == null ? "" : resource.getTargetPath(), getWarFiles(resource));
+            }
+        }
+        if (warSourceDirectory.exists())
+        {
+            fingerprinter.addSources(warSourceDirectory, "", getWarFiles(warSourceDirectory));
+        }
+        fingerprinter.computeFingerprints();
+
+        int deleted = fingerprinter.deleteOutdated(
+                new File(webDirectory, WEB_INF + File.separator + WebAssetFingerprinter.MANIFEST_NAME), webDirectory);
+        if (deleted > 0)
+        {
+            getLog().info("Deleted " + deleted + " outdated fingerprinted assets");
+        }
+    }
+
+    private void copyOpenfirePluginConfiguration(File sourceDirectory, File openfirePluginDirectory,
+                                                 Map filterProperties) throws IOException
+    {
+        if (!sourceDirectory.equals(openfirePluginDirectory))
+        {
+            getLog().info("Copying Openfire Plugin configuration to " + openfirePluginDirectory.getAbsolutePath());
+            if (warSourceDirectory.exists())
+            {
+                FileTreeSnapshot snapshot = getSnapshot(sourceDirectory);
                 String[] fileNames = getWarFiles(sourceDirectory);
                 for (String fileName : fileNames)
                 {
+                    File to = new File(openfirePluginDirectory, fileName);
+                    if (buildPlan.isSkipped("openfireSourceDirectory", to))
+                    {
+                        getLog().debug("Skipped " + fileName + ", it is written by another stage");
+                        continue;
+                    }
+                    explodeManifest.add(to, snapshot.getFile(fileName));
                     if (fileName.endsWith(".html") || fileName.endsWith(".xml"))
                     {
-                        copyFilteredFile(new File(sourceDirectory, fileName),
-                                new File(openfirePluginDirectory, fileName), null, getFilterWrappers(),
-                                filterProperties);
+                        copyFilteredFile(snapshot.getFile(fileName), to, getFilterWrappers(), filterProperties, true);
                     }
                     else
                     {
-                        copyFileIfModified(new File(sourceDirectory, fileName),
-                                new File(openfirePluginDirectory, fileName));
+                        copyPlannedFile(snapshot.getFile(fileName), to);
                     }
                 }
             }
         }
     }
 
+    private void indexDatabaseScripts(File databaseDirectory, File descriptor)
+            throws IOException, MojoFailureException
+    {
+        File indexFile = new File(databaseDirectory, DatabaseScriptIndexer.INDEX_NAME);
+        // the copy of plugin.xml is filtered on every build, so check against its source
+        if (DatabaseScriptIndexer.isUpToDate(databaseSourceDirectory, indexFile,
+                new File(openfireSourceDirectory, "plugin.xml")))
+        {
+            getLog().debug("Database script index is up to date");
+            return;
+        }
+
+        List<String> problems = DatabaseScriptIndexer.index(databaseSourceDirectory, indexFile, descriptor,
+                !failOnDatabaseProblems);
+        for (String problem : problems)
+        {
+            getLog().warn(problem);
+        }
+        if (failOnDatabaseProblems && !problems.isEmpty())
+        {
+            throw new MojoFailureException("Found " + problems.size() + " problems in the database scripts");
+        }
+        getLog().info("Wrote database script index " + indexFile);
+    }
+
+    private void buildI18n(MavenProject project, File i18nDirectory) throws IOException, MojoFailureException
+    {
+        I18nBundleProcessor processor = new I18nBundleProcessor(getLog(), i18nEncoding);
+        if (validateI18n)
+        {
+            List<File> usageRoots = new ArrayList<File>();
+            usageRoots.add(warSourceDirectory);
+            usageRoots.add(openfireSourceDirectory);
+            for (Object root : project.getCompileSourceRoots())
+            {
+                usageRoots.add(new File((String) root));
+            }
+
+            File stamp = new File(project.getBuild().getDirectory(), "openfire-i18n.sha1");
+            List<String> problems = processor.validate(i18nSourceDirectory, usageRoots, stamp);
+            if (problems != null)
+            {
+                for (String problem : problems)
+                {
+                    getLog().warn(problem);
+                }
+                if (failOnI18nProblems && !problems.isEmpty())
+                {
+                    throw new MojoFailureException("Found " + problems.size() + " problems in the i18n bundles");
+                }
+                processor.markValidated(stamp);
+            }
+        }
+        processor.process(i18nSourceDirectory, i18nDirectory, normalizeI18n, compileI18n);
+        for (FileTreeSnapshot.SnapshotFile file : getSnapshot(i18nSourceDirectory).getFiles())
+        {
+            explodeManifest.add(new File(i18nDirectory, file.getFileName()), file);
+            String fileName = file.getFileName();
+            if (compileI18n && fileName.endsWith(".properties"))
+            {
+                explodeManifest.addIfExists(
+                        new File(i18nDirectory, fileName.substring(0, fileName.lastIndexOf('.')) + ".class"));
+            }
+        }
+    }
+
+    /**
+     * Returns the <tt>webResources</tt> with their directories resolved against the base directory.
+     */
+    private List<Resource> getWebResources()
+    {
+        if (webResources == null)
+        {
+            return null;
+        }
+        for (Resource resource : webResources)
+        {
+            if (!(new File(resource.getDirectory())).isAbsolute())
+            {
+                resource.setDirectory(project.getBasedir() + File.separator + resource.getDirectory());
+            }
+        }
+        return Arrays.asList(webResources);
+    }
+
+    /**
+     * Computes the files {@link #buildWebapp(MavenProject, File)} writes, without writing or reading any of
+     * them. The source directories and the exploded plugin directory are only listed.
+     * <p/>
+     * Files copied to <tt>web/</tt> are planned under their names before fingerprinting, libraries before
+     * those provided by Openfire or not reachable are left out.
+     *
+     * @param openfirePluginDirectory the exploded plugin directory
+     * @param upToDateCheck           whether to list the exploded plugin directory to find the copies that
+     *                                are up to date
+     * @return the plan
+     * @throws IOException if a directory cannot be listed
+     */
+    protected BuildPlan computeBuildPlan(File openfirePluginDirectory, boolean upToDateCheck) throws IOException
+    {
+        BuildPlan plan = new BuildPlan(openfirePluginDirectory,
+                upToDateCheck ? FileTreeSnapshot.take(openfirePluginDirectory) : null);
+        File webDirectory = new File(openfirePluginDirectory, "web");
+
+        List<Resource> webResources = getWebResources();
+        if (webResources != null)
+        {
+            for (int i = 0; i < webResources.size(); i++)
+            {
+                Resource resource = webResources.get(i);
+                File directory = new File(resource.getDirectory());
+                if (directory.equals(webDirectory) || !directory.exists())
+                {
+                    continue;
+                }
+                File targetDirectory = new File(webDirectory,
+                        resource.getTargetPath() == null ? "" : resource.getTargetPath());
+                for (String fileName : getWarFiles(resource))
+                {
+                    plan.add("webResources[" + i + "]", new File(directory, fileName),
+                            new File(targetDirectory, fileName),
+                            resource.isFiltering() ? BuildPlan.Mode.FILTER : BuildPlan.Mode.COPY);
+                }
+            }
+        }
+        if (warSourceDirectory.exists() && !warSourceDirectory.equals(webDirectory))
+        {
+            for (String fileName : getWarFiles(warSourceDirectory))
+            {
+                plan.add("warSourceDirectory", new File(warSourceDirectory, fileName),
+                        new File(webDirectory, fileName), BuildPlan.Mode.COPY);
+            }
+        }
+        // copied if the warSourceDirectory exists, like the build does
+        if (warSourceDirectory.exists() && openfireSourceDirectory.exists()
+                && !openfireSourceDirectory.equals(openfirePluginDirectory))
+        {
+            for (String fileName : getWarFiles(openfireSourceDirectory))
+            {
+                plan.add("openfireSourceDirectory", new File(openfireSourceDirectory, fileName),
+                        new File(openfirePluginDirectory, fileName),
+                        fileName.endsWith(".html") || fileName.endsWith(".xml")
+                                ? BuildPlan.Mode.FILTER : BuildPlan.Mode.COPY);
+            }
+        }
+        if (databaseSourceDirectory.exists())
+        {
+            for (FileTreeSnapshot.SnapshotFile file : getSnapshot(databaseSourceDirectory).getFiles())
+            {
+                plan.addOverride("databaseSourceDirectory", file,
+                        new File(openfirePluginDirectory, "database" + File.separator + file.getFileName()),
+                        BuildPlan.Mode.COPY);
+            }
+        }
+        if (i18nSourceDirectory.exists())
+        {
+            for (FileTreeSnapshot.SnapshotFile file : getSnapshot(i18nSourceDirectory).getFiles())
+            {
+                plan.addOverride("i18nSourceDirectory", file,
+                        new File(openfirePluginDirectory, "i18n" + File.separator + file.getFileName()),
+                        BuildPlan.Mode.GENERATE);
+            }
+        }
+
+        File webinfDir = new File(webDirectory, WEB_INF);
+        if (webXml != null && webXml.exists())
+        {
+            plan.addOverride("webXml", webXml, new File(webinfDir, "web.xml"), BuildPlan.Mode.COPY);
+        }
+        if (manifestFile != null && manifestFile.isFile())
+        {
+            plan.addOverride("manifestFile", manifestFile,
+                    new File(webDirectory, "META-INF" + File.separator + "MANIFEST.MF"), BuildPlan.Mode.COPY);
+        }
+
+        File libDirectory = new File(openfirePluginDirectory, "lib");
+        if (this.classesDirectory.exists() && archiveClasses)
+        {
+            plan.addOverride("classesDirectory", this.classesDirectory,
+                    new File(libDirectory, project.getArtifactId() + "-classes.jar"), BuildPlan.Mode.GENERATE);
+        }
+        else if (this.classesDirectory.exists())
+        {
+            for (FileTreeSnapshot.SnapshotFile file : getSnapshot(this.classesDirectory).getFiles())
+            {
+                plan.addOverride("classesDirectory", file,
+                        new File(openfirePluginDirectory, "classes" + File.separator + file.getFileName()),
+                        BuildPlan.Mode.COPY);
+            }
+        }
+        boolean merged = false;
+        Map<String, Artifact> libraries = getLibraryArtifacts(project.getArtifacts());
+        for (Map.Entry<String, Artifact> library : libraries.entrySet())
+        {
+            Artifact artifact = library.getValue();
+            if (mergeLibraries && !isMergeExcluded(artifact))
+            {
+                merged = true;
+            }
+            else
+            {
+                plan.addOverride("dependencies", artifact.getFile(), new File(libDirectory, library.getKey()),
+                        BuildPlan.Mode.COPY);
+            }
+        }
+        if (merged)
+        {
+            // generated from the dependencies declared in the POM
+            plan.addOverride("dependencies", project.getFile(), new File(libDirectory, mergedLibraryName),
+                    BuildPlan.Mode.GENERATE);
+        }
+        return plan;
+    }
+
     /**
      * Builds the Openfire Plugin for the specified project.
      * <p/>
@@ -414,6 +1232,15 @@ public abstract class AbstractOpenfireMojo extends AbstractMojo
     {
         getLog().info("Assembling webapp " + project.getArtifactId() + " in " + openfirePluginDirectory);
 
+        explodeManifest = new ExplodeManifest(openfirePluginDirectory);
+        buildPlan = computeBuildPlan(openfirePluginDirectory, false);
+        int conflicts = buildPlan.getConflicts().size();
+        if (conflicts > 0)
+        {
+            getLog().warn(conflicts + " files get different content from more than one stage, run openfire:plan"
+                    + " for details");
+        }
+
         File webinfDir = new File(openfirePluginDirectory, "web" + File.separator + WEB_INF);
         webinfDir.mkdirs();
 
@@ -421,28 +1248,82 @@ public abstract class AbstractOpenfireMojo extends AbstractMojo
         metainfDir.mkdirs();
 
         final Map filterProperties = getBuildFilterProperties();
-        final List<Resource> webResources = this.webResources != null ? Arrays.asList(this.webResources) : null;
-        if (webResources != null && webResources.size() > 0)
+        final List<Resource> webResources = getWebResources();
+
+        fingerprinter = null;
+        if (fingerprintWebResources)
         {
-            for (Resource resource : webResources)
+            prepareFingerprints(webResources, new File(openfirePluginDirectory, "web"));
+        }
+
+        if (webResources != null)
+        {
+            for (int i = 0; i < webResources.size(); i++)
             {
-                if (!(new File(resource.getDirectory())).isAbsolute())
-                {
-                    resource.setDirectory(project.getBasedir() + File.separator + resource.getDirectory());
-                }
-                copyResources(resource, new File(openfirePluginDirectory, "web"), filterProperties);
+                copyResources("webResources[" + i + "]", webResources.get(i), new File(openfirePluginDirectory, "web"),
+                        filterProperties);
             }
         }
 
         copyResources(warSourceDirectory, new File(openfirePluginDirectory, "web"));
+        if (fingerprinter != null)
+        {
+            File fingerprintManifest = new File(webinfDir, WebAssetFingerprinter.MANIFEST_NAME);
+            fingerprinter.writeManifest(fingerprintManifest);
+            explodeManifest.add(fingerprintManifest);
+        }
+        if (webBundles != null)
+        {
+            // the inputs are the files written by this build, not fingerprinted copies, other bundles
+            // or leftovers of earlier builds
+            List<String> bundleInputs = getWebFileNames();
+            if (fingerprinter != null)
+            {
+                Set<String> fingerprinted = new HashSet<String>();
+                for (String path : fingerprinter.getFingerprintedPaths())
+                {
+                    fingerprinted.add(path.replace('/', File.separatorChar));
+                }
+                bundleInputs.removeAll(fingerprinted);
+            }
+            WebBundler bundler = new WebBundler(getLog(), webBundleCacheDirectory);
+            for (WebBundle bundle : webBundles)
+            {
+                bundler.bundle(new File(openfirePluginDirectory, "web"), bundleInputs, bundle);
+                File bundleFile = new File(new File(openfirePluginDirectory, "web"), bundle.getName());
+                explodeManifest.addIfExists(bundleFile);
+                explodeManifest.addIfExists(new File(bundleFile.getPath() + ".map"));
+            }
+        }
+        if (precompressWebResources)
+        {
+            // only the resources written by this build, not leftovers of earlier builds
+            List<String> webFileNames = getWebFileNames();
+            List<File> compressed = new StaticResourceCompressor(getLog(),
+                    StringUtils.split(precompressIncludes, ","), precompressMinSize,
+                    new File(project.getBuild().getDirectory(), "openfire-precompress.index"))
+                    .compress(new File(openfirePluginDirectory, "web"), webFileNames);
+            for (File file : compressed)
+            {
+                explodeManifest.add(file);
+            }
+        }
         copyOpenfirePluginConfiguration(openfireSourceDirectory, openfirePluginDirectory, filterProperties);
         if (databaseSourceDirectory.exists())
         {
-            copyDirectoryStructureIfModified(databaseSourceDirectory, new File(openfirePluginDirectory, "database"));
+            copyDirectoryIfModified("databaseSourceDirectory", databaseSourceDirectory,
+                    new File(openfirePluginDirectory, "database"));
+            if (indexDatabaseScripts)
+            {
+                indexDatabaseScripts(new File(openfirePluginDirectory, "database"),
+                        new File(openfirePluginDirectory, "plugin.xml"));
+                explodeManifest.addIfExists(new File(openfirePluginDirectory,
+                        "database" + File.separator + DatabaseScriptIndexer.INDEX_NAME));
+            }
         }
         if (i18nSourceDirectory.exists())
         {
-            copyDirectoryStructureIfModified(i18nSourceDirectory, new File(openfirePluginDirectory, "i18n"));
+            buildI18n(project, new File(openfirePluginDirectory, "i18n"));
         }
 
         if (webXml != null && StringUtils.isNotEmpty(webXml.getName()))
@@ -450,7 +1331,8 @@ public abstract class AbstractOpenfireMojo extends AbstractMojo
             if (webXml.exists())
             {
                 //rename to web.xml
-                copyFileIfModified(webXml, new File(webinfDir, "/web.xml"));
+                copyPlannedFile(webXml, new File(webinfDir, "web.xml"));
+                explodeManifest.add(new File(webinfDir, "web.xml"), webXml);
             }
             else
             {
@@ -458,19 +1340,137 @@ public abstract class AbstractOpenfireMojo extends AbstractMojo
                 BufferedWriter out = new BufferedWriter(new FileWriter(new File(webinfDir, "/web.xml")));
                 out.write("<web-app>\n</web-app>");
                 out.close();
+                explodeManifest.add(new File(webinfDir, "web.xml"));
                 //throw new MojoFailureException("The specified web.xml file '" + webXml + "' does not exist");
             }
         }
 
+        if (manifestFile != null && manifestFile.isFile())
+        {
+            File webManifest = new File(openfirePluginDirectory, "web" + File.separator + "META-INF"
+                    + File.separator + "MANIFEST.MF");
+            // replaces a manifest copied from the webapp sources, even one that is newer
+            if (webManifest.lastModified() != manifestFile.lastModified())
+            {
+                FileUtils.copyFile(manifestFile, webManifest);
+                webManifest.setLastModified(manifestFile.lastModified());
+            }
+            explodeManifest.add(webManifest, manifestFile);
+        }
+
         File libDirectory = new File(openfirePluginDirectory, "lib");
         File classesDirectory = new File(openfirePluginDirectory, "classes");
 
-        if (this.classesDirectory.exists() && !this.classesDirectory.equals(classesDirectory))
+        Map<String, File> libraryFiles = new LinkedHashMap<String, File>();
+
+        if (this.classesDirectory.exists() && archiveClasses)
+        {
+            String classesJarName = project.getArtifactId() + "-classes.jar";
+            File classesJar = new File(libDirectory, classesJarName);
+            if (ClassesArchiver.archive(this.classesDirectory, classesJar, getOutputTimestamp()))
+            {
+                getLog().info("Packed classes into " + classesJar);
+            }
+            libraryFiles.put(classesJarName, classesJar);
+            explodeManifest.add(classesJar, this.classesDirectory);
+        }
+        else if (this.classesDirectory.exists() && !this.classesDirectory.equals(classesDirectory))
         {
-            copyDirectoryStructureIfModified(this.classesDirectory, classesDirectory);
+            copyDirectoryIfModified("classesDirectory", this.classesDirectory, classesDirectory);
         }
 
-        Set<Artifact> artifacts = project.getArtifacts();
+        Map<String, Artifact> libraries = selectLibraries(webinfDir);
+
+        Map<String, File> mergedLibraries = new LinkedHashMap<String, File>();
+
+        for (Map.Entry<String, Artifact> library : libraries.entrySet())
+        {
+            Artifact artifact = library.getValue();
+            if (mergeLibraries && !isMergeExcluded(artifact))
+            {
+                mergedLibraries.put(library.getKey(), artifact.getFile());
+            }
+            else
+            {
+                File libraryFile = new File(libDirectory, library.getKey());
+                copyPlannedFile(artifact.getFile(), libraryFile);
+                libraryFiles.put(library.getKey(), libraryFile);
+                explodeManifest.add(libraryFile, artifact.getFile());
+            }
+        }
+
+        if (!mergedLibraries.isEmpty())
+        {
+            File mergedLibrary = new File(libDirectory, mergedLibraryName);
+            new LibraryMerger(getLog(), getOutputTimestamp()).merge(mergedLibraries, mergedLibrary, mergedLibraryReport);
+            libraryFiles.put(mergedLibraryName, mergedLibrary);
+            explodeManifest.add(mergedLibrary);
+        }
+
+        if (indexLibraries && !libraryFiles.isEmpty())
+        {
+            if (LibraryIndexer.writeIndex(libraryFiles, new File(libDirectory, LibraryIndexer.INDEX_NAME)))
+            {
+                getLog().info("Generated library index for " + libraryFiles.size() + " jars");
+            }
+            explodeManifest.add(new File(libDirectory, LibraryIndexer.INDEX_NAME));
+        }
+
+        explodeManifest.save(new File(project.getBuild().getDirectory(),
+                openfirePluginDirectory.getName() + ".explode.list"));
+    }
+
+    /**
+     * Returns the entries written by {@link #buildWebapp(MavenProject, File)} that match the
+     * <tt>warSourceIncludes</tt> and <tt>warSourceExcludes</tt>.
+     */
+    protected List<ExplodeManifest.Entry> getPackagedEntries()
+    {
+        Map<String, ExplodeManifest.Entry> entries = new LinkedHashMap<String, ExplodeManifest.Entry>();
+        for (ExplodeManifest.Entry entry : explodeManifest.getEntries())
+        {
+            entries.put(entry.getFileName(), entry);
+        }
+
+        List<ExplodeManifest.Entry> packaged = new ArrayList<ExplodeManifest.Entry>();
+        for (String fileName : FileTreeSnapshot.select(entries.keySet(), getIncludes(), getExcludes(), true))
+        {
+            packaged.add(entries.get(fileName));
+        }
+        return packaged;
+    }
+
+    /**
+     * Returns the runtime dependencies that go to <tt>lib/</tt>, without those provided by Openfire and,
+     * if <tt>pruneUnreachableLibraries</tt> is enabled, those not reachable from the plugin.
+     *
+     * @param webinfDir the <tt>WEB-INF</tt> directory of the exploded plugin containing the final web.xml
+     * @return the artifacts keyed by their file name in <tt>lib/</tt>
+     * @throws IOException if a library or the POM of Openfire cannot be read
+     */
+    protected Map<String, Artifact> selectLibraries(File webinfDir) throws IOException
+    {
+        Map<String, Artifact> libraries = getLibraryArtifacts(project.getArtifacts());
+        if (excludeOpenfireProvided)
+        {
+            excludeOpenfireProvided(libraries);
+        }
+        if (analyzeReachability || pruneUnreachableLibraries)
+        {
+            analyzeReachability(libraries, webinfDir);
+        }
+        return libraries;
+    }
+
+    /**
+     * Returns the artifacts that go to <tt>lib/</tt>, i.e. all non-optional runtime dependencies of type jar.
+     *
+     * @param artifacts the resolved artifacts of the project
+     * @return the selected artifacts keyed by their file name in <tt>lib/</tt>
+     */
+    protected Map<String, Artifact> getLibraryArtifacts(Set<Artifact> artifacts)
+    {
+        Map<String, Artifact> libraries = new LinkedHashMap<String, Artifact>();
         List<String> duplicates = findDuplicates(artifacts);
 
         for (Artifact artifact : artifacts)
@@ -493,7 +1493,7 @@ public abstract class AbstractOpenfireMojo extends AbstractMojo
                 String type = artifact.getType();
                 if ("jar".equals(type) || "test-jar".equals(type))
                 {
-                    copyFileIfModified(artifact.getFile(), new File(libDirectory, targetFileName));
+                    libraries.put(targetFileName, artifact);
                 }
                 else
                 {
@@ -501,6 +1501,203 @@ public abstract class AbstractOpenfireMojo extends AbstractMojo
                 }
             }
         }
+        return libraries;
+    }
+
+    /**
+     * Removes the libraries that are already provided by the Openfire server from <code>libraries</code>.
+     *
+     * @param libraries the libraries selected for <tt>lib/</tt>
+     * @throws IOException if the POM of the Openfire artifact cannot be read
+     */
+    private void excludeOpenfireProvided(Map<String, Artifact> libraries) throws IOException
+    {
+        Map<String, String> provided = getOpenfireProvidedArtifacts();
+        if (provided.isEmpty())
+        {
+            return;
+        }
+
+        int excluded = 0;
+        long bytesSaved = 0;
+        for (Iterator<Map.Entry<String, Artifact>> it = libraries.entrySet().iterator(); it.hasNext();)
+        {
+            Map.Entry<String, Artifact> library = it.next();
+            Artifact artifact = library.getValue();
+            String providedVersion = provided.get(artifact.getGroupId() + ":" + artifact.getArtifactId());
+            if (providedVersion == null)
+            {
+                continue;
+            }
+
+            if (!providedVersion.equals(artifact.getVersion()))
+            {
+                getLog().warn("Openfire provides " + artifact.getGroupId() + ":" + artifact.getArtifactId()
+                        + " in version " + providedVersion + ", the plugin depends on version "
+                        + artifact.getVersion() + ". Openfire's version will be used at runtime.");
+            }
+            getLog().debug("Excluding " + library.getKey() + ": provided by Openfire");
+            excluded++;
+            bytesSaved += artifact.getFile().length();
+            it.remove();
+        }
+
+        if (excluded > 0)
+        {
+            getLog().info("Excluded " + excluded + " libraries provided by Openfire (" + bytesSaved / 1024
+                    + " KB saved)");
+        }
+    }
+
+    /**
+     * Returns the libraries Openfire ships at runtime: the resolved artifacts that the project depends on
+     * through the Openfire artifact and the non-optional compile and runtime dependencies declared in the
+     * POM of the Openfire artifact, which also covers those the project depends on directly.
+     *
+     * @return the versions of the provided artifacts keyed by <tt>groupId:artifactId</tt>, empty if
+     *         the project does not depend on Openfire or its POM is not available
+     * @throws IOException if the POM cannot be read
+     */
+    protected Map<String, String> getOpenfireProvidedArtifacts() throws IOException
+    {
+        Map<String, String> provided = new LinkedHashMap<String, String>();
+        for (Object o : project.getDependencies())
+        {
+            Dependency openfire = (Dependency) o;
+            if (!openfireArtifact.equals(openfire.getGroupId() + ":" + openfire.getArtifactId()))
+            {
+                continue;
+            }
+
+            Artifact pomArtifact = artifactFactory.createProjectArtifact(openfire.getGroupId(),
+                    openfire.getArtifactId(), openfire.getVersion());
+            File pom = new File(localRepository.getBasedir(), localRepository.pathOf(pomArtifact));
+            if (!pom.exists())
+            {
+                getLog().debug("POM of " + openfireArtifact + " not found at " + pom);
+                break;
+            }
+
+            Model model;
+            Reader reader = ReaderFactory.newXmlReader(pom);
+            try
+            {
+                model = new MavenXpp3Reader().read(reader);
+            }
+            catch (XmlPullParserException e)
+            {
+                throw new IOException("Unable to parse " + pom + ": " + e.getMessage());
+            }
+            finally
+            {
+                IOUtil.close(reader);
+            }
+
+            Properties properties = new Properties();
+            properties.putAll(model.getProperties());
+            properties.setProperty("project.version", openfire.getVersion());
+            properties.setProperty("pom.version", openfire.getVersion());
+            for (Object element : model.getDependencies())
+            {
+                Dependency dependency = (Dependency) element;
+                String scope = dependency.getScope();
+                if (dependency.isOptional() || (scope != null && !Artifact.SCOPE_COMPILE.equals(scope)
+                        && !Artifact.SCOPE_RUNTIME.equals(scope)))
+                {
+                    continue;
+                }
+                String version = dependency.getVersion();
+                if (version != null)
+                {
+                    version = StringUtils.interpolate(version, properties);
+                }
+                provided.put(dependency.getGroupId() + ":" + dependency.getArtifactId(), version);
+            }
+            break;
+        }
+
+        // the runtime dependencies of Openfire, as resolved for the project
+        for (Object o : project.getArtifacts())
+        {
+            Artifact artifact = (Artifact) o;
+            List trail = artifact.getDependencyTrail();
+            if (trail == null)
+            {
+                continue;
+            }
+            for (int i = 1; i < trail.size() - 1; i++)
+            {
+                if (String.valueOf(trail.get(i)).startsWith(openfireArtifact + ":"))
+                {
+                    provided.put(artifact.getGroupId() + ":" + artifact.getArtifactId(), artifact.getVersion());
+                    break;
+                }
+            }
+        }
+        return provided;
+    }
+
+    /**
+     * Reports the libraries that are not reachable from the plugin's classes and removes them from
+     * <code>libraries</code> if <tt>pruneUnreachableLibraries</tt> is enabled.
+     *
+     * @param libraries the libraries selected for <tt>lib/</tt>
+     * @param webinfDir the <tt>WEB-INF</tt> directory of the exploded plugin containing the final web.xml
+     * @throws IOException if a class or library cannot be read
+     */
+    private void analyzeReachability(Map<String, Artifact> libraries, File webinfDir) throws IOException
+    {
+        List<String> keepClasses = new ArrayList<String>();
+        List<String> keepArtifacts = new ArrayList<String>();
+        if (reachabilityKeeps != null)
+        {
+            for (String keep : reachabilityKeeps)
+            {
+                (keep.indexOf(':') >= 0 ? keepArtifacts : keepClasses).add(keep.trim());
+            }
+        }
+
+        Map<String, File> libraryFiles = new LinkedHashMap<String, File>();
+        for (Map.Entry<String, Artifact> library : libraries.entrySet())
+        {
+            libraryFiles.put(library.getKey(), library.getValue().getFile());
+        }
+
+        List<File> descriptors = Arrays.asList(new File(openfireSourceDirectory, "plugin.xml"),
+                new File(webinfDir, "web.xml"));
+        Set<String> unreachable = new ReachabilityAnalyzer(libraryFiles)
+                .findUnreachableLibraries(classesDirectory, descriptors, keepClasses);
+
+        int unreachableCount = 0;
+        long unreachableSize = 0;
+        for (String name : unreachable)
+        {
+            Artifact artifact = libraries.get(name);
+            if (keepArtifacts.contains(artifact.getGroupId() + ":" + artifact.getArtifactId()))
+            {
+                continue;
+            }
+
+            unreachableCount++;
+            unreachableSize += artifact.getFile().length();
+            if (pruneUnreachableLibraries)
+            {
+                getLog().info("Excluding unreachable library " + name);
+                libraries.remove(name);
+            }
+            else
+            {
+                getLog().info("Unreachable library: " + name);
+            }
+        }
+        getLog().info("Reachability analysis found " + unreachableCount + " of " + libraryFiles.size()
+                + " libraries unreachable (" + unreachableSize / 1024 + " KB)");
+    }
+
+    private boolean isMergeExcluded(Artifact artifact)
+    {
+        return mergeExcludes != null
+                && mergeExcludes.contains(artifact.getGroupId() + ":" + artifact.getArtifactId());
     }
 
     /**
@@ -535,18 +1732,9 @@ public abstract class AbstractOpenfireMojo extends AbstractMojo
      * @param sourceDir the directory to be scanned
      * @return the array of filenames, relative to the sourceDir
      */
-    private String[] getWarFiles(File sourceDir)
+    private String[] getWarFiles(File sourceDir) throws IOException
     {
-        DirectoryScanner scanner = new DirectoryScanner();
-        scanner.setBasedir(sourceDir);
-        scanner.setExcludes(getExcludes());
-        scanner.addDefaultExcludes();
-
-        scanner.setIncludes(getIncludes());
-
-        scanner.scan();
-
-        return scanner.getIncludedFiles();
+        return getSnapshot(sourceDir).getFileNames(getIncludes(), getExcludes(), true);
     }
 
     /**
@@ -556,55 +1744,39 @@ public abstract class AbstractOpenfireMojo extends AbstractMojo
      * @param resource the resource to be scanned
      * @return the array of filenames, relative to the sourceDir
      */
-    private String[] getWarFiles(Resource resource)
+    private String[] getWarFiles(Resource resource) throws IOException
     {
-        DirectoryScanner scanner = new DirectoryScanner();
-        scanner.setBasedir(resource.getDirectory());
+        String[] includes = DEFAULT_INCLUDES;
         if (resource.getIncludes() != null && !resource.getIncludes().isEmpty())
         {
-            scanner.setIncludes((String[]) resource.getIncludes().toArray(EMPTY_STRING_ARRAY));
-        }
-        else
-        {
-            scanner.setIncludes(DEFAULT_INCLUDES);
+            includes = (String[]) resource.getIncludes().toArray(EMPTY_STRING_ARRAY);
         }
+        String[] excludes = null;
         if (resource.getExcludes() != null && !resource.getExcludes().isEmpty())
         {
-            scanner.setExcludes((String[]) resource.getExcludes().toArray(EMPTY_STRING_ARRAY));
+            excludes = (String[]) resource.getExcludes().toArray(EMPTY_STRING_ARRAY);
         }
-
-        scanner.addDefaultExcludes();
-
-        scanner.scan();
-
-        return scanner.getIncludedFiles();
+        return getSnapshot(new File(resource.getDirectory())).getFileNames(includes, excludes, true);
     }
 
     /**
-     * Copy file from source to destination only if source is newer than the target file.
-     * If <code>destinationDirectory</code> does not exist, it
-     * (and any parent directories) will be created. If a file <code>source</code> in
-     * <code>destinationDirectory</code> exists, it will be overwritten.
+     * Returns the snapshot of a source directory, walking it on first use. All stages of the build select
+     * and copy files from the same snapshot, so each source directory is walked once.
      *
-     * @param source               An existing <code>File</code> to copy.
-     * @param destinationDirectory A directory to copy <code>source</code> into.
-     * @throws java.io.FileNotFoundException if <code>source</code> isn't a normal file.
-     * @throws IllegalArgumentException      if <code>destinationDirectory</code> isn't a directory.
-     * @throws java.io.IOException           if <code>source</code> does not exist, the file in
-     *                                       <code>destinationDirectory</code> cannot be written to, or an IO error occurs during copying.
-     *                                       <p/>
-     *                                       TO DO: Remove this method when Maven moves to plexus-utils version 1.4
+     * @param directory the directory
+     * @return the snapshot
+     * @throws IOException if the directory cannot be read
      */
-    private static void copyFileToDirectoryIfModified(File source, File destinationDirectory) throws IOException
+    protected FileTreeSnapshot getSnapshot(File directory) throws IOException
     {
-        // TO DO: Remove this method and use the method in WarFileUtils when Maven 2 changes
-        // to plexus-utils 1.2.
-        if (destinationDirectory.exists() && !destinationDirectory.isDirectory())
+        File key = directory.getAbsoluteFile();
+        FileTreeSnapshot snapshot = snapshots.get(key);
+        if (snapshot == null)
         {
-            throw new IllegalArgumentException("Destination is not a directory");
+            snapshot = FileTreeSnapshot.take(key);
+            snapshots.put(key, snapshot);
         }
-
-        copyFileIfModified(source, new File(destinationDirectory, source.getName()));
+        return snapshot;
     }
 
     private FilterWrapper[] getFilterWrappers()
@@ -629,53 +1801,34 @@ public abstract class AbstractOpenfireMojo extends AbstractMojo
     }
 
     /**
-     * @param from
-     * @param to
-     * @param encoding
-     * @param wrappers
-     * @param filterProperties
-     * @throws IOException TO DO: Remove this method when Maven moves to plexus-utils version 1.4
+     * Copies a file through the filter wrappers in the <tt>encoding</tt> of the project. Binary files and,
+     * if only tokens are replaced, files without tokens are copied as they are.
+     *
+     * @param from              the file to filter
+     * @param to                the file to write
+     * @param wrappers          the filters
+     * @param filterProperties  the properties to replace tokens with
+     * @param interpolationOnly whether the filters only replace <tt>${token}</tt> and <tt>@token@</tt>
+     * @throws IOException if the file cannot be copied
      */
-    private static void copyFilteredFile(File from, File to, String encoding, FilterWrapper[] wrappers,
-                                         Map filterProperties)
+    private void copyFilteredFile(File from, File to, FilterWrapper[] wrappers, Map filterProperties,
+                                  boolean interpolationOnly)
             throws IOException
     {
-        // buffer so it isn't reading a byte at a time!
-        Reader fileReader = null;
-        Writer fileWriter = null;
-        try
+        if (resourceFilter == null)
         {
-            // fix for MWAR-36, ensures that the parent dir are created first
-            to.getParentFile().mkdirs();
-
-            if (encoding == null || encoding.length() < 1)
+            String filterEncoding = encoding;
+            if (StringUtils.isEmpty(filterEncoding))
             {
-                fileReader = new BufferedReader(new FileReader(from));
-                fileWriter = new FileWriter(to);
+                filterEncoding = ReaderFactory.FILE_ENCODING;
+                getLog().warn("Using platform encoding (" + filterEncoding
+                        + " actually) to filter resources, i.e. build is platform dependent!");
             }
-            else
-            {
-                FileInputStream instream = new FileInputStream(from);
-
-                FileOutputStream outstream = new FileOutputStream(to);
-
-                fileReader = new BufferedReader(new InputStreamReader(instream, encoding));
-
-                fileWriter = new OutputStreamWriter(outstream, encoding);
-            }
-
-            Reader reader = fileReader;
-            for (FilterWrapper wrapper : wrappers)
-            {
-                reader = wrapper.getReader(reader, filterProperties);
-            }
-
-            IOUtil.copy(reader, fileWriter);
+            resourceFilter = new ResourceFilter(filterEncoding);
         }
-        finally
+        if (!resourceFilter.copy(from, to, wrappers, filterProperties, interpolationOnly))
         {
-            IOUtil.close(fileReader);
-            IOUtil.close(fileWriter);
+            getLog().debug("Copied " + from + " without filtering");
         }
     }
 
@@ -693,7 +1846,7 @@ public abstract class AbstractOpenfireMojo extends AbstractMojo
      *                                       <p/>
      *                                       TO DO: Remove this method when Maven moves to plexus-utils version 1.4
      */
-    private static void copyFileIfModified(File source, File destination)
+    static void copyFileIfModified(File source, File destination)
             throws IOException
     {
         // TO DO: Remove this method and use the method in WarFileUtils when Maven 2 changes
@@ -707,65 +1860,49 @@ public abstract class AbstractOpenfireMojo extends AbstractMojo
     }
 
     /**
-     * Copies a entire directory structure but only source files with timestamp later than the destinations'.
-     * <p/>
-     * Note:
-     * <ul>
-     * <li>It will include empty directories.
-     * <li>The <code>sourceDirectory</code> must exists.
-     * </ul>
+     * Copies the files of a directory whose timestamp is later than the destinations'.
      *
-     * @param sourceDirectory
-     * @param destinationDirectory
-     * @throws IOException TO DO: Remove this method when Maven moves to plexus-utils version 1.4
+     * @param stage                the stage of the directory in the build plan
+     * @param sourceDirectory      the directory to copy
+     * @param destinationDirectory the directory to copy to
+     * @throws IOException if a file cannot be copied
      */
-    private static void copyDirectoryStructureIfModified(File sourceDirectory, File destinationDirectory)
+    private void copyDirectoryIfModified(String stage, File sourceDirectory, File destinationDirectory)
             throws IOException
     {
-        if (!sourceDirectory.exists())
-        {
-            throw new IOException("Source directory doesn't exists (" + sourceDirectory.getAbsolutePath() + ").");
-        }
-
-        File[] files = sourceDirectory.listFiles();
-
-        String sourcePath = sourceDirectory.getAbsolutePath();
-
-        for (File file : files)
+        for (FileTreeSnapshot.SnapshotFile file : getSnapshot(sourceDirectory).getFiles())
         {
-            String dest = file.getAbsolutePath();
-
-            dest = dest.substring(sourcePath.length() + 1);
-
-            File destination = new File(destinationDirectory, dest);
-
-            if (file.isFile())
+            File destination = new File(destinationDirectory, file.getFileName());
+            if (buildPlan.isSkipped(stage, destination))
             {
-                destination = destination.getParentFile();
-
-                copyFileToDirectoryIfModified(file, destination);
+                continue;
             }
-            else if (file.isDirectory())
-            {
-                if (!destination.exists() && !destination.mkdirs())
-                {
-                    throw new IOException(
-                            "Could not create destination directory '" + destination.getAbsolutePath() + "'.");
-                }
+            copyPlannedFile(file, destination);
+            explodeManifest.add(destination, file);
+        }
+    }
 
-                copyDirectoryStructureIfModified(file, destination);
-            }
-            else
-            {
-                throw new IOException("Unknown file type: " + file.getAbsolutePath());
-            }
+    /**
+     * Copies a file if it is modified or, if other stages of the build plan write the same destination,
+     * if the destination does not have its timestamp, as it may have been written by another stage.
+     */
+    private void copyPlannedFile(File source, File destination) throws IOException
+    {
+        if (buildPlan.isShared(destination) && destination.lastModified() != source.lastModified())
+        {
+            FileUtils.copyFile(source.getCanonicalFile(), destination);
+            destination.setLastModified(source.lastModified());
+        }
+        else
+        {
+            copyFileIfModified(source, destination);
         }
     }
 
     /**
      * TO DO: Remove this interface when Maven moves to plexus-utils version 1.4
      */
-    private interface FilterWrapper
+    interface FilterWrapper
     {
         Reader getReader(Reader fileReader, Map filterProperties);
     }
@@ -0,0 +1,53 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Rebuilds a plugin jar from a previous version and a delta created by the <tt>openfire-plugin</tt> goal.
+ *
+ * @goal apply-delta
+ * @requiresProject false
+ */
+public class ApplyDeltaMojo extends AbstractMojo
+{
+    /**
+     * The jar the delta was created from.
+     *
+     * @parameter property="baseline"
+     * @required
+     */
+    private File baseline;
+
+    /**
+     * The delta.
+     *
+     * @parameter property="delta"
+     * @required
+     */
+    private File delta;
+
+    /**
+     * The jar to write.
+     *
+     * @parameter property="output"
+     * @required
+     */
+    private File output;
+
+    public void execute() throws MojoExecutionException
+    {
+        try
+        {
+            JarDelta.apply(baseline, delta, output);
+        }
+        catch (IOException e)
+        {
+            throw new MojoExecutionException("Error applying delta " + delta + ": " + e.getMessage(), e);
+        }
+        getLog().info("Rebuilt " + output + " from " + baseline);
+    }
+}
@@ -0,0 +1,439 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.DirectoryScanner;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * A local content addressed cache for build outputs, e.g. in a directory shared by the builds of a CI agent.
+ * <p/>
+ * Entries are named by the hash of all inputs of the step that produced them. They are written to a
+ * temporary file and renamed, so concurrent builds never see partial entries. Reading an entry touches it,
+ * and when the cache grows beyond its maximum size the least recently used entries are deleted.
+ */
+public class BuildCache
+{
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final Log log;
+
+    private final File directory;
+
+    private final long maxSize;
+
+    /**
+     * @param log       the log
+     * @param directory the cache directory
+     * @param maxSize   the maximum size of the cache in bytes
+     */
+    public BuildCache(Log log, File directory, long maxSize)
+    {
+        this.log = log;
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns whether the cache has an entry created by {@link #store(String, Map)}.
+     *
+     * @param key the key of the entry
+     */
+    public boolean contains(String key)
+    {
+        return new File(directory, key + ".zip").isFile();
+    }
+
+    /**
+     * Copies a cached file to <code>target</code>.
+     *
+     * @param key    the key of the entry
+     * @param target the file to restore
+     * @return <code>true</code> on a cache hit, <code>false</code> on a miss
+     * @throws IOException if the entry cannot be copied
+     */
+    public boolean restoreFile(String key, File target) throws IOException
+    {
+        File entry = getEntry(key, ".file");
+        if (entry == null)
+        {
+            return false;
+        }
+        target.getParentFile().mkdirs();
+        FileUtils.copyFile(entry, target);
+        return true;
+    }
+
+    /**
+     * Stores a copy of a file.
+     *
+     * @param key    the key of the entry
+     * @param source the file to store
+     * @throws IOException if the entry cannot be written
+     */
+    public void storeFile(String key, File source) throws IOException
+    {
+        File tmp = newTmpFile(key);
+        FileUtils.copyFile(source, tmp);
+        commit(tmp, key, ".file");
+    }
+
+    /**
+     * Restores a set of files and directories. Directories are deleted before they are restored.
+     *
+     * @param key     the key of the entry
+     * @param targets the files and directories to restore keyed by their name in the entry
+     * @return <code>true</code> on a cache hit, <code>false</code> on a miss
+     * @throws IOException if the entry cannot be extracted
+     */
+    public boolean restore(String key, Map<String, File> targets) throws IOException
+    {
+        File entry = getEntry(key, ".zip");
+        if (entry == null)
+        {
+            return false;
+        }
+
+        for (File target : targets.values())
+        {
+            if (target.isDirectory())
+            {
+                FileUtils.deleteDirectory(target);
+            }
+        }
+
+        ZipInputStream in = new ZipInputStream(new FileInputStream(entry));
+        try
+        {
+            ZipEntry zipEntry;
+            while ((zipEntry = in.getNextEntry()) != null)
+            {
+                String name = zipEntry.getName();
+                int slash = name.indexOf('/');
+                File root = targets.get(slash < 0 ? name : name.substring(0, slash));
+                if (root == null || name.endsWith("/"))
+                {
+                    continue;
+                }
+                writeEntry(in, slash < 0 ? root : resolve(root, name.substring(slash + 1)));
+            }
+        }
+        finally
+        {
+            IOUtil.close(in);
+        }
+        return true;
+    }
+
+    /**
+     * Extracts a zip or jar file into a directory. Entries that would be written outside of the
+     * directory, e.g. with <tt>../</tt> in their names, are rejected.
+     *
+     * @param archive   the archive
+     * @param directory the directory to extract to
+     * @throws IOException if the archive cannot be extracted
+     */
+    public static void extract(File archive, File directory) throws IOException
+    {
+        ZipInputStream in = new ZipInputStream(new FileInputStream(archive));
+        try
+        {
+            ZipEntry zipEntry;
+            while ((zipEntry = in.getNextEntry()) != null)
+            {
+                if (!zipEntry.isDirectory())
+                {
+                    writeEntry(in, resolve(directory, zipEntry.getName()));
+                }
+            }
+        }
+        finally
+        {
+            IOUtil.close(in);
+        }
+    }
+
+    /**
+     * Returns the file of an entry below a directory.
+     *
+     * @throws IOException if the file is not below the directory
+     */
+    private static File resolve(File directory, String name) throws IOException
+    {
+        File file = new File(directory, name);
+        if (!file.getCanonicalPath().startsWith(directory.getCanonicalPath() + File.separator))
+        {
+            throw new IOException("Entry " + name + " is outside of " + directory);
+        }
+        return file;
+    }
+
+    private static void writeEntry(ZipInputStream in, File file) throws IOException
+    {
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        try
+        {
+            IOUtil.copy(in, out);
+        }
+        finally
+        {
+            IOUtil.close(out);
+        }
+    }
+
+    /**
+     * Stores a set of files and directories. Sources that do not exist are skipped.
+     *
+     * @param key     the key of the entry
+     * @param sources the files and directories to store keyed by their name in the entry
+     * @throws IOException if the entry cannot be written
+     */
+    public void store(String key, Map<String, File> sources) throws IOException
+    {
+        File tmp = newTmpFile(key);
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(tmp));
+        try
+        {
+            for (Map.Entry<String, File> source : sources.entrySet())
+            {
+                if (source.getValue().isFile())
+                {
+                    addZipEntry(out, source.getKey(), source.getValue());
+                }
+                else if (source.getValue().isDirectory())
+                {
+                    for (String fileName : scan(source.getValue(), null))
+                    {
+                        addZipEntry(out, source.getKey() + "/" + fileName.replace(File.separatorChar, '/'),
+                                new File(source.getValue(), fileName));
+                    }
+                }
+            }
+        }
+        finally
+        {
+            IOUtil.close(out);
+        }
+        commit(tmp, key, ".zip");
+    }
+
+    private File getEntry(String key, String extension)
+    {
+        File entry = new File(directory, key + extension);
+        if (!entry.isFile())
+        {
+            log.info("Build cache miss for " + key);
+            return null;
+        }
+
+        // the modification time tracks the last use for the eviction
+        entry.setLastModified(System.currentTimeMillis());
+        log.info("Build cache hit for " + key);
+        return entry;
+    }
+
+    private File newTmpFile(String key)
+    {
+        directory.mkdirs();
+        return new File(directory, key + "." + System.nanoTime() + TMP_SUFFIX);
+    }
+
+    private void commit(File tmp, String key, String extension)
+    {
+        File entry = new File(directory, key + extension);
+        // if another build stored the same entry in the meantime its content is the same
+        if (!tmp.renameTo(entry))
+        {
+            tmp.delete();
+        }
+        evict();
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache fits its maximum size.
+     */
+    private void evict()
+    {
+        File[] entries = directory.listFiles();
+        if (entries == null)
+        {
+            return;
+        }
+
+        long size = 0;
+        for (File entry : entries)
+        {
+            size += entry.length();
+        }
+        if (size <= maxSize)
+        {
+            return;
+        }
+
+        Arrays.sort(entries, new Comparator<File>()
+        {
+            public int compare(File f1, File f2)
+            {
+                return Long.valueOf(f1.lastModified()).compareTo(f2.lastModified());
+            }
+        });
+        for (File entry : entries)
+        {
+            if (size <= maxSize)
+            {
+                break;
+            }
+            long length = entry.length();
+            // temporary files of running builds are left alone
+            if (!entry.getName().endsWith(TMP_SUFFIX) && entry.delete())
+            {
+                log.debug("Evicted " + entry.getName() + " from the build cache");
+                size -= length;
+            }
+        }
+    }
+
+    private static void addZipEntry(ZipOutputStream out, String name, File file) throws IOException
+    {
+        out.putNextEntry(new ZipEntry(name));
+        InputStream in = new FileInputStream(file);
+        try
+        {
+            IOUtil.copy(in, out);
+        }
+        finally
+        {
+            IOUtil.close(in);
+        }
+        out.closeEntry();
+    }
+
+    private static String[] scan(File directory, String[] excludes)
+    {
+        DirectoryScanner scanner = new DirectoryScanner();
+        scanner.setBasedir(directory);
+        scanner.setExcludes(excludes);
+        scanner.scan();
+        String[] fileNames = scanner.getIncludedFiles();
+        Arrays.sort(fileNames);
+        return fileNames;
+    }
+
+    /**
+     * Collects the inputs of a build step into a key.
+     */
+    public static class Key
+    {
+        private final MessageDigest digest;
+
+        private String hash;
+
+        public Key() throws IOException
+        {
+            digest = DigestUtils.newDigest("SHA-1");
+        }
+
+        public Key add(String name, Object value) throws IOException
+        {
+            digest.update((name + "=" + value + "\n").getBytes("UTF-8"));
+            return this;
+        }
+
+        /**
+         * Adds the content of a file, or a marker if it does not exist.
+         */
+        public Key addFile(String name, File file) throws IOException
+        {
+            if (file == null || !file.isFile())
+            {
+                return add(name, "-");
+            }
+            return add(name, hash(file));
+        }
+
+        /**
+         * Adds the paths and contents of the files in a directory.
+         *
+         * @param name      the name of the directory in the key
+         * @param directory the directory
+         * @param excludes  patterns of files to leave out, may be <code>null</code>
+         */
+        public Key addDirectory(String name, File directory, String[] excludes) throws IOException
+        {
+            if (directory == null || !directory.isDirectory())
+            {
+                return add(name, "-");
+            }
+            for (String fileName : scan(directory, excludes))
+            {
+                add(name + "/" + fileName.replace(File.separatorChar, '/'), hash(new File(directory, fileName)));
+            }
+            return this;
+        }
+
+        /**
+         * Adds an artifact. Released artifacts are identified by their coordinates, snapshots by their content.
+         */
+        public Key addArtifact(Artifact artifact) throws IOException
+        {
+            String id = artifact.getDependencyConflictId() + ":" + artifact.getVersion() + ":" + artifact.getScope();
+            if (artifact.isSnapshot() || artifact.getFile() == null || artifact.getFile().isDirectory())
+            {
+                if (artifact.getFile() != null && artifact.getFile().isDirectory())
+                {
+                    return addDirectory(id, artifact.getFile(), null);
+                }
+                return addFile(id, artifact.getFile());
+            }
+            return add(id, artifact.getFile().length());
+        }
+
+        /**
+         * Returns the hash of the inputs. No inputs can be added afterwards.
+         */
+        public String toString()
+        {
+            if (hash == null)
+            {
+                hash = DigestUtils.toHex(digest.digest());
+            }
+            return hash;
+        }
+
+        private static String hash(File file) throws IOException
+        {
+            MessageDigest fileDigest = DigestUtils.newDigest("SHA-1");
+            InputStream in = new FileInputStream(file);
+            try
+            {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = in.read(buffer)) > 0)
+                {
+                    fileDigest.update(buffer, 0, n);
+                }
+            }
+            finally
+            {
+                IOUtil.close(in);
+            }
+            return DigestUtils.toHex(fileDigest.digest());
+        }
+    }
+}
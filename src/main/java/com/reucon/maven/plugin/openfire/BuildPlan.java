@@ -0,0 +1,286 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The files the build writes to the exploded plugin, in the order it writes them.
+ * <p/>
+ * Several stages can write the same destination, e.g. a web resource and a file of the
+ * <tt>warSourceDirectory</tt>. Like in a war, the first write wins unless a later one is an override
+ * like the <tt>webXml</tt>, then the last override wins. The other writes are redundant and skipped by
+ * the build, and the winning one is always performed, as the destination may hold the result of another
+ * write from a previous build. Copies whose destination is newer than the source are up to date.
+ * <p/>
+ * Overrides replace earlier writes on purpose, only writes of different content that are both overrides
+ * or both not are conflicts.
+ */
+class BuildPlan
+{
+    /**
+     * How a file is written.
+     */
+    enum Mode
+    {
+        /**
+         * Copied if the source is newer.
+         */
+        COPY,
+        /**
+         * Copied through the filters.
+         */
+        FILTER,
+        /**
+         * Generated from the source, e.g. compiled or packed, by a step that checks on its own whether it
+         * is up to date.
+         */
+        GENERATE
+    }
+
+    private final File directory;
+
+    private final FileTreeSnapshot target;
+
+    private final Map<String, List<Write>> writes = new LinkedHashMap<String, List<Write>>();
+
+    /**
+     * @param directory the exploded plugin directory
+     * @param target    the current content of the exploded plugin directory, or <code>null</code> to not
+     *                  check whether copies are up to date
+     */
+    BuildPlan(File directory, FileTreeSnapshot target)
+    {
+        this.directory = directory.getAbsoluteFile();
+        this.target = target;
+    }
+
+    /**
+     * Adds a write that is skipped if an earlier stage writes the same destination.
+     *
+     * @param stage       the stage of the build, e.g. <tt>warSourceDirectory</tt>
+     * @param source      the file that is copied or the destination is generated from
+     * @param destination the file below the exploded plugin directory
+     * @param mode        how the file is written
+     */
+    public void add(String stage, File source, File destination, Mode mode)
+    {
+        add(stage, source, destination, mode, false);
+    }
+
+    /**
+     * Adds a write that replaces the writes of earlier stages to the same destination.
+     */
+    public void addOverride(String stage, File source, File destination, Mode mode)
+    {
+        add(stage, source, destination, mode, true);
+    }
+
+    private void add(String stage, File source, File destination, Mode mode, boolean override)
+    {
+        String fileName = getFileName(destination);
+        if (fileName == null)
+        {
+            return;
+        }
+        List<Write> destinationWrites = writes.get(fileName);
+        if (destinationWrites == null)
+        {
+            destinationWrites = new ArrayList<Write>(1);
+            writes.put(fileName, destinationWrites);
+        }
+        destinationWrites.add(new Write(stage, source, fileName, mode, override));
+    }
+
+    /**
+     * Returns whether the write of a stage to <code>destination</code> is redundant because another
+     * stage wins.
+     */
+    public boolean isSkipped(String stage, File destination)
+    {
+        List<Write> destinationWrites = getWrites(destination);
+        return destinationWrites != null && destinationWrites.size() > 1
+                && !getWinner(destinationWrites).stage.equals(stage);
+    }
+
+    /**
+     * Returns whether more than one stage writes <code>destination</code>.
+     */
+    public boolean isShared(File destination)
+    {
+        List<Write> destinationWrites = getWrites(destination);
+        return destinationWrites != null && destinationWrites.size() > 1;
+    }
+
+    /**
+     * Returns all writes grouped by destination, in the order the destinations are first written.
+     */
+    public Map<String, List<Write>> getWrites()
+    {
+        return writes;
+    }
+
+    /**
+     * Returns the writes of the destinations stages write different content to.
+     */
+    public Map<String, List<Write>> getConflicts()
+    {
+        Map<String, List<Write>> conflicts = new LinkedHashMap<String, List<Write>>();
+        for (Map.Entry<String, List<Write>> entry : writes.entrySet())
+        {
+            if (isConflict(entry.getValue()))
+            {
+                conflicts.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return conflicts;
+    }
+
+    /**
+     * Returns why a write is skipped, or <code>null</code> if it is performed.
+     */
+    public String getSkipReason(Write write)
+    {
+        List<Write> destinationWrites = writes.get(write.destination);
+        Write winner = getWinner(destinationWrites);
+        if (write != winner)
+        {
+            return "overridden by " + winner.stage;
+        }
+        if (write.mode == Mode.GENERATE)
+        {
+            return null;
+        }
+        if (target != null && write.mode == Mode.COPY && destinationWrites.size() == 1)
+        {
+            File existing = target.getFile(write.destination);
+            if (existing instanceof FileTreeSnapshot.SnapshotFile && existing.lastModified() >= write.source.lastModified())
+            {
+                return "up to date";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the plan as tab separated lines of destination, stage, mode, source and the skip reason
+     * or <tt>write</tt>.
+     */
+    public String toString()
+    {
+        StringBuilder s = new StringBuilder("# destination\tstage\tmode\tsource\taction\n");
+        for (List<Write> destinationWrites : writes.values())
+        {
+            for (Write write : destinationWrites)
+            {
+                String reason = getSkipReason(write);
+                s.append(write.destination.replace(File.separatorChar, '/')).append('\t').append(write.stage)
+                        .append('\t').append(write.mode.name().toLowerCase()).append('\t')
+                        .append(write.source.getPath()).append('\t').append(reason == null ? "write" : "skip: " + reason)
+                        .append('\n');
+            }
+        }
+        return s.toString();
+    }
+
+    /**
+     * Returns whether stages write different content to a destination, i.e. from different sources or one
+     * filtered and one not.
+     */
+    private static boolean isConflict(List<Write> destinationWrites)
+    {
+        for (int i = 0; i < destinationWrites.size(); i++)
+        {
+            for (int j = i + 1; j < destinationWrites.size(); j++)
+            {
+                Write a = destinationWrites.get(i);
+                Write b = destinationWrites.get(j);
+                if (a.override == b.override && (a.mode != b.mode
+                        || !a.source.getAbsoluteFile().equals(b.source.getAbsoluteFile())))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Write getWinner(List<Write> destinationWrites)
+    {
+        for (int i = destinationWrites.size() - 1; i > 0; i--)
+        {
+            if (destinationWrites.get(i).override)
+            {
+                return destinationWrites.get(i);
+            }
+        }
+        return destinationWrites.get(0);
+    }
+
+    private List<Write> getWrites(File destination)
+    {
+        String fileName = getFileName(destination);
+        return fileName == null ? null : writes.get(fileName);
+    }
+
+    /**
+     * Returns the path of a destination relative to the exploded plugin directory, resolving <tt>..</tt>
+     * without touching the file system, or <code>null</code> if it is outside.
+     */
+    private String getFileName(File destination)
+    {
+        String path = destination.getAbsoluteFile().toPath().normalize().toString();
+        String root = directory.toPath().normalize().toString() + File.separator;
+        return path.startsWith(root) ? path.substring(root.length()) : null;
+    }
+
+    /**
+     * A planned write.
+     */
+    static class Write
+    {
+        private final String stage;
+
+        private final File source;
+
+        private final String destination;
+
+        private final Mode mode;
+
+        private final boolean override;
+
+        Write(String stage, File source, String destination, Mode mode, boolean override)
+        {
+            this.stage = stage;
+            this.source = source;
+            this.destination = destination;
+            this.mode = mode;
+            this.override = override;
+        }
+
+        public String getStage()
+        {
+            return stage;
+        }
+
+        public File getSource()
+        {
+            return source;
+        }
+
+        /**
+         * Returns the path relative to the exploded plugin directory with platform separators.
+         */
+        public String getDestination()
+        {
+            return destination;
+        }
+
+        public Mode getMode()
+        {
+            return mode;
+        }
+    }
+}
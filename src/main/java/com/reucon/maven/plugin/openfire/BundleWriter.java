@@ -0,0 +1,145 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.util.List;
+
+/**
+ * Collects the content of a web bundle and the source map mappings for it.
+ * <p/>
+ * Every character is written together with the source file and line it comes from. A mapping
+ * segment is recorded whenever the origin changes, which gives line accurate source maps for
+ * both line preserving and single line output.
+ */
+class BundleWriter
+{
+    private static final String BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+    private final StringBuilder content = new StringBuilder();
+
+    private final StringBuilder mappings = new StringBuilder();
+
+    private int column;
+
+    private int mappedSource = -1;
+
+    private int mappedLine = -1;
+
+    // previous values for the relative encoding of the mappings
+    private int previousColumn;
+
+    private int previousSource;
+
+    private int previousLine;
+
+    /**
+     * Appends a character.
+     *
+     * @param c      the character
+     * @param source the index of the source file
+     * @param line   the zero based line in the source file
+     */
+    public void write(char c, int source, int line)
+    {
+        if (c == '\n')
+        {
+            content.append(c);
+            mappings.append(';');
+            column = 0;
+            previousColumn = 0;
+            mappedSource = -1;
+            return;
+        }
+
+        if (source != mappedSource || line != mappedLine)
+        {
+            if (mappings.length() > 0 && mappings.charAt(mappings.length() - 1) != ';')
+            {
+                mappings.append(',');
+            }
+            encode(column - previousColumn);
+            encode(source - previousSource);
+            encode(line - previousLine);
+            encode(0);
+            previousColumn = column;
+            previousSource = source;
+            previousLine = line;
+            mappedSource = source;
+            mappedLine = line;
+        }
+        content.append(c);
+        column++;
+    }
+
+    /**
+     * Appends a string that does not originate from a source file.
+     */
+    public void writeGenerated(String s)
+    {
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if (c == '\n')
+            {
+                write(c, -1, -1);
+            }
+            else
+            {
+                content.append(c);
+                column++;
+            }
+        }
+    }
+
+    /**
+     * Returns the last character written or <code>0</code> if nothing has been written yet.
+     */
+    public char lastChar()
+    {
+        return content.length() == 0 ? 0 : content.charAt(content.length() - 1);
+    }
+
+    public String getContent()
+    {
+        return content.toString();
+    }
+
+    /**
+     * Returns the source map in version 3 format.
+     *
+     * @param file    the name of the bundle
+     * @param sources the paths of the source files relative to the source map
+     * @return the source map as JSON
+     */
+    public String getSourceMap(String file, List<String> sources)
+    {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"version\":3,\"file\":\"").append(escape(file)).append("\",\"sources\":[");
+        for (int i = 0; i < sources.size(); i++)
+        {
+            json.append(i > 0 ? "," : "").append('"').append(escape(sources.get(i))).append('"');
+        }
+        json.append("],\"names\":[],\"mappings\":\"").append(mappings).append("\"}");
+        return json.toString();
+    }
+
+    private void encode(int value)
+    {
+        // base64 VLQ with the sign in the least significant bit
+        int vlq = value < 0 ? ((-value) << 1) | 1 : value << 1;
+        do
+        {
+            int digit = vlq & 31;
+            vlq >>>= 5;
+            if (vlq > 0)
+            {
+                digit |= 32;
+            }
+            mappings.append(BASE64.charAt(digit));
+        }
+        while (vlq > 0);
+    }
+
+    private static String escape(String s)
+    {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -0,0 +1,117 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Computes the checksums of a file while it is written, so it does not have to be read again.
+ * <p/>
+ * The checksums of the plugin jar are written to sidecar files named after the algorithm, e.g.
+ * <tt>plugin.jar.sha256</tt>, that contain the lower case hex digest like those of a Maven repository.
+ */
+final class Checksums
+{
+    private final Map<String, MessageDigest> digests = new LinkedHashMap<String, MessageDigest>();
+
+    private Map<String, String> hexDigests;
+
+    /**
+     * @param algorithms the algorithms, e.g. <tt>SHA-256</tt>
+     * @throws IOException if an algorithm is not supported
+     */
+    Checksums(Iterable<String> algorithms) throws IOException
+    {
+        for (String algorithm : algorithms)
+        {
+            digests.put(algorithm, DigestUtils.newDigest(algorithm));
+        }
+    }
+
+    public boolean isEmpty()
+    {
+        return digests.isEmpty();
+    }
+
+    /**
+     * Returns a stream that updates the checksums with everything written to <code>out</code>.
+     */
+    public OutputStream wrap(OutputStream out)
+    {
+        for (MessageDigest digest : digests.values())
+        {
+            out = new DigestOutputStream(out, digest);
+        }
+        return out;
+    }
+
+    /**
+     * Updates the checksums with the content of a file, for files written by others.
+     *
+     * @throws IOException if the file cannot be read
+     */
+    public void update(File file) throws IOException
+    {
+        InputStream in = new FileInputStream(file);
+        try
+        {
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buffer)) > 0)
+            {
+                for (MessageDigest digest : digests.values())
+                {
+                    digest.update(buffer, 0, n);
+                }
+            }
+        }
+        finally
+        {
+            IOUtil.close(in);
+        }
+    }
+
+    /**
+     * Completes the checksums.
+     *
+     * @return the hex digests keyed by algorithm
+     */
+    public Map<String, String> getHexDigests()
+    {
+        if (hexDigests == null)
+        {
+            hexDigests = new LinkedHashMap<String, String>();
+            for (Map.Entry<String, MessageDigest> entry : digests.entrySet())
+            {
+                hexDigests.put(entry.getKey(), DigestUtils.toHex(entry.getValue().digest()));
+            }
+        }
+        return hexDigests;
+    }
+
+    /**
+     * Returns the sidecar file of a file for an algorithm, e.g. <tt>plugin.jar.sha256</tt> for
+     * <tt>SHA-256</tt>.
+     */
+    public static File getSidecar(File file, String algorithm)
+    {
+        return new File(file.getPath() + "." + getExtension(algorithm));
+    }
+
+    /**
+     * Returns the name of an algorithm in sidecar files and properties, e.g. <tt>sha256</tt> for
+     * <tt>SHA-256</tt>.
+     */
+    public static String getExtension(String algorithm)
+    {
+        return algorithm.replace("-", "").toLowerCase();
+    }
+}
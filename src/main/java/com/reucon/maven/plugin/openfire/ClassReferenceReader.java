@@ -0,0 +1,162 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the classes referenced by a class file from its constant pool.
+ * <p/>
+ * Besides class constants and descriptors this includes string constants that look like fully
+ * qualified class names to catch the most common <code>Class.forName()</code> cases. Only the
+ * constant pool is parsed, so class files of any version are supported.
+ */
+class ClassReferenceReader
+{
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private static final Pattern DESCRIPTOR_TYPE = Pattern.compile("L([\\w/$]+)[;<]");
+
+    private static final Pattern CLASS_NAME = Pattern.compile("[a-zA-Z_$][\\w$]*(\\.[a-zA-Z_$][\\w$]*)+");
+
+    private ClassReferenceReader()
+    {
+        // prevent instantiation
+    }
+
+    /**
+     * Returns the internal names (e.g. <tt>java/lang/String</tt>) of all classes referenced by a class file.
+     *
+     * @param classFile the class file, the stream is not closed
+     * @return the referenced class names
+     * @throws IOException if the class file cannot be read or is invalid
+     */
+    public static Set<String> getReferencedClasses(InputStream classFile) throws IOException
+    {
+        DataInputStream in = new DataInputStream(classFile);
+        if (in.readInt() != 0xCAFEBABE)
+        {
+            throw new IOException("Not a class file");
+        }
+        in.readUnsignedShort(); // minor version
+        in.readUnsignedShort(); // major version
+
+        int count = in.readUnsignedShort();
+        String[] utf8 = new String[count];
+        int[] classIndexes = new int[count];
+        int[] stringIndexes = new int[count];
+        boolean[] descriptors = new boolean[count];
+        int classCount = 0;
+        int stringCount = 0;
+
+        for (int i = 1; i < count; i++)
+        {
+            int tag = in.readUnsignedByte();
+            switch (tag)
+            {
+                case CONSTANT_UTF8:
+                    utf8[i] = in.readUTF();
+                    break;
+                case CONSTANT_CLASS:
+                    classIndexes[classCount++] = in.readUnsignedShort();
+                    break;
+                case CONSTANT_STRING:
+                    stringIndexes[stringCount++] = in.readUnsignedShort();
+                    break;
+                case CONSTANT_METHOD_TYPE:
+                    descriptors[in.readUnsignedShort()] = true;
+                    break;
+                case CONSTANT_NAME_AND_TYPE:
+                    in.readUnsignedShort();
+                    descriptors[in.readUnsignedShort()] = true;
+                    break;
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    in.readUnsignedShort();
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    in.readUnsignedByte();
+                    in.readUnsignedShort();
+                    break;
+                case CONSTANT_INTEGER:
+                case CONSTANT_FLOAT:
+                case CONSTANT_FIELDREF:
+                case CONSTANT_METHODREF:
+                case CONSTANT_INTERFACE_METHODREF:
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKE_DYNAMIC:
+                    in.readInt();
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    in.readLong();
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+
+        Set<String> references = new HashSet<String>();
+        for (int i = 0; i < classCount; i++)
+        {
+            String name = utf8[classIndexes[i]];
+            if (name.startsWith("["))
+            {
+                addDescriptorTypes(name, references);
+            }
+            else
+            {
+                references.add(name);
+            }
+        }
+        for (int i = 0; i < stringCount; i++)
+        {
+            String value = utf8[stringIndexes[i]];
+            if (CLASS_NAME.matcher(value).matches())
+            {
+                references.add(value.replace('.', '/'));
+            }
+        }
+        // field and method descriptors, signatures and annotation types are plain utf8 constants
+        for (int i = 1; i < count; i++)
+        {
+            String value = utf8[i];
+            if (value != null && (descriptors[i] || value.startsWith("(") || value.startsWith("L")
+                    || value.startsWith("[") || value.startsWith("<")))
+            {
+                addDescriptorTypes(value, references);
+            }
+        }
+        return references;
+    }
+
+    private static void addDescriptorTypes(String descriptor, Set<String> references)
+    {
+        Matcher matcher = DESCRIPTOR_TYPE.matcher(descriptor);
+        while (matcher.find())
+        {
+            references.add(matcher.group(1));
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import org.codehaus.plexus.util.DirectoryScanner;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Packs a classes directory into a jar.
+ */
+class ClassesArchiver
+{
+    private ClassesArchiver()
+    {
+        // prevent instantiation
+    }
+
+    /**
+     * Packs all files in <code>classesDirectory</code> into <code>jar</code> unless the jar is up to date,
+     * i.e. it is newer than all files and contains the same number of files. A
+     * <tt>META-INF/MANIFEST.MF</tt> in the directory is not copied but its attributes are merged into the
+     * manifest of the jar.
+     *
+     * @param classesDirectory the directory to pack
+     * @param jar              the jar to write
+     * @param time             the modification time of all entries or <code>-1</code> to use the times
+     *                         of the files
+     * @return <code>true</code> if the jar was written, <code>false</code> if it was up to date
+     * @throws IOException if the jar cannot be written
+     */
+    public static boolean archive(File classesDirectory, File jar, long time) throws IOException
+    {
+        DirectoryScanner scanner = new DirectoryScanner();
+        scanner.setBasedir(classesDirectory);
+        scanner.setExcludes(new String[]{JarFile.MANIFEST_NAME});
+        scanner.scan();
+        String[] fileNames = scanner.getIncludedFiles();
+        String[] directoryNames = scanner.getIncludedDirectories();
+        Arrays.sort(fileNames);
+        Arrays.sort(directoryNames);
+
+        if (isUpToDate(classesDirectory, fileNames, jar))
+        {
+            return false;
+        }
+
+        jar.getParentFile().mkdirs();
+        File tmp = new File(jar.getPath() + ".tmp");
+        Manifest manifest = new Manifest();
+        File manifestFile = new File(classesDirectory, JarFile.MANIFEST_NAME);
+        if (manifestFile.isFile())
+        {
+            InputStream in = new FileInputStream(manifestFile);
+            try
+            {
+                manifest.read(in);
+            }
+            finally
+            {
+                IOUtil.close(in);
+            }
+        }
+        if (manifest.getMainAttributes().getValue(Attributes.Name.MANIFEST_VERSION) == null)
+        {
+            manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        }
+        JarOutputStream out = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try
+        {
+            JarEntry manifestEntry = new JarEntry(JarFile.MANIFEST_NAME);
+            if (time >= 0)
+            {
+                manifestEntry.setTime(ReproducibleJar.toEntryTime(time));
+            }
+            out.putNextEntry(manifestEntry);
+            manifest.write(out);
+            out.closeEntry();
+            for (String directoryName : directoryNames)
+            {
+                if (directoryName.length() > 0)
+                {
+                    JarEntry entry = new JarEntry(directoryName.replace(File.separatorChar, '/') + "/");
+                    entry.setTime(time >= 0 ? ReproducibleJar.toEntryTime(time)
+                            : new File(classesDirectory, directoryName).lastModified());
+                    out.putNextEntry(entry);
+                    out.closeEntry();
+                }
+            }
+            for (String fileName : fileNames)
+            {
+                File file = new File(classesDirectory, fileName);
+                JarEntry entry = new JarEntry(fileName.replace(File.separatorChar, '/'));
+                entry.setTime(time >= 0 ? ReproducibleJar.toEntryTime(time) : file.lastModified());
+                out.putNextEntry(entry);
+                InputStream in = new FileInputStream(file);
+                try
+                {
+                    IOUtil.copy(in, out);
+                }
+                finally
+                {
+                    IOUtil.close(in);
+                }
+                out.closeEntry();
+            }
+        }
+        finally
+        {
+            IOUtil.close(out);
+        }
+
+        if (jar.exists() && !jar.delete())
+        {
+            throw new IOException("Could not delete " + jar);
+        }
+        if (!tmp.renameTo(jar))
+        {
+            throw new IOException("Could not rename " + tmp + " to " + jar);
+        }
+        return true;
+    }
+
+    private static boolean isUpToDate(File classesDirectory, String[] fileNames, File jar) throws IOException
+    {
+        if (!jar.exists())
+        {
+            return false;
+        }
+        long jarModified = jar.lastModified();
+        for (String fileName : fileNames)
+        {
+            if (new File(classesDirectory, fileName).lastModified() > jarModified)
+            {
+                return false;
+            }
+        }
+        if (new File(classesDirectory, JarFile.MANIFEST_NAME).lastModified() > jarModified)
+        {
+            return false;
+        }
+
+        // catch deleted classes
+        int fileCount = 0;
+        JarFile jarFile = new JarFile(jar);
+        try
+        {
+            Enumeration<? extends ZipEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements())
+            {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory() && !JarFile.MANIFEST_NAME.equals(entry.getName()))
+                {
+                    fileCount++;
+                }
+            }
+        }
+        finally
+        {
+            jarFile.close();
+        }
+        return fileCount == fileNames.length;
+    }
+}
@@ -0,0 +1,375 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Validates the database scripts of a plugin and writes an index of them.
+ * <p/>
+ * Install scripts are named <tt>&lt;key&gt;_&lt;dialect&gt;.sql</tt>, upgrade scripts
+ * <tt>upgrade/&lt;version&gt;/&lt;key&gt;_&lt;dialect&gt;.sql</tt>. For each key and dialect the upgrade
+ * versions must be continuous from the lowest upgrade version of the key, each upgrade script must update
+ * <tt>ofVersion</tt> to its version and the install script must insert the latest version. The index lists
+ * one script per line, Openfire does not use it:
+ * <pre>
+ * key dialect install|upgrade version statements sha1 path
+ * </pre>
+ */
+class DatabaseScriptIndexer
+{
+    static final String INDEX_NAME = "index.list";
+
+    private static final String HEADER = "# key dialect type version statements sha1 path";
+
+    private static final String INSTALL = "install";
+
+    private static final String UPGRADE = "upgrade";
+
+    private static final Pattern INSERT_VERSION = Pattern.compile(
+            "insert\\s+into\\s+ofVersion\\s*\\(\\s*name\\s*,\\s*version\\s*\\)\\s*values\\s*\\(\\s*'([^']*)'\\s*,\\s*(\\d+)\\s*\\)",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern UPDATE_VERSION = Pattern.compile(
+            "update\\s+ofVersion\\s+set\\s+version\\s*=\\s*(\\d+)\\s+where\\s+name\\s*=\\s*'([^']*)'",
+            Pattern.CASE_INSENSITIVE);
+
+    private DatabaseScriptIndexer()
+    {
+        // prevent instantiation
+    }
+
+    /**
+     * Returns whether the index is newer than all scripts and lists as many scripts as there are.
+     *
+     * @param sourceDirectory the database source directory
+     * @param indexFile       the index file
+     * @param descriptor      the plugin descriptor, it declares the database key and version
+     * @return <code>true</code> if the scripts need not be validated and indexed again
+     * @throws IOException if the index cannot be read
+     */
+    public static boolean isUpToDate(File sourceDirectory, File indexFile, File descriptor) throws IOException
+    {
+        if (!indexFile.exists() || indexFile.lastModified() < descriptor.lastModified())
+        {
+            return false;
+        }
+
+        List<String> scripts = getScripts(sourceDirectory);
+        for (String script : scripts)
+        {
+            if (new File(sourceDirectory, script).lastModified() > indexFile.lastModified())
+            {
+                return false;
+            }
+        }
+        return FileUtils.fileRead(indexFile, "UTF-8").split("\n").length == scripts.size() + 1;
+    }
+
+    /**
+     * Validates the scripts and writes the index.
+     *
+     * @param sourceDirectory the database source directory
+     * @param indexFile       the index file to write
+     * @param descriptor      the plugin descriptor, it declares the database key and version
+     * @param writeIndex      whether to write the index if there are problems
+     * @return the problems found
+     * @throws IOException if a script cannot be read or the index cannot be written
+     */
+    public static List<String> index(File sourceDirectory, File indexFile, File descriptor, boolean writeIndex)
+            throws IOException
+    {
+        List<String> problems = new ArrayList<String>();
+        StringBuilder index = new StringBuilder(HEADER).append('\n');
+
+        // versions of the upgrade scripts and of the install script keyed by key and dialect
+        Map<String, SortedSet<Integer>> upgrades = new TreeMap<String, SortedSet<Integer>>();
+        Map<String, Integer> installs = new TreeMap<String, Integer>();
+
+        for (String script : getScripts(sourceDirectory))
+        {
+            String path = script.replace(File.separatorChar, '/');
+            String fileName = path.substring(path.lastIndexOf('/') + 1, path.length() - ".sql".length());
+            int separator = fileName.lastIndexOf('_');
+            if (separator <= 0)
+            {
+                problems.add(path + ": name does not match <key>_<dialect>.sql");
+                continue;
+            }
+            String key = fileName.substring(0, separator);
+            String dialect = fileName.substring(separator + 1);
+
+            byte[] bytes = readBytes(new File(sourceDirectory, script));
+            // the encoding does not matter for finding statements and versions
+            String sql = new String(bytes, "ISO-8859-1");
+            String type;
+            Integer version;
+            if (path.startsWith(UPGRADE + "/"))
+            {
+                type = UPGRADE;
+                String directory = path.substring(UPGRADE.length() + 1, path.lastIndexOf('/'));
+                try
+                {
+                    version = Integer.valueOf(directory);
+                }
+                catch (NumberFormatException e)
+                {
+                    problems.add(path + ": upgrade directory is not a version number");
+                    continue;
+                }
+
+                Matcher matcher = UPDATE_VERSION.matcher(sql);
+                if (!matcher.find())
+                {
+                    problems.add(path + ": does not update ofVersion");
+                }
+                else if (!version.equals(Integer.valueOf(matcher.group(1))) || !key.equals(matcher.group(2)))
+                {
+                    problems.add(path + ": sets the ofVersion of " + matcher.group(2) + " to " + matcher.group(1));
+                }
+                SortedSet<Integer> versions = upgrades.get(key + " " + dialect);
+                if (versions == null)
+                {
+                    versions = new TreeSet<Integer>();
+                    upgrades.put(key + " " + dialect, versions);
+                }
+                versions.add(version);
+            }
+            else
+            {
+                type = INSTALL;
+                Matcher matcher = INSERT_VERSION.matcher(sql);
+                if (!matcher.find())
+                {
+                    problems.add(path + ": does not insert into ofVersion");
+                    version = 0;
+                }
+                else
+                {
+                    version = Integer.valueOf(matcher.group(2));
+                    if (!key.equals(matcher.group(1)))
+                    {
+                        problems.add(path + ": inserts ofVersion for " + matcher.group(1));
+                    }
+                }
+                installs.put(key + " " + dialect, version);
+            }
+
+            index.append(key).append(' ').append(dialect).append(' ').append(type).append(' ').append(version)
+                    .append(' ').append(countStatements(sql)).append(' ').append(sha1(bytes))
+                    .append(' ').append(path).append('\n');
+        }
+
+        checkVersions(installs, upgrades, problems);
+        checkDescriptor(descriptor, installs, problems);
+
+        if (writeIndex || problems.isEmpty())
+        {
+            indexFile.getParentFile().mkdirs();
+            FileUtils.fileWrite(indexFile.getPath(), "UTF-8", index.toString());
+        }
+        return problems;
+    }
+
+    private static void checkVersions(Map<String, Integer> installs, Map<String, SortedSet<Integer>> upgrades,
+                                      List<String> problems)
+    {
+        // all dialects of a key must provide the same scripts
+        Map<String, SortedSet<Integer>> upgradesByKey = new TreeMap<String, SortedSet<Integer>>();
+        SortedSet<String> keysAndDialects = new TreeSet<String>(installs.keySet());
+        keysAndDialects.addAll(upgrades.keySet());
+        for (String keyAndDialect : keysAndDialects)
+        {
+            String key = keyAndDialect.substring(0, keyAndDialect.indexOf(' '));
+            SortedSet<Integer> versions = upgrades.get(keyAndDialect);
+            if (versions != null)
+            {
+                SortedSet<Integer> keyVersions = upgradesByKey.get(key);
+                if (keyVersions == null)
+                {
+                    keyVersions = new TreeSet<Integer>();
+                    upgradesByKey.put(key, keyVersions);
+                }
+                keyVersions.addAll(versions);
+            }
+        }
+
+        for (String keyAndDialect : keysAndDialects)
+        {
+            String key = keyAndDialect.substring(0, keyAndDialect.indexOf(' '));
+            String name = keyAndDialect.replace(' ', '_');
+            SortedSet<Integer> keyVersions = upgradesByKey.get(key);
+            int latest = keyVersions == null ? 0 : keyVersions.last();
+            // a plugin may have shipped its first release with a later version
+            int first = keyVersions == null ? 1 : keyVersions.first();
+
+            SortedSet<Integer> versions = upgrades.get(keyAndDialect);
+            for (int version = first; version <= latest; version++)
+            {
+                if (versions == null || !versions.contains(version))
+                {
+                    problems.add(name + ": upgrade script for version " + version + " is missing");
+                }
+            }
+
+            Integer installed = installs.get(keyAndDialect);
+            if (installed == null)
+            {
+                problems.add(name + ": install script is missing");
+            }
+            else if (installed != latest && latest > 0)
+            {
+                problems.add(name + ": install script inserts version " + installed
+                        + " but the latest upgrade is version " + latest);
+            }
+        }
+    }
+
+    private static void checkDescriptor(File descriptor, Map<String, Integer> installs, List<String> problems)
+            throws IOException
+    {
+        String content = descriptor.exists() ? FileUtils.fileRead(descriptor, "UTF-8") : "";
+        String key = getElement(content, "databaseKey");
+        String version = getElement(content, "databaseVersion");
+        if (key == null)
+        {
+            if (!installs.isEmpty())
+            {
+                problems.add("plugin.xml does not declare a databaseKey, the scripts are never run");
+            }
+            return;
+        }
+
+        boolean found = false;
+        for (Map.Entry<String, Integer> install : installs.entrySet())
+        {
+            if (install.getKey().startsWith(key + " "))
+            {
+                found = true;
+                if (version != null && !version.equals(String.valueOf(install.getValue())))
+                {
+                    problems.add(install.getKey().replace(' ', '_') + ": install script inserts version "
+                            + install.getValue() + " but plugin.xml declares databaseVersion " + version);
+                }
+            }
+        }
+        if (!found)
+        {
+            problems.add("plugin.xml declares databaseKey " + key + " but there is no install script for it");
+        }
+    }
+
+    private static String getElement(String xml, String name)
+    {
+        Matcher matcher = Pattern.compile("<" + name + ">\\s*([^<]*?)\\s*</" + name + ">").matcher(xml);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    /**
+     * Counts the statements terminated by <tt>;</tt> or a line with <tt>go</tt>, ignoring
+     * comments and string literals.
+     */
+    static int countStatements(String sql)
+    {
+        int statements = 0;
+        boolean content = false;
+        int i = 0;
+        while (i < sql.length())
+        {
+            char c = sql.charAt(i);
+            char next = i + 1 < sql.length() ? sql.charAt(i + 1) : 0;
+            boolean lineStart = i == 0 || sql.charAt(i - 1) == '\n';
+
+            if ((c == '-' && next == '-') || (c == '#' && lineStart))
+            {
+                while (i < sql.length() && sql.charAt(i) != '\n')
+                {
+                    i++;
+                }
+            }
+            else if (c == '/' && next == '*')
+            {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? sql.length() : end + 2;
+            }
+            else if (c == '\'' || c == '"')
+            {
+                int end = sql.indexOf(c, i + 1);
+                i = end < 0 ? sql.length() : end + 1;
+                content = true;
+            }
+            else if (c == ';')
+            {
+                if (content)
+                {
+                    statements++;
+                }
+                content = false;
+                i++;
+            }
+            else if (lineStart && isGo(sql, i))
+            {
+                if (content)
+                {
+                    statements++;
+                }
+                content = false;
+                i += 2;
+            }
+            else
+            {
+                content |= !Character.isWhitespace(c);
+                i++;
+            }
+        }
+        return content ? statements + 1 : statements;
+    }
+
+    private static boolean isGo(String sql, int i)
+    {
+        if (!sql.regionMatches(true, i, "go", 0, 2))
+        {
+            return false;
+        }
+        int end = sql.indexOf('\n', i);
+        return sql.substring(i + 2, end < 0 ? sql.length() : end).trim().length() == 0;
+    }
+
+    private static List<String> getScripts(File sourceDirectory) throws IOException
+    {
+        List<String> scripts = FileUtils.getFileNames(sourceDirectory, "*.sql,upgrade/*/*.sql", null, false);
+        Collections.sort(scripts);
+        return scripts;
+    }
+
+    private static byte[] readBytes(File file) throws IOException
+    {
+        InputStream in = new FileInputStream(file);
+        try
+        {
+            return IOUtil.toByteArray(in);
+        }
+        finally
+        {
+            IOUtil.close(in);
+        }
+    }
+
+    private static String sha1(byte[] bytes) throws IOException
+    {
+        return DigestUtils.toHex(DigestUtils.newDigest("SHA-1").digest(bytes));
+    }
+}
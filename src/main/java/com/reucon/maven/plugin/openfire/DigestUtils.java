@@ -0,0 +1,81 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Helpers for message digests.
+ */
+final class DigestUtils
+{
+    private DigestUtils()
+    {
+        // prevent instantiation
+    }
+
+    /**
+     * Returns a new digest for the given algorithm.
+     *
+     * @param algorithm the algorithm, e.g. <tt>SHA-1</tt>
+     * @return the digest
+     * @throws IOException if the algorithm is not supported
+     */
+    public static MessageDigest newDigest(String algorithm) throws IOException
+    {
+        try
+        {
+            return MessageDigest.getInstance(algorithm);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IOException(algorithm + " not supported: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the digest of a file.
+     *
+     * @param file      the file
+     * @param algorithm the algorithm, e.g. <tt>SHA-256</tt>
+     * @return the digest
+     * @throws IOException if the file cannot be read or the algorithm is not supported
+     */
+    public static byte[] digest(File file, String algorithm) throws IOException
+    {
+        MessageDigest digest = newDigest(algorithm);
+        InputStream in = new FileInputStream(file);
+        try
+        {
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buffer)) > 0)
+            {
+                digest.update(buffer, 0, n);
+            }
+        }
+        finally
+        {
+            IOUtil.close(in);
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Returns the lower case hex representation of a digest.
+     */
+    public static String toHex(byte[] digest)
+    {
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest)
+        {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
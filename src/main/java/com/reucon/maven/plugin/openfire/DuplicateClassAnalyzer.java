@@ -0,0 +1,243 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Finds classes that are contained in more than one jar and packages that are split across jars.
+ * <p/>
+ * Only the central directories of the jars are read, in parallel. Two copies of a class are considered
+ * identical if they have the same CRC-32 and size.
+ */
+class DuplicateClassAnalyzer
+{
+    private final int threads;
+
+    /**
+     * @param threads the number of jars to read in parallel
+     */
+    DuplicateClassAnalyzer(int threads)
+    {
+        this.threads = threads;
+    }
+
+    /**
+     * Indexes the classes of the given jars.
+     *
+     * @param jars the jars in class path order keyed by their name in the report
+     * @return the duplicate classes and split packages
+     * @throws IOException if a jar cannot be read
+     */
+    public Result analyze(Map<String, File> jars) throws IOException
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, jars.size())));
+        Map<String, Future<List<ClassEntry>>> futures = new LinkedHashMap<String, Future<List<ClassEntry>>>();
+        try
+        {
+            for (final Map.Entry<String, File> jar : jars.entrySet())
+            {
+                futures.put(jar.getKey(), executor.submit(new Callable<List<ClassEntry>>()
+                {
+                    public List<ClassEntry> call() throws IOException
+                    {
+                        return readClasses(jar.getValue());
+                    }
+                }));
+            }
+
+            Result result = new Result();
+            for (Map.Entry<String, Future<List<ClassEntry>>> future : futures.entrySet())
+            {
+                String jarName = future.getKey();
+                for (ClassEntry entry : get(future.getValue(), jars.get(jarName)))
+                {
+                    result.add(jarName, entry);
+                }
+            }
+            return result;
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<ClassEntry> get(Future<List<ClassEntry>> future, File jar) throws IOException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading " + jar);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IOException("Unable to read " + jar + ": " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Reads the classes from the central directory of a jar, leaving out <tt>module-info</tt> and the
+     * versioned classes of multi-release jars.
+     */
+    private static List<ClassEntry> readClasses(File jar) throws IOException
+    {
+        List<ClassEntry> classes = new ArrayList<ClassEntry>();
+        ZipFile zipFile = new ZipFile(jar);
+        try
+        {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements())
+            {
+                ZipEntry entry = entries.nextElement();
+                String name = entry.getName();
+                if (entry.isDirectory() || !name.endsWith(".class") || name.startsWith("META-INF/")
+                        || name.endsWith("module-info.class"))
+                {
+                    continue;
+                }
+                classes.add(new ClassEntry(name.substring(0, name.length() - ".class".length()), entry.getCrc(),
+                        entry.getSize()));
+            }
+        }
+        finally
+        {
+            zipFile.close();
+        }
+        return classes;
+    }
+
+    private static class ClassEntry
+    {
+        private final String name;
+
+        private final long crc;
+
+        private final long size;
+
+        ClassEntry(String name, long crc, long size)
+        {
+            this.name = name;
+            this.crc = crc;
+            this.size = size;
+        }
+    }
+
+    /**
+     * The index of classes and packages.
+     */
+    static class Result
+    {
+        /**
+         * The jars containing each class, keyed by internal class name.
+         */
+        private final Map<String, List<String>> classJars = new TreeMap<String, List<String>>();
+
+        /**
+         * Whether all copies of a duplicate class are identical, keyed by internal class name.
+         */
+        private final Map<String, Boolean> identical = new TreeMap<String, Boolean>();
+
+        private final Map<String, ClassEntry> firstEntries = new TreeMap<String, ClassEntry>();
+
+        private final Map<String, Set<String>> packageJars = new TreeMap<String, Set<String>>();
+
+        private int classCount;
+
+        private void add(String jarName, ClassEntry entry)
+        {
+            classCount++;
+            List<String> jars = classJars.get(entry.name);
+            if (jars == null)
+            {
+                jars = new ArrayList<String>(1);
+                classJars.put(entry.name, jars);
+                firstEntries.put(entry.name, entry);
+            }
+            else if (!jars.contains(jarName))
+            {
+                ClassEntry first = firstEntries.get(entry.name);
+                Boolean same = identical.get(entry.name);
+                identical.put(entry.name, (same == null || same) && first.crc == entry.crc && first.size == entry.size);
+            }
+            if (!jars.contains(jarName))
+            {
+                jars.add(jarName);
+            }
+
+            int slash = entry.name.lastIndexOf('/');
+            String packageName = slash < 0 ? "" : entry.name.substring(0, slash).replace('/', '.');
+            Set<String> packages = packageJars.get(packageName);
+            if (packages == null)
+            {
+                packages = new LinkedHashSet<String>(1);
+                packageJars.put(packageName, packages);
+            }
+            packages.add(jarName);
+        }
+
+        /**
+         * Returns the number of class entries read from all jars.
+         */
+        public int getClassCount()
+        {
+            return classCount;
+        }
+
+        /**
+         * Returns the jars of each class contained in more than one jar, keyed by class name, the jar that
+         * wins in class path order first.
+         */
+        public Map<String, List<String>> getDuplicateClasses()
+        {
+            Map<String, List<String>> duplicates = new TreeMap<String, List<String>>();
+            for (String className : identical.keySet())
+            {
+                duplicates.put(className.replace('/', '.'), classJars.get(className));
+            }
+            return duplicates;
+        }
+
+        /**
+         * Returns whether all copies of a duplicate class are byte-identical.
+         */
+        public boolean isIdentical(String className)
+        {
+            return Boolean.TRUE.equals(identical.get(className.replace('.', '/')));
+        }
+
+        /**
+         * Returns the jars of each package whose classes come from more than one jar, keyed by package.
+         */
+        public Map<String, Set<String>> getSplitPackages()
+        {
+            Map<String, Set<String>> split = new TreeMap<String, Set<String>>();
+            for (Map.Entry<String, Set<String>> entry : packageJars.entrySet())
+            {
+                if (entry.getValue().size() > 1)
+                {
+                    split.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return split;
+        }
+    }
+}
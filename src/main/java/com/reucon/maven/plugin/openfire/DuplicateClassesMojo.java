@@ -0,0 +1,186 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Reports classes that are contained in more than one of the libraries packaged into <tt>lib/</tt> or
+ * in a library and Openfire, and packages split across these jars.
+ * <p/>
+ * The libraries are selected like the <tt>openfire-plugin</tt> goal does. Openfire loads the class from the
+ * first jar on its class path and its own classes before those of the plugin, the first jar listed for a
+ * class is the one that wins.
+ *
+ * @goal duplicate-classes
+ * @phase verify
+ * @requiresDependencyResolution compile
+ */
+public class DuplicateClassesMojo extends AbstractOpenfireMojo
+{
+    /**
+     * Whether to fail the build if a class is contained in more than one jar.
+     *
+     * @parameter property="openfire.failOnDuplicates" default-value="false"
+     */
+    private boolean failOnDuplicates;
+
+    /**
+     * Whether classes whose copies are all byte-identical count as duplicates for
+     * <tt>failOnDuplicates</tt>.
+     *
+     * @parameter property="openfire.failOnIdenticalDuplicates" default-value="true"
+     */
+    private boolean failOnIdenticalDuplicates;
+
+    /**
+     * The file the duplicate classes and split packages are written to.
+     *
+     * @parameter default-value="${project.build.directory}/openfire-duplicate-classes.txt"
+     */
+    private File duplicateClassesReport;
+
+    /**
+     * The number of jars read in parallel, by default the number of processors.
+     *
+     * @parameter property="openfire.duplicateClassesThreads" default-value="0"
+     */
+    private int duplicateClassesThreads;
+
+    public void execute() throws MojoExecutionException, MojoFailureException
+    {
+        Result result;
+        try
+        {
+            Map<String, File> jars = new LinkedHashMap<String, File>();
+            File openfire = getOpenfireArtifactFile();
+            if (openfire != null)
+            {
+                jars.put(openfire.getName() + " (Openfire)", openfire);
+            }
+            File webinfDir = new File(getOpenfirePluginDirectory(), "web" + File.separator + "WEB-INF");
+            for (Map.Entry<String, Artifact> library : selectLibraries(webinfDir).entrySet())
+            {
+                jars.put(library.getKey(), library.getValue().getFile());
+            }
+
+            int threads = duplicateClassesThreads > 0
+                    ? duplicateClassesThreads : Runtime.getRuntime().availableProcessors();
+            long start = System.currentTimeMillis();
+            result = new Result(new DuplicateClassAnalyzer(threads).analyze(jars));
+            getLog().info("Indexed " + result.analysis.getClassCount() + " classes in " + jars.size() + " jars in "
+                    + (System.currentTimeMillis() - start) + " ms");
+
+            FileUtils.fileWrite(duplicateClassesReport.getPath(), "UTF-8", result.toString());
+        }
+        catch (IOException e)
+        {
+            throw new MojoExecutionException("Error analyzing duplicate classes: " + e.getMessage(), e);
+        }
+
+        for (Map.Entry<String, int[]> jarSet : result.getJarSets().entrySet())
+        {
+            int[] counts = jarSet.getValue();
+            getLog().warn("Duplicate classes in " + jarSet.getKey() + ": " + counts[0] + " classes"
+                    + (counts[1] > 0 ? ", " + counts[1] + " of them identical" : ""));
+        }
+        int duplicates = result.analysis.getDuplicateClasses().size();
+        getLog().info(duplicates + " duplicate classes (" + result.identicalCount + " identical), "
+                + result.analysis.getSplitPackages().size() + " split packages, see " + duplicateClassesReport);
+
+        int failing = failOnIdenticalDuplicates ? duplicates : duplicates - result.identicalCount;
+        if (failOnDuplicates && failing > 0)
+        {
+            throw new MojoFailureException(failing + " classes are contained in more than one jar, see "
+                    + duplicateClassesReport);
+        }
+    }
+
+    /**
+     * Formats the analysis.
+     */
+    private static class Result
+    {
+        private final DuplicateClassAnalyzer.Result analysis;
+
+        private int identicalCount;
+
+        Result(DuplicateClassAnalyzer.Result analysis)
+        {
+            this.analysis = analysis;
+            for (String className : analysis.getDuplicateClasses().keySet())
+            {
+                if (analysis.isIdentical(className))
+                {
+                    identicalCount++;
+                }
+            }
+        }
+
+        /**
+         * Returns the number of duplicate classes and of identical ones for each set of jars sharing classes.
+         */
+        Map<String, int[]> getJarSets()
+        {
+            Map<String, int[]> jarSets = new TreeMap<String, int[]>();
+            for (Map.Entry<String, List<String>> duplicate : analysis.getDuplicateClasses().entrySet())
+            {
+                String key = join(duplicate.getValue());
+                int[] counts = jarSets.get(key);
+                if (counts == null)
+                {
+                    counts = new int[2];
+                    jarSets.put(key, counts);
+                }
+                counts[0]++;
+                if (analysis.isIdentical(duplicate.getKey()))
+                {
+                    counts[1]++;
+                }
+            }
+            return jarSets;
+        }
+
+        public String toString()
+        {
+            StringBuilder s = new StringBuilder();
+            s.append("# Duplicate classes: class, identical or different, jars in class path order\n");
+            for (Map.Entry<String, List<String>> duplicate : analysis.getDuplicateClasses().entrySet())
+            {
+                s.append(duplicate.getKey()).append('\t')
+                        .append(analysis.isIdentical(duplicate.getKey()) ? "identical" : "different").append('\t')
+                        .append(join(duplicate.getValue())).append('\n');
+            }
+            s.append("# Split packages: package, jars\n");
+            for (Map.Entry<String, Set<String>> split : analysis.getSplitPackages().entrySet())
+            {
+                s.append(split.getKey().length() > 0 ? split.getKey() : "(default package)").append('\t')
+                        .append(join(split.getValue())).append('\n');
+            }
+            return s.toString();
+        }
+
+        private static String join(Iterable<String> jars)
+        {
+            StringBuilder s = new StringBuilder();
+            for (String jar : jars)
+            {
+                if (s.length() > 0)
+                {
+                    s.append(", ");
+                }
+                s.append(jar);
+            }
+            return s.toString();
+        }
+    }
+}
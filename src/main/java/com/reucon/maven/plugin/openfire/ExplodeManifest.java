@@ -0,0 +1,226 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * The entries written to the exploded plugin directory by the current build.
+ * <p/>
+ * Every stage that writes to the exploded plugin registers its files, and the plugin jar is built from
+ * the registered entries instead of a scan of the directory. Files left over from earlier builds are
+ * therefore not packaged. The manifest is saved with the size, modification time and SHA-1 of each
+ * entry; hashes of entries that did not change since the previous build are taken from the saved copy.
+ * <pre>
+ * path size lastModified sha1 source
+ * </pre>
+ */
+class ExplodeManifest
+{
+    private static final String HEADER = "# path size lastModified sha1 source";
+
+    private final File directory;
+
+    private final Map<String, Entry> entries = new TreeMap<String, Entry>();
+
+    /**
+     * @param directory the exploded plugin directory
+     */
+    ExplodeManifest(File directory)
+    {
+        this.directory = directory.getAbsoluteFile();
+    }
+
+    /**
+     * Registers a generated file.
+     *
+     * @param file the file below the exploded plugin directory
+     */
+    public void add(File file)
+    {
+        add(file, file);
+    }
+
+    /**
+     * Registers a copied file.
+     *
+     * @param file   the file below the exploded plugin directory
+     * @param source the file it was copied or generated from
+     */
+    public void add(File file, File source)
+    {
+        String path = file.getAbsolutePath();
+        String root = directory.getPath() + File.separator;
+        if (!path.startsWith(root))
+        {
+            throw new IllegalArgumentException(file + " is not below " + directory);
+        }
+
+        Entry entry = new Entry();
+        entry.fileName = path.substring(root.length());
+        entry.file = file;
+        entry.source = source;
+        entries.put(entry.fileName, entry);
+    }
+
+    /**
+     * Registers a file if it exists.
+     */
+    public void addIfExists(File file)
+    {
+        if (file.isFile())
+        {
+            add(file);
+        }
+    }
+
+    /**
+     * Returns the entries in the order of their paths.
+     */
+    public Collection<Entry> getEntries()
+    {
+        return entries.values();
+    }
+
+    /**
+     * Reads the sizes and modification times of the entries, hashes those that changed since the manifest
+     * was saved last time and saves it.
+     *
+     * @param manifestFile the file to save the manifest to
+     * @throws IOException if an entry cannot be read or the manifest cannot be written
+     */
+    public void save(File manifestFile) throws IOException
+    {
+        Map<String, String[]> previous = new HashMap<String, String[]>();
+        if (manifestFile.isFile())
+        {
+            for (String line : FileUtils.fileRead(manifestFile, "UTF-8").split("\n"))
+            {
+                String[] fields = line.split("\t");
+                if (!line.startsWith("#") && fields.length >= 4)
+                {
+                    previous.put(fields[0], fields);
+                }
+            }
+        }
+
+        StringBuilder content = new StringBuilder(HEADER).append('\n');
+        for (Entry entry : entries.values())
+        {
+            BasicFileAttributes attributes = Files.readAttributes(entry.file.toPath(), BasicFileAttributes.class);
+            entry.size = attributes.size();
+            entry.lastModified = attributes.lastModifiedTime().toMillis();
+
+            String path = entry.getPath();
+            String[] fields = previous.get(path);
+            if (fields != null && fields[1].equals(String.valueOf(entry.size))
+                    && fields[2].equals(String.valueOf(entry.lastModified)))
+            {
+                entry.hash = fields[3];
+            }
+            else
+            {
+                entry.hash = hash(entry.file);
+            }
+
+            content.append(path).append('\t').append(entry.size).append('\t').append(entry.lastModified)
+                    .append('\t').append(entry.hash).append('\t').append(entry.source.getPath()).append('\n');
+        }
+
+        manifestFile.getParentFile().mkdirs();
+        FileUtils.fileWrite(manifestFile.getPath(), "UTF-8", content.toString());
+    }
+
+    private static String hash(File file) throws IOException
+    {
+        MessageDigest digest = DigestUtils.newDigest("SHA-1");
+        InputStream in = new FileInputStream(file);
+        try
+        {
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buffer)) > 0)
+            {
+                digest.update(buffer, 0, n);
+            }
+        }
+        finally
+        {
+            IOUtil.close(in);
+        }
+        return DigestUtils.toHex(digest.digest());
+    }
+
+    /**
+     * An entry of the exploded plugin.
+     */
+    static class Entry
+    {
+        private String fileName;
+
+        private File file;
+
+        private File source;
+
+        private long size;
+
+        private long lastModified;
+
+        private String hash;
+
+        /**
+         * Returns the path relative to the exploded plugin directory with platform separators.
+         */
+        public String getFileName()
+        {
+            return fileName;
+        }
+
+        /**
+         * Returns the path relative to the exploded plugin directory with <tt>/</tt> separators.
+         */
+        public String getPath()
+        {
+            return fileName.replace(File.separatorChar, '/');
+        }
+
+        public File getFile()
+        {
+            return file;
+        }
+
+        public File getSource()
+        {
+            return source;
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+
+        public long getLastModified()
+        {
+            return lastModified;
+        }
+
+        /**
+         * Returns the SHA-1 of the content, available after the manifest was saved.
+         */
+        public String getHash()
+        {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.codehaus.plexus.util.AbstractScanner;
+import org.codehaus.plexus.util.MatchPatterns;
+
+/**
+ * The files below a directory with their sizes and modification times, read in a single walk.
+ * <p/>
+ * Selecting files by include and exclude patterns works like a <code>DirectoryScanner</code> but on the
+ * snapshot, and the files returned by {@link #getFile(String)} answer <code>lastModified()</code> and
+ * <code>length()</code> from it, so copying them does not stat the sources again.
+ */
+class FileTreeSnapshot
+{
+    private static final String[] ALL = {"**"};
+
+    private final File root;
+
+    private final Map<String, SnapshotFile> files = new TreeMap<String, SnapshotFile>();
+
+    private FileTreeSnapshot(File root)
+    {
+        this.root = root;
+    }
+
+    /**
+     * Walks a directory. A directory that does not exist results in an empty snapshot.
+     *
+     * @param root the directory
+     * @return the snapshot
+     * @throws IOException if the directory cannot be read
+     */
+    public static FileTreeSnapshot take(File root) throws IOException
+    {
+        final FileTreeSnapshot snapshot = new FileTreeSnapshot(root);
+        if (!root.isDirectory())
+        {
+            return snapshot;
+        }
+
+        final Path rootPath = root.toPath();
+        Files.walkFileTree(rootPath, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                new SimpleFileVisitor<Path>()
+                {
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attributes)
+                    {
+                        if (attributes.isRegularFile())
+                        {
+                            String fileName = rootPath.relativize(file).toString();
+                            snapshot.files.put(fileName, new SnapshotFile(snapshot.root, fileName,
+                                    attributes.size(), attributes.lastModifiedTime().toMillis()));
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException
+                    {
+                        if (e instanceof FileSystemLoopException)
+                        {
+                            // a link to a parent directory, skip it like the DirectoryScanner
+                            return FileVisitResult.CONTINUE;
+                        }
+                        throw e;
+                    }
+                });
+        return snapshot;
+    }
+
+    public File getRoot()
+    {
+        return root;
+    }
+
+    /**
+     * Returns the file of the snapshot or, if it was not there, a plain file.
+     *
+     * @param fileName the path relative to the root
+     */
+    public File getFile(String fileName)
+    {
+        SnapshotFile file = files.get(fileName);
+        return file != null ? file : new File(root, fileName);
+    }
+
+    /**
+     * Returns all files in the order of their paths.
+     */
+    public Collection<SnapshotFile> getFiles()
+    {
+        return files.values();
+    }
+
+    /**
+     * Returns the paths of the files matching the patterns, relative to the root.
+     *
+     * @param includes        the include patterns, all files if <code>null</code> or empty
+     * @param excludes        the exclude patterns, may be <code>null</code>
+     * @param defaultExcludes whether to exclude the files of version control systems etc.
+     * @return the paths in the order of their paths
+     */
+    public String[] getFileNames(String[] includes, String[] excludes, boolean defaultExcludes)
+    {
+        List<String> fileNames = select(files.keySet(), includes, excludes, defaultExcludes);
+        return fileNames.toArray(new String[fileNames.size()]);
+    }
+
+    /**
+     * Returns the paths matching the patterns.
+     *
+     * @param fileNames       relative paths with platform separators
+     * @param includes        the include patterns, all paths if <code>null</code> or empty
+     * @param excludes        the exclude patterns, may be <code>null</code>
+     * @param defaultExcludes whether to exclude the files of version control systems etc.
+     * @return the matching paths in their original order
+     */
+    static List<String> select(Collection<String> fileNames, String[] includes, String[] excludes,
+                               boolean defaultExcludes)
+    {
+        List<String> excludeList = new ArrayList<String>();
+        if (excludes != null)
+        {
+            for (String exclude : excludes)
+            {
+                excludeList.add(exclude);
+            }
+        }
+        if (defaultExcludes)
+        {
+            for (String exclude : AbstractScanner.DEFAULTEXCLUDES)
+            {
+                excludeList.add(exclude);
+            }
+        }
+
+        MatchPatterns includePatterns = toPatterns(includes == null || includes.length == 0 ? ALL : includes);
+        MatchPatterns excludePatterns = toPatterns(excludeList.toArray(new String[excludeList.size()]));
+
+        List<String> selected = new ArrayList<String>();
+        for (String fileName : fileNames)
+        {
+            if (includePatterns.matches(fileName, true) && !excludePatterns.matches(fileName, true))
+            {
+                selected.add(fileName);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Normalizes patterns like <code>DirectoryScanner</code>: separators are converted to the platform ones
+     * and a trailing separator matches everything below.
+     */
+    private static MatchPatterns toPatterns(String[] patterns)
+    {
+        List<String> normalized = new ArrayList<String>();
+        for (String pattern : patterns)
+        {
+            pattern = pattern.trim();
+            if (!pattern.startsWith("%regex["))
+            {
+                pattern = pattern.replace('/', File.separatorChar).replace('\\', File.separatorChar);
+                if (pattern.endsWith(File.separator))
+                {
+                    pattern += "**";
+                }
+            }
+            normalized.add(pattern);
+        }
+        return MatchPatterns.from(normalized);
+    }
+
+    /**
+     * A file whose size and modification time are taken from the snapshot.
+     */
+    static class SnapshotFile extends File
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final String fileName;
+
+        private final long length;
+
+        private final long lastModified;
+
+        SnapshotFile(File root, String fileName, long length, long lastModified)
+        {
+            super(root, fileName);
+            this.fileName = fileName;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Returns the path relative to the root of the snapshot.
+         */
+        public String getFileName()
+        {
+            return fileName;
+        }
+
+        public long length()
+        {
+            return length;
+        }
+
+        public long lastModified()
+        {
+            return lastModified;
+        }
+    }
+}
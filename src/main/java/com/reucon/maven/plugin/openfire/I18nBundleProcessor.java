@@ -0,0 +1,594 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.DirectoryScanner;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Validates the i18n resource bundles of a plugin and writes them to the plugin directory, as they are
+ * or with normalized (<tt>\\u</tt> escaped ASCII) encoding, optionally compiled into
+ * <code>ListResourceBundle</code> classes.
+ * <p/>
+ * A file <tt>messages_de.properties</tt> is treated as a locale of <tt>messages.properties</tt>.
+ * The validation reports duplicate keys, keys missing from a locale, keys of a locale that are not
+ * in its base bundle and keys that do not occur in any source file.
+ */
+class I18nBundleProcessor
+{
+    private static final String PROPERTIES = ".properties";
+
+    private static final String[] USAGE_INCLUDES = {
+            "**/*.java", "**/*.jsp", "**/*.jspf", "**/*.jspx", "**/*.tag", "**/*.tagx",
+            "**/*.html", "**/*.htm", "**/*.xml", "**/*.js"};
+
+    private static final int MAX_LISTED_KEYS = 10;
+
+    private final Log log;
+
+    private final String encoding;
+
+    private String validationDigest;
+
+    /**
+     * @param log      the log
+     * @param encoding the encoding of the properties files, or <code>null</code> to read them as UTF-8
+     *                 and as ISO-8859-1 if they are not valid UTF-8, like <code>PropertyResourceBundle</code>
+     */
+    I18nBundleProcessor(Log log, String encoding)
+    {
+        this.log = log;
+        this.encoding = encoding;
+    }
+
+    /**
+     * Writes the bundles of <code>sourceDirectory</code> to <code>targetDirectory</code>. Normalized bundles
+     * are only rewritten if their content changed and only recompiled if their source changed, other
+     * files are copied as they are.
+     *
+     * @param sourceDirectory the i18n source directory
+     * @param targetDirectory the i18n directory of the plugin
+     * @param normalize       whether to write the bundles as ASCII with <tt>\\u</tt> escapes
+     * @param compile         whether to compile the bundles into classes as well
+     * @throws IOException if a file cannot be read or written
+     */
+    public void process(File sourceDirectory, File targetDirectory, boolean normalize, boolean compile)
+            throws IOException
+    {
+        int written = 0;
+        int compiled = 0;
+        for (String fileName : FileUtils.getFileNames(sourceDirectory, null, null, false))
+        {
+            File source = new File(sourceDirectory, fileName);
+            if (!fileName.endsWith(PROPERTIES))
+            {
+                File target = new File(targetDirectory, fileName);
+                if (target.lastModified() < source.lastModified())
+                {
+                    FileUtils.copyFile(source, target);
+                }
+                continue;
+            }
+
+            Map<String, String> bundle = normalize || compile ? parse(source, null) : null;
+            File target = new File(targetDirectory, fileName);
+            if (normalize)
+            {
+                // bundles are small, comparing the content is cheap and also replaces raw copies of earlier builds
+                String content = format(bundle);
+                if (!target.exists() || !content.equals(FileUtils.fileRead(target, "ISO-8859-1")))
+                {
+                    target.getParentFile().mkdirs();
+                    FileUtils.fileWrite(target.getPath(), "ISO-8859-1", content);
+                    written++;
+                }
+            }
+            else if (target.lastModified() != source.lastModified())
+            {
+                // the time stamp of the source also replaces normalized copies of earlier builds
+                FileUtils.copyFile(source, target);
+                target.setLastModified(source.lastModified());
+                written++;
+            }
+
+            String className = fileName.substring(0, fileName.length() - PROPERTIES.length())
+                    .replace(File.separatorChar, '/');
+            File classFile = new File(targetDirectory, className + ".class");
+            if (compile && classFile.lastModified() != source.lastModified())
+            {
+                byte[] bytes = ResourceBundleCompiler.compile(className, bundle);
+                if (bytes == null)
+                {
+                    log.warn("Unable to compile " + fileName + ", it is too large or not named like a class");
+                }
+                else
+                {
+                    classFile.getParentFile().mkdirs();
+                    writeBytes(classFile, bytes);
+                    classFile.setLastModified(source.lastModified());
+                    compiled++;
+                }
+            }
+            else if (!compile && classFile.exists())
+            {
+                classFile.delete();
+            }
+        }
+
+        if (written > 0 || compiled > 0)
+        {
+            log.info("Wrote " + written + " and compiled " + compiled + " i18n bundles to " + targetDirectory);
+        }
+    }
+
+    /**
+     * Validates the bundles unless neither they nor the files they are used in changed since the last
+     * validation recorded in <code>stamp</code>.
+     *
+     * @param sourceDirectory the i18n source directory
+     * @param usageRoots      the directories of the files the keys are used in
+     * @param stamp           the file recording the last validation
+     * @return the problems found or <code>null</code> if the bundles are up to date
+     * @throws IOException if a file cannot be read
+     */
+    public List<String> validate(File sourceDirectory, List<File> usageRoots, File stamp) throws IOException
+    {
+        List<String> bundleNames = new ArrayList<String>();
+        for (String fileName : FileUtils.getFileNames(sourceDirectory, "**/*" + PROPERTIES, null, false))
+        {
+            bundleNames.add(fileName.replace(File.separatorChar, '/'));
+        }
+        List<File> usageFiles = new ArrayList<File>();
+        for (File root : usageRoots)
+        {
+            if (root.isDirectory())
+            {
+                DirectoryScanner scanner = new DirectoryScanner();
+                scanner.setBasedir(root);
+                scanner.setIncludes(USAGE_INCLUDES);
+                scanner.addDefaultExcludes();
+                scanner.scan();
+                for (String fileName : scanner.getIncludedFiles())
+                {
+                    usageFiles.add(new File(root, fileName));
+                }
+            }
+        }
+
+        validationDigest = digest(sourceDirectory, bundleNames, usageFiles);
+        if (stamp.exists() && validationDigest.equals(FileUtils.fileRead(stamp, "UTF-8")))
+        {
+            log.debug("i18n bundles are up to date");
+            return null;
+        }
+
+        List<String> problems = new ArrayList<String>();
+        Map<String, Map<String, String>> bundles = new TreeMap<String, Map<String, String>>();
+        for (String bundleName : bundleNames)
+        {
+            List<String> duplicates = new ArrayList<String>();
+            bundles.put(bundleName, parse(new File(sourceDirectory, bundleName), duplicates));
+            if (!duplicates.isEmpty())
+            {
+                problems.add(bundleName + ": duplicate keys " + list(duplicates));
+            }
+        }
+
+        Set<String> tokens = new HashSet<String>();
+        for (File usageFile : usageFiles)
+        {
+            collectTokens(usageFile, tokens);
+        }
+
+        for (Map.Entry<String, Map<String, String>> entry : bundles.entrySet())
+        {
+            String baseName = getBaseName(entry.getKey(), bundles.keySet());
+            if (baseName == null)
+            {
+                List<String> unused = new ArrayList<String>();
+                for (String key : entry.getValue().keySet())
+                {
+                    if (!tokens.contains(key))
+                    {
+                        unused.add(key);
+                    }
+                }
+                if (!unused.isEmpty())
+                {
+                    problems.add(entry.getKey() + ": keys not used in any source file " + list(unused));
+                }
+                continue;
+            }
+
+            Map<String, String> base = bundles.get(baseName);
+            List<String> missing = new ArrayList<String>();
+            for (String key : base.keySet())
+            {
+                if (!entry.getValue().containsKey(key))
+                {
+                    missing.add(key);
+                }
+            }
+            List<String> extra = new ArrayList<String>();
+            for (String key : entry.getValue().keySet())
+            {
+                if (!base.containsKey(key))
+                {
+                    extra.add(key);
+                }
+            }
+            if (!missing.isEmpty())
+            {
+                problems.add(entry.getKey() + ": keys missing " + list(missing));
+            }
+            if (!extra.isEmpty())
+            {
+                problems.add(entry.getKey() + ": keys not in " + baseName + " " + list(extra));
+            }
+        }
+        return problems;
+    }
+
+    /**
+     * Records the last validation so it is skipped until the bundles or their usages change.
+     */
+    public void markValidated(File stamp) throws IOException
+    {
+        if (validationDigest != null)
+        {
+            stamp.getParentFile().mkdirs();
+            FileUtils.fileWrite(stamp.getPath(), "UTF-8", validationDigest);
+        }
+    }
+
+    /**
+     * Returns the bundle that <code>bundleName</code> is a locale of, e.g. <tt>messages.properties</tt>
+     * for <tt>messages_de_CH.properties</tt>, or <code>null</code> for a base bundle.
+     */
+    private static String getBaseName(String bundleName, Set<String> bundleNames)
+    {
+        String stem = bundleName.substring(0, bundleName.length() - PROPERTIES.length());
+        for (int i = stem.indexOf('_'); i > 0; i = stem.indexOf('_', i + 1))
+        {
+            String candidate = stem.substring(0, i) + PROPERTIES;
+            if (bundleNames.contains(candidate))
+            {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private String read(File file) throws IOException
+    {
+        if (encoding != null)
+        {
+            return FileUtils.fileRead(file, encoding);
+        }
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        try
+        {
+            return StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT).decode(ByteBuffer.wrap(bytes)).toString();
+        }
+        catch (CharacterCodingException e)
+        {
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /**
+     * Parses a properties file following the rules of <code>Properties.load()</code> but keeps
+     * the order of the keys and reports keys that are defined more than once.
+     */
+    Map<String, String> parse(File file, List<String> duplicates) throws IOException
+    {
+        String content = read(file);
+        Map<String, String> properties = new LinkedHashMap<String, String>();
+
+        int pos = 0;
+        while (pos < content.length())
+        {
+            StringBuilder line = new StringBuilder();
+            boolean first = true;
+            boolean continued;
+            do
+            {
+                int end = pos;
+                while (end < content.length() && content.charAt(end) != '\n' && content.charAt(end) != '\r')
+                {
+                    end++;
+                }
+                String natural = content.substring(pos, end);
+                pos = end;
+                if (pos < content.length() && content.charAt(pos) == '\r')
+                {
+                    pos++;
+                }
+                if (pos < content.length() && content.charAt(pos) == '\n')
+                {
+                    pos++;
+                }
+
+                natural = stripLeadingWhitespace(natural);
+                if (first && (natural.length() == 0 || natural.charAt(0) == '#' || natural.charAt(0) == '!'))
+                {
+                    break;
+                }
+                first = false;
+
+                int backslashes = 0;
+                while (backslashes < natural.length() && natural.charAt(natural.length() - 1 - backslashes) == '\\')
+                {
+                    backslashes++;
+                }
+                continued = backslashes % 2 == 1 && pos < content.length();
+                line.append(backslashes % 2 == 1 ? natural.substring(0, natural.length() - 1) : natural);
+            }
+            while (continued);
+
+            if (line.length() > 0)
+            {
+                addProperty(line.toString(), properties, duplicates);
+            }
+        }
+        return properties;
+    }
+
+    private static void addProperty(String line, Map<String, String> properties, List<String> duplicates)
+    {
+        int keyEnd = 0;
+        while (keyEnd < line.length())
+        {
+            char c = line.charAt(keyEnd);
+            if (c == '\\')
+            {
+                keyEnd += 2;
+                continue;
+            }
+            if (c == '=' || c == ':' || c == ' ' || c == '\t' || c == '\f')
+            {
+                break;
+            }
+            keyEnd++;
+        }
+        keyEnd = Math.min(keyEnd, line.length());
+
+        int valueStart = keyEnd;
+        while (valueStart < line.length() && isWhitespace(line.charAt(valueStart)))
+        {
+            valueStart++;
+        }
+        if (valueStart < line.length() && (line.charAt(valueStart) == '=' || line.charAt(valueStart) == ':'))
+        {
+            valueStart++;
+        }
+        String value = stripLeadingWhitespace(line.substring(valueStart));
+
+        String key = unescape(line.substring(0, keyEnd));
+        if (properties.put(key, unescape(value)) != null && duplicates != null)
+        {
+            duplicates.add(key);
+        }
+    }
+
+    private static String unescape(String s)
+    {
+        if (s.indexOf('\\') < 0)
+        {
+            return s;
+        }
+
+        StringBuilder unescaped = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if (c != '\\' || i + 1 >= s.length())
+            {
+                unescaped.append(c);
+                continue;
+            }
+
+            c = s.charAt(++i);
+            if (c == 'u' && i + 4 < s.length())
+            {
+                try
+                {
+                    unescaped.append((char) Integer.parseInt(s.substring(i + 1, i + 5), 16));
+                    i += 4;
+                }
+                catch (NumberFormatException e)
+                {
+                    throw new IllegalArgumentException("Malformed \\uxxxx encoding: " + s);
+                }
+            }
+            else if (c == 't')
+            {
+                unescaped.append('\t');
+            }
+            else if (c == 'n')
+            {
+                unescaped.append('\n');
+            }
+            else if (c == 'r')
+            {
+                unescaped.append('\r');
+            }
+            else if (c == 'f')
+            {
+                unescaped.append('\f');
+            }
+            else
+            {
+                unescaped.append(c);
+            }
+        }
+        return unescaped.toString();
+    }
+
+    /**
+     * Formats a bundle as ASCII properties, escaping like <code>Properties.store()</code>.
+     */
+    static String format(Map<String, String> bundle)
+    {
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, String> entry : bundle.entrySet())
+        {
+            escape(entry.getKey(), true, content);
+            content.append('=');
+            escape(entry.getValue(), false, content);
+            content.append('\n');
+        }
+        return content.toString();
+    }
+
+    private static void escape(String s, boolean key, StringBuilder out)
+    {
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            switch (c)
+            {
+                case ' ':
+                    out.append(i == 0 || key ? "\\ " : " ");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\f':
+                    out.append("\\f");
+                    break;
+                case '=':
+                case ':':
+                case '#':
+                case '!':
+                case '\\':
+                    out.append('\\').append(c);
+                    break;
+                default:
+                    if (c < 0x20 || c > 0x7e)
+                    {
+                        out.append(String.format("\\u%04X", (int) c));
+                    }
+                    else
+                    {
+                        out.append(c);
+                    }
+            }
+        }
+    }
+
+    private static String stripLeadingWhitespace(String s)
+    {
+        int i = 0;
+        while (i < s.length() && isWhitespace(s.charAt(i)))
+        {
+            i++;
+        }
+        return s.substring(i);
+    }
+
+    private static boolean isWhitespace(char c)
+    {
+        return c == ' ' || c == '\t' || c == '\f';
+    }
+
+    /**
+     * Collects everything in a file that could be a key.
+     */
+    private static void collectTokens(File file, Set<String> tokens) throws IOException
+    {
+        Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "ISO-8859-1"));
+        try
+        {
+            StringBuilder token = new StringBuilder();
+            int c;
+            do
+            {
+                c = reader.read();
+                if (c >= 0 && (Character.isLetterOrDigit(c) || c == '.' || c == '_' || c == '-'))
+                {
+                    token.append((char) c);
+                }
+                else if (token.length() > 0)
+                {
+                    tokens.add(token.toString());
+                    token.setLength(0);
+                }
+            }
+            while (c >= 0);
+        }
+        finally
+        {
+            IOUtil.close(reader);
+        }
+    }
+
+    private static String digest(File sourceDirectory, List<String> bundleNames, List<File> usageFiles)
+            throws IOException
+    {
+        MessageDigest digest = DigestUtils.newDigest("SHA-1");
+        List<File> files = new ArrayList<File>();
+        for (String bundleName : bundleNames)
+        {
+            files.add(new File(sourceDirectory, bundleName));
+        }
+        files.addAll(usageFiles);
+        for (File file : files)
+        {
+            digest.update((file.getPath() + '\0' + file.length() + '\0' + file.lastModified() + '\n')
+                    .getBytes("UTF-8"));
+        }
+        return DigestUtils.toHex(digest.digest());
+    }
+
+    private static String list(List<String> keys)
+    {
+        if (keys.size() <= MAX_LISTED_KEYS)
+        {
+            return keys.toString();
+        }
+        return keys.subList(0, MAX_LISTED_KEYS) + " and " + (keys.size() - MAX_LISTED_KEYS) + " more";
+    }
+
+    private static void writeBytes(File file, byte[] bytes) throws IOException
+    {
+        OutputStream out = new FileOutputStream(file);
+        try
+        {
+            out.write(bytes);
+        }
+        finally
+        {
+            IOUtil.close(out);
+        }
+    }
+}
@@ -0,0 +1,432 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Creates and applies binary deltas between two versions of a plugin jar.
+ * <p/>
+ * A delta describes the new jar as a sequence of byte ranges copied from the baseline jar and literal
+ * bytes. The compressed data of entries that did not change is copied from the baseline, everything
+ * else (headers, changed entries, central directory) is stored literally. Applying a delta therefore
+ * reproduces the new jar byte for byte, which is verified with the SHA-1 stored in the delta.
+ * <p/>
+ * Only JDK classes are used, so deltas can also be applied with
+ * <tt>java -cp openfire-maven-plugin.jar com.reucon.maven.plugin.openfire.JarDelta baseline.jar delta target.jar</tt>.
+ */
+public final class JarDelta
+{
+    private static final String MAGIC = "OFDELTA1";
+
+    private static final int END = 0;
+
+    private static final int COPY = 1;
+
+    private static final int DATA = 2;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private JarDelta()
+    {
+        // prevent instantiation
+    }
+
+    /**
+     * Creates a delta from <code>baseline</code> to <code>target</code>.
+     *
+     * @param baseline the previous version of the jar
+     * @param target   the new version of the jar
+     * @param delta    the delta file to write
+     * @return a report of the added, removed and changed entries
+     * @throws IOException if a jar cannot be read or the delta cannot be written
+     */
+    public static Report create(File baseline, File target, File delta) throws IOException
+    {
+        Report report = new Report();
+        RandomAccessFile base = new RandomAccessFile(baseline, "r");
+        RandomAccessFile next = new RandomAccessFile(target, "r");
+        File tmp = new File(delta.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try
+        {
+            Map<String, RawZip.Entry> baseEntries = new HashMap<String, RawZip.Entry>();
+            for (RawZip.Entry entry : RawZip.readEntries(base))
+            {
+                baseEntries.put(entry.name, entry);
+            }
+            report.removed.addAll(baseEntries.keySet());
+
+            delta.getParentFile().mkdirs();
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new DeflaterOutputStream(new FileOutputStream(tmp), new Deflater(Deflater.BEST_COMPRESSION))));
+            out.writeBytes(MAGIC);
+            out.write(sha1(baseline));
+            out.write(sha1(target));
+            out.writeLong(target.length());
+
+            OpWriter ops = new OpWriter(out, next);
+            long pos = 0;
+            for (RawZip.Entry entry : RawZip.readEntries(next))
+            {
+                RawZip.Entry baseEntry = baseEntries.get(entry.name);
+                report.removed.remove(entry.name);
+                if (baseEntry == null)
+                {
+                    report.added.add(entry.name);
+                }
+                else if (!entry.hasSameContent(baseEntry))
+                {
+                    report.changed.add(entry.name);
+                }
+
+                // the local header and anything before it, e.g. a data descriptor
+                ops.data(pos, entry.dataOffset - pos);
+                if (baseEntry != null && entry.method == baseEntry.method && entry.hasSameContent(baseEntry)
+                        && entry.compressedSize == baseEntry.compressedSize
+                        && equal(next, entry.dataOffset, base, baseEntry.dataOffset, entry.compressedSize))
+                {
+                    ops.copy(baseEntry.dataOffset, entry.compressedSize);
+                    report.copiedBytes += entry.compressedSize;
+                }
+                else
+                {
+                    ops.data(entry.dataOffset, entry.compressedSize);
+                }
+                pos = entry.dataOffset + entry.compressedSize;
+            }
+            // data descriptor of the last entry and the central directory
+            ops.data(pos, next.length() - pos);
+            ops.flush();
+            out.writeByte(END);
+        }
+        finally
+        {
+            close(out);
+            base.close();
+            next.close();
+        }
+
+        if (delta.exists())
+        {
+            delta.delete();
+        }
+        if (!tmp.renameTo(delta))
+        {
+            throw new IOException("Unable to rename " + tmp + " to " + delta);
+        }
+        report.targetSize = target.length();
+        report.deltaSize = delta.length();
+        return report;
+    }
+
+    /**
+     * Rebuilds the new jar from the baseline and a delta.
+     *
+     * @param baseline the jar the delta was created from
+     * @param delta    the delta
+     * @param target   the jar to write
+     * @throws IOException if the delta does not belong to the baseline or the result does not match
+     */
+    public static void apply(File baseline, File delta, File target) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new InflaterInputStream(new FileInputStream(delta))));
+        RandomAccessFile base = new RandomAccessFile(baseline, "r");
+        File tmp = new File(target.getPath() + ".tmp");
+        OutputStream out = null;
+        try
+        {
+            byte[] magic = new byte[MAGIC.length()];
+            in.readFully(magic);
+            if (!MAGIC.equals(new String(magic, "US-ASCII")))
+            {
+                throw new IOException(delta + " is not a jar delta");
+            }
+            byte[] baselineHash = new byte[20];
+            byte[] targetHash = new byte[20];
+            in.readFully(baselineHash);
+            in.readFully(targetHash);
+            long length = in.readLong();
+            if (!Arrays.equals(baselineHash, sha1(baseline)))
+            {
+                throw new IOException(delta + " was not created from " + baseline);
+            }
+
+            MessageDigest digest = DigestUtils.newDigest("SHA-1");
+            out = new BufferedOutputStream(new FileOutputStream(tmp));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int op;
+            while ((op = in.readUnsignedByte()) != END)
+            {
+                if (op == COPY)
+                {
+                    base.seek(in.readLong());
+                    long remaining = in.readLong();
+                    while (remaining > 0)
+                    {
+                        int n = (int) Math.min(buffer.length, remaining);
+                        base.readFully(buffer, 0, n);
+                        digest.update(buffer, 0, n);
+                        out.write(buffer, 0, n);
+                        remaining -= n;
+                    }
+                }
+                else if (op == DATA)
+                {
+                    int n = in.readInt();
+                    byte[] data = n <= buffer.length ? buffer : new byte[n];
+                    in.readFully(data, 0, n);
+                    digest.update(data, 0, n);
+                    out.write(data, 0, n);
+                }
+                else
+                {
+                    throw new IOException("Corrupt delta " + delta);
+                }
+            }
+            out.close();
+            out = null;
+
+            if (tmp.length() != length || !Arrays.equals(targetHash, digest.digest()))
+            {
+                throw new IOException("The jar rebuilt from " + delta + " does not match the original");
+            }
+        }
+        finally
+        {
+            close(out);
+            close(in);
+            base.close();
+        }
+
+        if (target.exists())
+        {
+            target.delete();
+        }
+        if (!tmp.renameTo(target))
+        {
+            throw new IOException("Unable to rename " + tmp + " to " + target);
+        }
+    }
+
+    /**
+     * Applies a delta: <tt>JarDelta &lt;baseline jar&gt; &lt;delta&gt; &lt;target jar&gt;</tt>.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length != 3)
+        {
+            System.err.println("Usage: java " + JarDelta.class.getName() + " <baseline jar> <delta> <target jar>");
+            System.exit(2);
+        }
+        apply(new File(args[0]), new File(args[1]), new File(args[2]));
+        System.out.println("Wrote " + args[2]);
+    }
+
+    private static boolean equal(RandomAccessFile f1, long offset1, RandomAccessFile f2, long offset2, long length)
+            throws IOException
+    {
+        byte[] b1 = new byte[BUFFER_SIZE];
+        byte[] b2 = new byte[BUFFER_SIZE];
+        for (long pos = 0; pos < length; pos += BUFFER_SIZE)
+        {
+            int n = (int) Math.min(BUFFER_SIZE, length - pos);
+            f1.seek(offset1 + pos);
+            f1.readFully(b1, 0, n);
+            f2.seek(offset2 + pos);
+            f2.readFully(b2, 0, n);
+            for (int i = 0; i < n; i++)
+            {
+                if (b1[i] != b2[i])
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static byte[] sha1(File file) throws IOException
+    {
+        MessageDigest digest = DigestUtils.newDigest("SHA-1");
+        InputStream in = new FileInputStream(file);
+        try
+        {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) > 0)
+            {
+                digest.update(buffer, 0, n);
+            }
+        }
+        finally
+        {
+            close(in);
+        }
+        return digest.digest();
+    }
+
+    private static void close(Closeable closeable)
+    {
+        if (closeable != null)
+        {
+            try
+            {
+                closeable.close();
+            }
+            catch (IOException e)
+            {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Writes the operations of a delta, merging adjacent ranges.
+     */
+    private static class OpWriter
+    {
+        private final DataOutputStream out;
+
+        private final RandomAccessFile target;
+
+        private long copyOffset = -1;
+
+        private long copyLength;
+
+        OpWriter(DataOutputStream out, RandomAccessFile target)
+        {
+            this.out = out;
+            this.target = target;
+        }
+
+        void copy(long offset, long length) throws IOException
+        {
+            if (copyOffset >= 0 && copyOffset + copyLength == offset)
+            {
+                copyLength += length;
+                return;
+            }
+            flush();
+            copyOffset = offset;
+            copyLength = length;
+        }
+
+        void data(long offset, long length) throws IOException
+        {
+            if (length <= 0)
+            {
+                return;
+            }
+            flush();
+            for (long pos = 0; pos < length; pos += BUFFER_SIZE)
+            {
+                int n = (int) Math.min(BUFFER_SIZE, length - pos);
+                out.writeByte(DATA);
+                out.writeInt(n);
+                out.write(RawZip.read(target, offset + pos, n));
+            }
+        }
+
+        void flush() throws IOException
+        {
+            if (copyOffset >= 0)
+            {
+                out.writeByte(COPY);
+                out.writeLong(copyOffset);
+                out.writeLong(copyLength);
+                copyOffset = -1;
+            }
+        }
+    }
+
+    /**
+     * The differences between the baseline and the new jar.
+     */
+    public static class Report
+    {
+        private final SortedSet<String> added = new TreeSet<String>();
+
+        private final SortedSet<String> removed = new TreeSet<String>();
+
+        private final SortedSet<String> changed = new TreeSet<String>();
+
+        private long copiedBytes;
+
+        private long targetSize;
+
+        private long deltaSize;
+
+        public SortedSet<String> getAdded()
+        {
+            return added;
+        }
+
+        public SortedSet<String> getRemoved()
+        {
+            return removed;
+        }
+
+        public SortedSet<String> getChanged()
+        {
+            return changed;
+        }
+
+        public long getTargetSize()
+        {
+            return targetSize;
+        }
+
+        public long getDeltaSize()
+        {
+            return deltaSize;
+        }
+
+        /**
+         * Returns the number of bytes of the new jar that are copied from the baseline.
+         */
+        public long getCopiedBytes()
+        {
+            return copiedBytes;
+        }
+
+        public String toString()
+        {
+            StringBuilder s = new StringBuilder();
+            s.append("# ").append(added.size()).append(" added, ").append(removed.size()).append(" removed, ")
+                    .append(changed.size()).append(" changed entries\n");
+            s.append("# jar ").append(targetSize).append(" bytes, delta ").append(deltaSize).append(" bytes\n");
+            appendEntries(s, "A ", added);
+            appendEntries(s, "D ", removed);
+            appendEntries(s, "M ", changed);
+            return s.toString();
+        }
+
+        private static void appendEntries(StringBuilder s, String prefix, SortedSet<String> entries)
+        {
+            for (String entry : entries)
+            {
+                s.append(prefix).append(entry).append('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Updates a plugin jar from the previous one instead of compressing every entry again.
+ * <p/>
+ * Next to the jar an index records the SHA-1 of the exploded file each entry was packaged from, as
+ * computed by {@link ExplodeManifest}. On the next build the entries whose file still has the same hash
+ * are copied from the previous jar with their local header, compressed data and central directory record
+ * as they are. Only the other entries are compressed, into a small jar of changes, and a new central
+ * directory is written for the merged entries. Since the entries are copied byte for byte, the updated jar
+ * is identical to one built from scratch if the changes are normalized like a reproducible build.
+ * <pre>
+ * # key jarLength jarLastModified
+ * path sha1
+ * </pre>
+ */
+final class JarUpdater
+{
+    private static final String INDEX_SUFFIX = ".index";
+
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+
+    private JarUpdater()
+    {
+        // prevent instantiation
+    }
+
+    /**
+     * Reads the hashes of the entries of a jar written with the same settings.
+     *
+     * @param jar the previous jar
+     * @param key the settings that affect how entries are written, e.g. the output timestamp
+     * @return the hashes keyed by entry name, or <code>null</code> if there is no index, it was written with
+     *         other settings or the jar was changed since
+     * @throws IOException if the index cannot be read
+     */
+    public static Map<String, String> readIndex(File jar, String key) throws IOException
+    {
+        File indexFile = getIndexFile(jar);
+        if (!jar.isFile() || !indexFile.isFile())
+        {
+            return null;
+        }
+        String[] lines = FileUtils.fileRead(indexFile, "UTF-8").split("\n");
+        if (!lines[0].equals(getHeader(jar, key)))
+        {
+            return null;
+        }
+        Map<String, String> hashes = new HashMap<String, String>();
+        for (int i = 1; i < lines.length; i++)
+        {
+            int tab = lines[i].lastIndexOf('\t');
+            if (tab > 0)
+            {
+                hashes.put(lines[i].substring(0, tab), lines[i].substring(tab + 1));
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * Writes the index of a jar.
+     *
+     * @param jar     the jar that was just written
+     * @param key     the settings the jar was written with
+     * @param entries the exploded files packaged into the jar, after the explode manifest was saved
+     * @throws IOException if the index cannot be written
+     */
+    public static void writeIndex(File jar, String key, Collection<ExplodeManifest.Entry> entries)
+            throws IOException
+    {
+        StringBuilder index = new StringBuilder(getHeader(jar, key)).append('\n');
+        for (ExplodeManifest.Entry entry : entries)
+        {
+            index.append(entry.getPath()).append('\t').append(entry.getHash()).append('\n');
+        }
+        FileUtils.fileWrite(getIndexFile(jar).getPath(), "UTF-8", index.toString());
+    }
+
+    /**
+     * Deletes the index of a jar, e.g. after it was written without one.
+     */
+    public static void deleteIndex(File jar)
+    {
+        getIndexFile(jar).delete();
+    }
+
+    /**
+     * Writes a jar from a jar with the changed entries and the unchanged entries of the previous jar.
+     *
+     * @param changes   the jar with the new and changed entries, which win over those of the previous jar
+     * @param previous  the previous jar
+     * @param unchanged the names of the entries to copy from the previous jar
+     * @param target    the jar to write, may be the previous one
+     * @param checksums the checksums to update with the written jar, may be <code>null</code>
+     * @return the number of entries copied from the previous jar
+     * @throws IOException if a jar cannot be read or written
+     */
+    public static int merge(File changes, File previous, Set<String> unchanged, File target,
+            Checksums checksums) throws IOException
+    {
+        File tmp = new File(target.getPath() + ".tmp");
+        RandomAccessFile changesFile = new RandomAccessFile(changes, "r");
+        RandomAccessFile previousFile = null;
+        OutputStream out = null;
+        int copied = 0;
+        try
+        {
+            previousFile = new RandomAccessFile(previous, "r");
+            Map<String, Source> sources = new TreeMap<String, Source>(new ReproducibleJar.EntryOrder());
+            List<RawZip.Entry> directories = new ArrayList<RawZip.Entry>();
+            for (RawZip.Entry entry : RawZip.readEntries(previousFile))
+            {
+                if (entry.name.endsWith("/"))
+                {
+                    directories.add(entry);
+                }
+                else if (unchanged.contains(entry.name))
+                {
+                    sources.put(entry.name, new Source(previousFile, entry));
+                }
+            }
+            // the directories of the unchanged entries, the others are in the changes
+            for (RawZip.Entry directory : directories)
+            {
+                for (String name : unchanged)
+                {
+                    if (name.startsWith(directory.name))
+                    {
+                        sources.put(directory.name, new Source(previousFile, directory));
+                        break;
+                    }
+                }
+            }
+            for (RawZip.Entry entry : RawZip.readEntries(changesFile))
+            {
+                sources.put(entry.name, new Source(changesFile, entry));
+            }
+            if (sources.size() >= 0xffff)
+            {
+                throw new IOException("Zip64 archives are not supported");
+            }
+
+            OutputStream file = new FileOutputStream(tmp);
+            out = new BufferedOutputStream(checksums != null ? checksums.wrap(file) : file, 64 * 1024);
+            long offset = 0;
+            List<byte[]> centralDirectory = new ArrayList<byte[]>(sources.size());
+            byte[] buffer = new byte[64 * 1024];
+            for (Source source : sources.values())
+            {
+                RawZip.Entry entry = source.entry;
+                if (source.file == previousFile && !entry.name.endsWith("/"))
+                {
+                    copied++;
+                }
+                long end = entry.dataOffset + entry.compressedSize + RawZip.getDataDescriptorLength(source.file, entry);
+                source.file.seek(entry.headerOffset);
+                long remaining = end - entry.headerOffset;
+                while (remaining > 0)
+                {
+                    int n = source.file.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (n < 0)
+                    {
+                        throw new IOException("Unexpected end of " + entry.name);
+                    }
+                    out.write(buffer, 0, n);
+                    remaining -= n;
+                }
+
+                byte[] record = entry.centralDirectoryRecord.clone();
+                writeInt(record, 42, offset);
+                centralDirectory.add(record);
+                offset += end - entry.headerOffset;
+            }
+
+            long directoryOffset = offset;
+            for (byte[] record : centralDirectory)
+            {
+                out.write(record);
+                offset += record.length;
+            }
+            byte[] end = new byte[22];
+            writeInt(end, 0, END_OF_CENTRAL_DIRECTORY);
+            writeShort(end, 8, centralDirectory.size());
+            writeShort(end, 10, centralDirectory.size());
+            writeInt(end, 12, offset - directoryOffset);
+            writeInt(end, 16, directoryOffset);
+            out.write(end);
+        }
+        finally
+        {
+            IOUtil.close(out);
+            changesFile.close();
+            if (previousFile != null)
+            {
+                previousFile.close();
+            }
+        }
+
+        if (target.exists() && !target.delete())
+        {
+            throw new IOException("Could not delete " + target);
+        }
+        if (!tmp.renameTo(target))
+        {
+            throw new IOException("Could not rename " + tmp + " to " + target);
+        }
+        return copied;
+    }
+
+    private static File getIndexFile(File jar)
+    {
+        return new File(jar.getPath() + INDEX_SUFFIX);
+    }
+
+    private static String getHeader(File jar, String key)
+    {
+        return "# " + key + "\t" + jar.length() + "\t" + jar.lastModified();
+    }
+
+    private static void writeShort(byte[] bytes, int pos, int value)
+    {
+        bytes[pos] = (byte) value;
+        bytes[pos + 1] = (byte) (value >> 8);
+    }
+
+    private static void writeInt(byte[] bytes, int pos, long value)
+    {
+        writeShort(bytes, pos, (int) value);
+        writeShort(bytes, pos + 2, (int) (value >> 16));
+    }
+
+    private static class Source
+    {
+        private final RandomAccessFile file;
+
+        private final RawZip.Entry entry;
+
+        Source(RandomAccessFile file, RawZip.Entry entry)
+        {
+            this.file = file;
+            this.entry = entry;
+        }
+    }
+}
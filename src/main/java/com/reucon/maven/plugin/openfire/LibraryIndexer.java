@@ -0,0 +1,111 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Generates a package to jar index for the libraries of an Openfire Plugin.
+ * <p/>
+ * The index uses the format of the <tt>INDEX.LIST</tt> files of the jar specification with jar names
+ * relative to the directory the index is written to. Only the central directories of the jars are read.
+ * Class loaders do not use it, it only documents which jar provides a package.
+ */
+class LibraryIndexer
+{
+    static final String INDEX_NAME = "INDEX.LIST";
+
+    private static final String VERSION_HEADER = "JarIndex-Version: 1.0";
+
+    private LibraryIndexer()
+    {
+        // prevent instantiation
+    }
+
+    /**
+     * Writes the index for the given jars unless an identical index already exists.
+     *
+     * @param jars      the jars to index keyed by their name in the index
+     * @param indexFile the index file to write
+     * @return <code>true</code> if the index was written, <code>false</code> if it was up to date
+     * @throws IOException if a jar cannot be read or the index cannot be written
+     */
+    public static boolean writeIndex(Map<String, File> jars, File indexFile) throws IOException
+    {
+        StringBuilder index = new StringBuilder();
+        index.append(VERSION_HEADER).append("\n\n");
+        for (Map.Entry<String, File> jar : jars.entrySet())
+        {
+            index.append(jar.getKey()).append('\n');
+            for (String path : getPackagePaths(jar.getValue()))
+            {
+                index.append(path).append('\n');
+            }
+            index.append('\n');
+        }
+
+        String content = index.toString();
+        if (indexFile.exists() && content.equals(FileUtils.fileRead(indexFile, "UTF-8")))
+        {
+            return false;
+        }
+
+        indexFile.getParentFile().mkdirs();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(indexFile), "UTF-8");
+        try
+        {
+            writer.write(content);
+        }
+        finally
+        {
+            IOUtil.close(writer);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the package directories of all entries in a jar and the names of resources in its root.
+     * Entries in <tt>META-INF</tt> are not indexed.
+     *
+     * @param jar the jar to read
+     * @return the sorted package paths
+     * @throws IOException if the jar cannot be read
+     */
+    static SortedSet<String> getPackagePaths(File jar) throws IOException
+    {
+        SortedSet<String> paths = new TreeSet<String>();
+        ZipFile zipFile = new ZipFile(jar);
+        try
+        {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements())
+            {
+                ZipEntry entry = entries.nextElement();
+                String name = entry.getName();
+                if (entry.isDirectory() || name.toUpperCase().startsWith("META-INF/"))
+                {
+                    continue;
+                }
+
+                int slash = name.lastIndexOf('/');
+                paths.add(slash < 0 ? name : name.substring(0, slash));
+            }
+        }
+        finally
+        {
+            zipFile.close();
+        }
+        return paths;
+    }
+}
@@ -0,0 +1,352 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Merges a set of library jars into a single jar.
+ * <p/>
+ * Entries are taken from the first jar that contains them. <tt>META-INF/services</tt> files and a few
+ * other well known resources are concatenated instead, jar signatures and indexes are stripped as they
+ * are no longer valid for the merged jar. A report listing the origin of each entry and all conflicts
+ * is written alongside.
+ */
+class LibraryMerger
+{
+    private static final String SERVICES_PREFIX = "META-INF/services/";
+
+    private static final String[] APPENDED_RESOURCES = {
+            "META-INF/spring.handlers", "META-INF/spring.schemas", "META-INF/spring.factories",
+            "META-INF/LICENSE", "META-INF/LICENSE.txt", "META-INF/NOTICE", "META-INF/NOTICE.txt"};
+
+    private static final String[] SIGNATURE_SUFFIXES = {".SF", ".DSA", ".RSA", ".EC"};
+
+    private final Log log;
+
+    private final long time;
+
+    /**
+     * @param log  the log
+     * @param time the modification time of all entries or <code>-1</code> to keep the times of the
+     *             libraries
+     */
+    LibraryMerger(Log log, long time)
+    {
+        this.log = log;
+        this.time = time;
+    }
+
+    /**
+     * Merges the given libraries into <code>destination</code> unless the destination is already
+     * up to date.
+     *
+     * @param libraries   the libraries to merge keyed by their file name in <tt>lib/</tt>
+     * @param destination the merged jar
+     * @param report      the file to write the merge report to
+     * @return <code>true</code> if the merged jar was written, <code>false</code> if it was up to date
+     * @throws IOException if a library cannot be read or the merged jar cannot be written
+     */
+    public boolean merge(Map<String, File> libraries, File destination, File report) throws IOException
+    {
+        if (isUpToDate(libraries, destination, report))
+        {
+            log.debug("Merged library " + destination + " is up to date");
+            return false;
+        }
+
+        // origin of each entry written to the merged jar
+        final Map<String, String> origins = new LinkedHashMap<String, String>();
+        final Map<String, ByteArrayOutputStream> appended = new LinkedHashMap<String, ByteArrayOutputStream>();
+        final Map<String, List<String>> appendedFrom = new LinkedHashMap<String, List<String>>();
+        final List<String> conflicts = new ArrayList<String>();
+        final List<String> stripped = new ArrayList<String>();
+        final Map<String, Long> crcs = new HashMap<String, Long>();
+
+        destination.getParentFile().mkdirs();
+        File tmp = new File(destination.getPath() + ".tmp");
+        ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try
+        {
+            out.putNextEntry(newEntry(JarFile.MANIFEST_NAME, -1));
+            createManifest().write(out);
+            out.closeEntry();
+            origins.put(JarFile.MANIFEST_NAME, "(generated)");
+
+            for (Map.Entry<String, File> library : libraries.entrySet())
+            {
+                final String libraryName = library.getKey();
+                ZipFile zipFile = new ZipFile(library.getValue());
+                try
+                {
+                    Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                    while (entries.hasMoreElements())
+                    {
+                        ZipEntry entry = entries.nextElement();
+                        String name = entry.getName();
+
+                        if (JarFile.MANIFEST_NAME.equalsIgnoreCase(name) || "META-INF/INDEX.LIST".equalsIgnoreCase(name))
+                        {
+                            continue;
+                        }
+                        if (isSignature(name))
+                        {
+                            stripped.add(name + " (" + libraryName + ")");
+                            continue;
+                        }
+                        if (!entry.isDirectory() && isAppended(name))
+                        {
+                            ByteArrayOutputStream buffer = appended.get(name);
+                            if (buffer == null)
+                            {
+                                buffer = new ByteArrayOutputStream();
+                                appended.put(name, buffer);
+                                appendedFrom.put(name, new ArrayList<String>());
+                            }
+                            appendedFrom.get(name).add(libraryName);
+                            append(zipFile, entry, buffer);
+                            continue;
+                        }
+                        if (origins.containsKey(name))
+                        {
+                            if (!entry.isDirectory())
+                            {
+                                Long crc = crcs.get(name);
+                                boolean identical = crc != null && crc == entry.getCrc();
+                                conflicts.add(name + ": kept " + origins.get(name) + ", ignored " + libraryName
+                                        + (identical ? " (identical)" : ""));
+                            }
+                            continue;
+                        }
+
+                        out.putNextEntry(newEntry(name, entry.getTime()));
+                        if (!entry.isDirectory())
+                        {
+                            copy(zipFile, entry, out);
+                            crcs.put(name, entry.getCrc());
+                        }
+                        out.closeEntry();
+                        origins.put(name, libraryName);
+                    }
+                }
+                finally
+                {
+                    zipFile.close();
+                }
+            }
+
+            for (Map.Entry<String, ByteArrayOutputStream> entry : appended.entrySet())
+            {
+                out.putNextEntry(newEntry(entry.getKey(), -1));
+                entry.getValue().writeTo(out);
+                out.closeEntry();
+                origins.put(entry.getKey(), "(merged)");
+            }
+        }
+        finally
+        {
+            IOUtil.close(out);
+        }
+
+        if (destination.exists() && !destination.delete())
+        {
+            throw new IOException("Could not delete " + destination);
+        }
+        if (!tmp.renameTo(destination))
+        {
+            throw new IOException("Could not rename " + tmp + " to " + destination);
+        }
+
+        writeReport(report, libraries, origins, appendedFrom, conflicts, stripped);
+        log.info("Merged " + libraries.size() + " libraries into " + destination.getName() + " ("
+                + origins.size() + " entries, " + conflicts.size() + " conflicts)");
+        return true;
+    }
+
+    private boolean isUpToDate(Map<String, File> libraries, File destination, File report) throws IOException
+    {
+        if (!destination.exists() || !report.exists())
+        {
+            return false;
+        }
+        for (File library : libraries.values())
+        {
+            if (library.lastModified() > destination.lastModified())
+            {
+                return false;
+            }
+        }
+
+        // the set of merged libraries must not have changed either
+        List<String> merged = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(report));
+        try
+        {
+            String line;
+            while ((line = reader.readLine()) != null && line.length() > 0)
+            {
+                if (line.startsWith("  "))
+                {
+                    merged.add(line.trim());
+                }
+            }
+        }
+        finally
+        {
+            IOUtil.close(reader);
+        }
+        return merged.equals(new ArrayList<String>(libraries.keySet()));
+    }
+
+    /**
+     * Creates an entry with the fixed time if one is set, or else the given time.
+     */
+    private ZipEntry newEntry(String name, long entryTime)
+    {
+        ZipEntry entry = new ZipEntry(name);
+        if (time >= 0)
+        {
+            entry.setTime(ReproducibleJar.toEntryTime(time));
+        }
+        else if (entryTime >= 0)
+        {
+            entry.setTime(entryTime);
+        }
+        return entry;
+    }
+
+    private static Manifest createManifest()
+    {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        return manifest;
+    }
+
+    private static boolean isSignature(String name)
+    {
+        if (!name.startsWith("META-INF/") || name.indexOf('/', "META-INF/".length()) >= 0)
+        {
+            return false;
+        }
+        String upperName = name.toUpperCase();
+        if (upperName.startsWith("META-INF/SIG-"))
+        {
+            return true;
+        }
+        for (String suffix : SIGNATURE_SUFFIXES)
+        {
+            if (upperName.endsWith(suffix))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isAppended(String name)
+    {
+        if (name.startsWith(SERVICES_PREFIX))
+        {
+            return true;
+        }
+        for (String resource : APPENDED_RESOURCES)
+        {
+            if (resource.equals(name))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void append(ZipFile zipFile, ZipEntry entry, ByteArrayOutputStream buffer) throws IOException
+    {
+        copy(zipFile, entry, buffer);
+        byte[] content = buffer.toByteArray();
+        if (content.length > 0 && content[content.length - 1] != '\n')
+        {
+            buffer.write('\n');
+        }
+    }
+
+    private static void copy(ZipFile zipFile, ZipEntry entry, OutputStream out) throws IOException
+    {
+        InputStream in = zipFile.getInputStream(entry);
+        try
+        {
+            IOUtil.copy(in, out);
+        }
+        finally
+        {
+            IOUtil.close(in);
+        }
+    }
+
+    private static void writeReport(File report, Map<String, File> libraries, Map<String, String> origins,
+                                    Map<String, List<String>> appendedFrom, List<String> conflicts,
+                                    List<String> stripped)
+            throws IOException
+    {
+        report.getParentFile().mkdirs();
+        PrintWriter writer = new PrintWriter(new FileWriter(report));
+        try
+        {
+            writer.println("Merged libraries:");
+            for (String library : libraries.keySet())
+            {
+                writer.println("  " + library);
+            }
+            writer.println();
+            writer.println("Combined resources:");
+            for (Map.Entry<String, List<String>> entry : appendedFrom.entrySet())
+            {
+                writer.println("  " + entry.getKey() + " <- " + entry.getValue());
+            }
+            writer.println();
+            writer.println("Stripped signatures:");
+            for (String name : stripped)
+            {
+                writer.println("  " + name);
+            }
+            writer.println();
+            writer.println("Conflicts:");
+            for (String conflict : conflicts)
+            {
+                writer.println("  " + conflict);
+            }
+            writer.println();
+            writer.println("Entries:");
+            for (Map.Entry<String, String> entry : origins.entrySet())
+            {
+                writer.println("  " + entry.getKey() + " <- " + entry.getValue());
+            }
+        }
+        finally
+        {
+            IOUtil.close(writer);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Measures how long Openfire takes to extract and load the plugin jar and how much metaspace the plugin
+ * classes take.
+ * <p/>
+ * Openfire is taken from the <tt>openfireJar</tt>, e.g. the bare Openfire jar, or the resolved
+ * <tt>openfireArtifact</tt> dependency, together with the provided dependencies and the libraries Openfire
+ * declares. The first run also loads the Openfire classes and is left out of the averages. Run it after
+ * <tt>package</tt>, e.g. <tt>mvn package openfire:benchmark</tt>.
+ *
+ * @goal benchmark
+ * @requiresDependencyResolution compile
+ */
+public class LoadBenchmarkMojo extends AbstractOpenfireMojo
+{
+    /**
+     * The plugin jar to load.
+     *
+     * @parameter property="openfire.benchmark.pluginJar" default-value="${project.build.directory}/${project.build.finalName}.jar"
+     */
+    private File pluginJar;
+
+    /**
+     * The Openfire jar to load the plugin into. Defaults to the file of the <tt>openfireArtifact</tt>
+     * dependency.
+     *
+     * @parameter property="openfire.benchmark.openfireJar"
+     */
+    private File openfireJar;
+
+    /**
+     * The number of times the plugin is extracted and loaded.
+     *
+     * @parameter property="openfire.benchmark.runs" default-value="5"
+     */
+    private int benchmarkRuns;
+
+    /**
+     * The directory the plugin is extracted to.
+     *
+     * @parameter default-value="${project.build.directory}/openfire-benchmark"
+     */
+    private File benchmarkDirectory;
+
+    /**
+     * The file the results are written to.
+     *
+     * @parameter default-value="${project.build.directory}/openfire-benchmark.txt"
+     */
+    private File benchmarkReport;
+
+    public void execute() throws MojoExecutionException
+    {
+        if (!pluginJar.isFile())
+        {
+            throw new MojoExecutionException("Plugin jar " + pluginJar + " does not exist, run the package phase first");
+        }
+
+        try
+        {
+            URLClassLoader openfireClassLoader = createOpenfireClassLoader();
+            StringBuilder report = new StringBuilder();
+            report.append("# Openfire plugin load benchmark\n");
+            appendPackaging(report);
+            report.append("# run extract_ms classloader_ms load_ms classes metaspace_kb\n");
+
+            PluginLoadBenchmark benchmark = new PluginLoadBenchmark(getLog(), openfireClassLoader);
+            List<PluginLoadBenchmark.Run> runs = new ArrayList<PluginLoadBenchmark.Run>();
+            System.gc();
+            long metaspaceBefore = PluginLoadBenchmark.getMetaspaceUsed();
+            for (int i = 1; i <= Math.max(1, benchmarkRuns); i++)
+            {
+                PluginLoadBenchmark.Run run = benchmark.run(pluginJar, new File(benchmarkDirectory, "run-" + i));
+                runs.add(run);
+                report.append(i).append(' ').append(format(run)).append('\n');
+                for (String failed : run.getFailed())
+                {
+                    getLog().warn("Unable to load " + failed);
+                }
+                getLog().info("Run " + i + ": " + formatAverage(Collections.singletonList(run)));
+            }
+
+            List<PluginLoadBenchmark.Run> measured = runs.size() > 1 ? runs.subList(1, runs.size()) : runs;
+            String average = formatAverage(measured);
+            report.append("# average ").append(average).append('\n');
+
+            openfireClassLoader.close();
+            System.gc();
+            long retained = PluginLoadBenchmark.getMetaspaceUsed() - metaspaceBefore;
+            report.append("# metaspace retained after unloading: ").append(retained / 1024).append(" KB\n");
+
+            FileUtils.fileWrite(benchmarkReport.getPath(), "UTF-8", report.toString());
+            getLog().info("Average of " + measured.size() + " runs: " + average);
+            getLog().info("Metaspace retained after unloading: " + retained / 1024 + " KB, report written to "
+                    + benchmarkReport);
+        }
+        catch (IOException e)
+        {
+            throw new MojoExecutionException("Error benchmarking " + pluginJar + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Creates a class loader with Openfire and the libraries it ships, with the platform classes as parent
+     * so that no classes of Maven or this plugin are visible.
+     */
+    private URLClassLoader createOpenfireClassLoader() throws IOException, MojoExecutionException
+    {
+        Map<String, String> provided = getOpenfireProvidedArtifacts();
+        List<URL> urls = new ArrayList<URL>();
+        File openfire = openfireJar != null ? openfireJar : getOpenfireArtifactFile();
+        for (Object object : getProject().getArtifacts())
+        {
+            Artifact artifact = (Artifact) object;
+            String id = artifact.getGroupId() + ":" + artifact.getArtifactId();
+            if (artifact.getFile() == null || id.equals(getOpenfireArtifact()))
+            {
+                continue;
+            }
+            if (Artifact.SCOPE_PROVIDED.equals(artifact.getScope()) || provided.containsKey(id))
+            {
+                urls.add(artifact.getFile().toURI().toURL());
+            }
+        }
+        if (openfire == null || !openfire.isFile())
+        {
+            throw new MojoExecutionException("Openfire jar not found, set openfireJar or add a dependency on "
+                    + getOpenfireArtifact());
+        }
+        urls.add(0, openfire.toURI().toURL());
+        getLog().info("Loading " + pluginJar.getName() + " into " + openfire.getName() + " with "
+                + (urls.size() - 1) + " libraries");
+        return new URLClassLoader(urls.toArray(new URL[urls.size()]), ClassLoader.getSystemClassLoader().getParent());
+    }
+
+    /**
+     * Appends the sizes and the layout of the plugin jar that affect loading.
+     */
+    private void appendPackaging(StringBuilder report) throws IOException
+    {
+        int entries = 0;
+        int libraries = 0;
+        int classes = 0;
+        long size = 0;
+        long compressedSize = 0;
+        ZipFile zipFile = new ZipFile(pluginJar);
+        try
+        {
+            Enumeration<? extends ZipEntry> e = zipFile.entries();
+            while (e.hasMoreElements())
+            {
+                ZipEntry entry = e.nextElement();
+                String name = entry.getName();
+                if (entry.isDirectory())
+                {
+                    continue;
+                }
+                entries++;
+                size += entry.getSize();
+                compressedSize += entry.getCompressedSize();
+                if (name.startsWith("lib/") && (name.endsWith(".jar") || name.endsWith(".zip")))
+                {
+                    libraries++;
+                }
+                else if (name.startsWith("classes/") && name.endsWith(".class"))
+                {
+                    classes++;
+                }
+            }
+        }
+        finally
+        {
+            zipFile.close();
+        }
+        report.append("# plugin ").append(pluginJar.getName()).append(": ").append(entries).append(" files, ")
+                .append(size / 1024).append(" KB, ").append(compressedSize / 1024).append(" KB compressed, ")
+                .append(libraries).append(" libraries, ").append(classes).append(" loose classes\n");
+    }
+
+    private static String format(PluginLoadBenchmark.Run run)
+    {
+        return millis(run.getExtractNanos()) + " " + millis(run.getClassLoaderNanos()) + " "
+                + millis(run.getLoadNanos()) + " " + run.getClasses() + " " + run.getMetaspaceGrowth() / 1024;
+    }
+
+    private static String formatAverage(List<PluginLoadBenchmark.Run> runs)
+    {
+        long extract = 0;
+        long classLoader = 0;
+        long load = 0;
+        long classes = 0;
+        long metaspace = 0;
+        for (PluginLoadBenchmark.Run run : runs)
+        {
+            extract += run.getExtractNanos();
+            classLoader += run.getClassLoaderNanos();
+            load += run.getLoadNanos();
+            classes += run.getClasses();
+            metaspace += run.getMetaspaceGrowth();
+        }
+        int n = runs.size();
+        return "extract " + millis(extract / n) + " ms, class loader " + millis(classLoader / n) + " ms, load "
+                + millis(load / n) + " ms, " + classes / n + " classes, metaspace +" + metaspace / n / 1024 + " KB";
+    }
+
+    private static String millis(long nanos)
+    {
+        return String.format(Locale.ENGLISH, "%.1f", nanos / 1000000.0);
+    }
+}
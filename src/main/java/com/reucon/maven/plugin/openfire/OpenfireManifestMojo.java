@@ -19,20 +19,27 @@ package com.reucon.maven.plugin.openfire;
  * under the License.
  */
 
+import org.apache.maven.archiver.ManifestConfiguration;
 import org.apache.maven.archiver.MavenArchiver;
+import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.DependencyResolutionRequiredException;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.codehaus.plexus.archiver.jar.Manifest;
 import org.codehaus.plexus.archiver.jar.ManifestException;
-import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.FileUtils;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 
 /**
  * Generate a manifest for the Openfire Plugin.
+ * <p/>
+ * The manifest is written to <tt>manifestFile</tt> in the build directory, and only if its content
+ * changed, so its modification time is stable across builds. The <tt>Class-Path</tt> is cached in
+ * <tt>MANIFEST.MF.classpath</tt> next to it and only computed again when the resolved artifacts change.
  *
  * @author Mike Perham
  * @version $Id$
@@ -42,6 +49,8 @@ import java.io.PrintWriter;
  */
 public class OpenfireManifestMojo extends AbstractOpenfireMojo
 {
+    private static final String CLASS_PATH = "Class-Path";
+
     /**
      * Executes the OpenfireMojo on the current project.
      *
@@ -49,22 +58,54 @@ public class OpenfireManifestMojo extends AbstractOpenfireMojo
      */
     public void execute() throws MojoExecutionException
     {
-        File manifestDir = new File(getWarSourceDirectory(), "META-INF");
-        if (!manifestDir.exists())
-        {
-            manifestDir.mkdirs();
-        }
-        File manifestFile = new File(manifestDir, "MANIFEST.MF");
+        File manifestFile = getManifestFile();
+        File classPathFile = new File(manifestFile.getPath() + ".classpath");
         MavenArchiver ma = new MavenArchiver();
         ma.setArchiver(jarArchiver);
         ma.setOutputFile(manifestFile);
 
-        PrintWriter printWriter = null;
         try
         {
-            Manifest mf = ma.getManifest(getProject(), archive.getManifest());
-            printWriter = new PrintWriter(new FileWriter(manifestFile));
+            manifestFile.getParentFile().mkdirs();
+            ManifestConfiguration config = archive.getManifest();
+            Manifest mf;
+            if (config.isAddClasspath())
+            {
+                String classPathKey = getClassPathKey(config);
+                String[] cached = readClassPath(classPathFile);
+                if (cached != null && cached[0].equals(classPathKey))
+                {
+                    mf = ma.getManifest(getProject(), withoutClassPath(config));
+                    if (cached[1].length() > 0)
+                    {
+                        mf.getMainSection().addConfiguredAttribute(new Manifest.Attribute(CLASS_PATH, cached[1]));
+                    }
+                }
+                else
+                {
+                    mf = ma.getManifest(getProject(), config);
+                    String classPath = mf.getMainSection().getAttributeValue(CLASS_PATH);
+                    FileUtils.fileWrite(classPathFile.getPath(), "UTF-8",
+                            classPathKey + "\n" + (classPath == null ? "" : classPath) + "\n");
+                }
+            }
+            else
+            {
+                mf = ma.getManifest(getProject(), config);
+            }
+
+            StringWriter content = new StringWriter();
+            PrintWriter printWriter = new PrintWriter(content);
             mf.write(printWriter);
+            printWriter.flush();
+
+            if (isUpToDate(manifestFile, mf))
+            {
+                getLog().debug("Manifest " + manifestFile + " is up to date");
+                return;
+            }
+            FileUtils.fileWrite(manifestFile.getPath(), "UTF-8", content.toString());
+            getLog().info("Generated manifest " + manifestFile);
         }
         catch (ManifestException e)
         {
@@ -78,9 +119,71 @@ public class OpenfireManifestMojo extends AbstractOpenfireMojo
         {
             throw new MojoExecutionException("Error preparing the manifest: " + e.getMessage(), e);
         }
-        finally
+    }
+
+    /**
+     * Returns whether the manifest file has the same main attributes and sections as the generated one,
+     * regardless of their order.
+     */
+    private static boolean isUpToDate(File manifestFile, Manifest mf) throws IOException
+    {
+        if (!manifestFile.isFile())
+        {
+            return false;
+        }
+        java.util.jar.Manifest existing = new java.util.jar.Manifest(
+                new ByteArrayInputStream(FileUtils.fileRead(manifestFile, "UTF-8").getBytes("UTF-8")));
+        return existing.getMainAttributes().equals(mf.getMainAttributes())
+                && existing.getEntries().equals(mf.getEntries());
+    }
+
+    /**
+     * Returns a copy of the manifest configuration that does not add the <tt>Class-Path</tt>.
+     */
+    private static ManifestConfiguration withoutClassPath(ManifestConfiguration config)
+    {
+        ManifestConfiguration copy = new ManifestConfiguration();
+        copy.setMainClass(config.getMainClass());
+        copy.setPackageName(config.getPackageName());
+        copy.setAddDefaultImplementationEntries(config.isAddDefaultImplementationEntries());
+        copy.setAddDefaultSpecificationEntries(config.isAddDefaultSpecificationEntries());
+        copy.setAddExtensions(config.isAddExtensions());
+        copy.setAddClasspath(false);
+        return copy;
+    }
+
+    /**
+     * Returns the key of everything the <tt>Class-Path</tt> is computed from: the classpath settings and
+     * the coordinates and file names of the resolved artifacts.
+     */
+    private String getClassPathKey(ManifestConfiguration config) throws IOException
+    {
+        BuildCache.Key key = new BuildCache.Key();
+        key.add("classpathPrefix", config.getClasspathPrefix());
+        key.add("classpathLayoutType", config.getClasspathLayoutType());
+        key.add("customClasspathLayout", config.getCustomClasspathLayout());
+        key.add("useUniqueVersions", config.isUseUniqueVersions());
+
+        // in classpath order, which is the order of the Class-Path
+        for (Object object : getProject().getArtifacts())
+        {
+            Artifact artifact = (Artifact) object;
+            key.add("artifact", artifact.getId() + ":" + artifact.getScope() + ":"
+                    + (artifact.getFile() == null ? "-" : artifact.getFile().getName()));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Reads the cached key and <tt>Class-Path</tt>, or returns <code>null</code> if there is none.
+     */
+    private static String[] readClassPath(File classPathFile) throws IOException
+    {
+        if (!classPathFile.isFile())
         {
-            IOUtil.close(printWriter);
+            return null;
         }
+        String[] lines = FileUtils.fileRead(classPathFile, "UTF-8").split("\n", -1);
+        return lines.length >= 2 ? new String[]{lines[0], lines[1]} : null;
     }
 }
@@ -21,6 +21,12 @@ package com.reucon.maven.plugin.openfire;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.maven.archiver.MavenArchiver;
 import org.apache.maven.artifact.Artifact;
@@ -31,9 +37,15 @@ import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.project.MavenProjectHelper;
 import org.codehaus.plexus.archiver.ArchiverException;
 import org.codehaus.plexus.archiver.jar.ManifestException;
+import org.codehaus.plexus.util.FileUtils;
 
 /**
  * Build an Openfire Plugin jar.
+ * <p/>
+ * The configured <tt>checksums</tt> are computed while the jar is written when it is normalized for a
+ * reproducible build (<tt>outputTimestamp</tt>) or updated in place (<tt>updateJar</tt>). Otherwise the
+ * jar is written by the archiver and read once more to compute them, as is a jar restored from the
+ * build cache.
  *
  * @author <a href="evenisse@apache.org">Emmanuel Venisse</a>
  * @version $Id$
@@ -79,6 +91,43 @@ public class OpenfireMojo extends AbstractOpenfireMojo
      */
     private boolean primaryArtifact;
 
+    /**
+     * A previous version of the plugin jar. If set, a delta from this jar to the new one is written to
+     * <code>deltaFile</code>. The delta can be applied to the baseline with the <tt>apply-delta</tt> goal
+     * or with <tt>java -cp openfire-maven-plugin.jar com.reucon.maven.plugin.openfire.JarDelta</tt>.
+     *
+     * @parameter property="openfire.deltaBaseline"
+     */
+    private File deltaBaseline;
+
+    /**
+     * The delta from <code>deltaBaseline</code> to the new plugin jar.
+     *
+     * @parameter property="openfire.deltaFile" default-value="${project.build.directory}/${project.build.finalName}.delta"
+     */
+    private File deltaFile;
+
+    /**
+     * Whether to update the plugin jar of the previous build instead of writing it from scratch. Entries of
+     * files that did not change are copied from the previous jar without compressing them again, only new
+     * and changed files are compressed. An index of the entries is kept next to the jar, if it is missing or
+     * the jar or the archive settings changed, the jar is written from scratch.
+     *
+     * @parameter property="openfire.updateJar" default-value="false"
+     */
+    private boolean updateJar;
+
+    /**
+     * The checksums of the plugin jar to compute, comma separated, e.g. <tt>SHA-256,SHA-512</tt>. Each is
+     * written to a sidecar file like <tt>sample.jar.sha256</tt> and set as project property like
+     * <tt>openfire.checksum.sha256</tt>, so later goals do not have to read the jar again. When the jar is
+     * normalized for a reproducible build or updated in place, the checksums are computed while writing it,
+     * otherwise the finished jar is read once more to compute them.
+     *
+     * @parameter property="openfire.checksums"
+     */
+    private String checksums;
+
     /**
      * @parameter default-value="${session}"
      * @readonly
@@ -122,7 +171,33 @@ public class OpenfireMojo extends AbstractOpenfireMojo
 
         try
         {
-            performPackaging(warFile);
+            BuildCache buildCache = getBuildCache();
+            String cacheKey = null;
+            if (buildCache != null)
+            {
+                cacheKey = getBuildCacheKey().add("warFile", warFile.getName()).toString();
+                if (buildCache.restoreFile(cacheKey, warFile))
+                {
+                    getLog().info("Restored Openfire Plugin " + warFile.getAbsolutePath() + " from the build cache");
+                    FileUtils.deleteDirectory(getOpenfirePluginDirectory());
+                    BuildCache.extract(warFile, getOpenfirePluginDirectory());
+                    Checksums restoredChecksums = new Checksums(getChecksumAlgorithms());
+                    restoredChecksums.update(warFile);
+                    publishChecksums(warFile, restoredChecksums);
+                    attachArtifact(warFile);
+                    createDelta(warFile);
+                    return;
+                }
+            }
+
+            publishChecksums(warFile, performPackaging(warFile));
+            attachArtifact(warFile);
+
+            if (buildCache != null)
+            {
+                buildCache.storeFile(cacheKey, warFile);
+            }
+            createDelta(warFile);
         }
         catch ( DependencyResolutionRequiredException e)
         {
@@ -146,34 +221,202 @@ public class OpenfireMojo extends AbstractOpenfireMojo
      * Generates the webapp according to the <tt>mode</tt> attribute.
      *
      * @param warFile the target war file
+     * @return the checksums of the jar
      * @throws IOException
      * @throws ArchiverException
      * @throws ManifestException
      * @throws DependencyResolutionRequiredException
      *
      */
-    private void performPackaging(File warFile)
+    private Checksums performPackaging(File warFile)
             throws IOException, ArchiverException, ManifestException, 
             MojoExecutionException, MojoFailureException, DependencyResolutionRequiredException
     {
         buildExplodedOpenfirePlugin(getOpenfirePluginDirectory());
 
-        //generate war file
-        getLog().info("Generating Openfire Plugin " + warFile.getAbsolutePath());
+        long outputTimestamp = getOutputTimestamp();
+        String previousHash = null;
+        if (outputTimestamp >= 0 && warFile.isFile())
+        {
+            // the sidecar of the previous build saves reading the jar if it was not replaced since
+            File sidecar = Checksums.getSidecar(warFile, "SHA-256");
+            if (sidecar.isFile() && sidecar.lastModified() >= warFile.lastModified())
+            {
+                previousHash = FileUtils.fileRead(sidecar, "US-ASCII").trim();
+            }
+            else
+            {
+                previousHash = DigestUtils.toHex(DigestUtils.digest(warFile, "SHA-256"));
+            }
+        }
+
+        Set<String> algorithms = new LinkedHashSet<String>(getChecksumAlgorithms());
+        if (outputTimestamp >= 0)
+        {
+            algorithms.add("SHA-256");
+        }
+        Checksums checksums = new Checksums(algorithms);
+
+        // only what this build wrote, stray files in the exploded directory are left out
+        List<ExplodeManifest.Entry> packagedEntries = getPackagedEntries();
+        String indexKey = "compress=" + archive.isCompress() + " recompressAddedZips=" + archive.isRecompressAddedZips()
+                + " outputTimestamp=" + outputTimestamp;
+        Map<String, String> index = null;
+        if (updateJar && !archive.isIndex())
+        {
+            index = JarUpdater.readIndex(warFile, indexKey);
+            if (index == null && warFile.isFile())
+            {
+                getLog().info("No index of " + warFile.getName() + " for the current settings, writing it from scratch");
+            }
+        }
 
-        MavenArchiver archiver = new MavenArchiver();
+        if (index != null)
+        {
+            Set<String> unchanged = new HashSet<String>();
+            int changed = 0;
+            File changesFile = new File(warFile.getPath() + ".changes");
+            MavenArchiver archiver = new MavenArchiver();
+            archiver.setArchiver(jarArchiver);
+            archiver.setOutputFile(changesFile);
+            for (ExplodeManifest.Entry entry : packagedEntries)
+            {
+                if (entry.getHash().equals(index.get(entry.getPath())))
+                {
+                    unchanged.add(entry.getPath());
+                }
+                else
+                {
+                    jarArchiver.addFile(entry.getFile(), entry.getPath());
+                    changed++;
+                }
+            }
 
-        archiver.setArchiver(jarArchiver);
+            getLog().info("Updating Openfire Plugin " + warFile.getAbsolutePath());
+            archiver.createArchive(session, getProject(), archive);
+            if (outputTimestamp >= 0)
+            {
+                ReproducibleJar.normalize(changesFile, outputTimestamp, archive.isCompress());
+            }
+            int copied = JarUpdater.merge(changesFile, warFile, unchanged, warFile, checksums);
+            if (!changesFile.delete())
+            {
+                getLog().warn("Could not delete " + changesFile);
+            }
+            getLog().info(copied + " entries copied from the previous jar, " + changed + " compressed");
+        }
+        else
+        {
+            //generate war file
+            getLog().info("Generating Openfire Plugin " + warFile.getAbsolutePath());
 
-        archiver.setOutputFile(warFile);
+            MavenArchiver archiver = new MavenArchiver();
 
-        jarArchiver.addDirectory(getOpenfirePluginDirectory(), getIncludes(), getExcludes());
+            archiver.setArchiver(jarArchiver);
 
-        //openfireArchiver.setWebxml(new File(getOpenfirePluginDirectory(), "web/WEB-INF/web.xml"));
+            archiver.setOutputFile(warFile);
 
-        // create archive
-        archiver.createArchive( session,  getProject(), archive);
+            for (ExplodeManifest.Entry entry : packagedEntries)
+            {
+                jarArchiver.addFile(entry.getFile(), entry.getPath());
+            }
 
+            //openfireArchiver.setWebxml(new File(getOpenfirePluginDirectory(), "web/WEB-INF/web.xml"));
+
+            // create archive
+            archiver.createArchive( session,  getProject(), archive);
+
+            if (outputTimestamp >= 0)
+            {
+                ReproducibleJar.normalize(warFile, outputTimestamp, archive.isCompress(), checksums);
+            }
+            else if (!checksums.isEmpty())
+            {
+                // the archiver writes the file itself, so it has to be read again
+                checksums.update(warFile);
+            }
+        }
+
+        if (updateJar && !archive.isIndex())
+        {
+            JarUpdater.writeIndex(warFile, indexKey, packagedEntries);
+        }
+        else
+        {
+            JarUpdater.deleteIndex(warFile);
+        }
+
+        if (outputTimestamp >= 0)
+        {
+            String hash = checksums.getHexDigests().get("SHA-256");
+            getLog().info("SHA-256 of Openfire Plugin: " + hash);
+            if (hash.equals(previousHash))
+            {
+                getLog().info("Openfire Plugin is identical to the previous build, no redeploy needed");
+            }
+        }
+        return checksums;
+    }
+
+    /**
+     * Returns the configured checksum algorithms.
+     */
+    private List<String> getChecksumAlgorithms()
+    {
+        List<String> algorithms = new ArrayList<String>();
+        if (checksums != null)
+        {
+            for (String algorithm : checksums.split(","))
+            {
+                if (algorithm.trim().length() > 0)
+                {
+                    algorithms.add(algorithm.trim().toUpperCase());
+                }
+            }
+        }
+        return algorithms;
+    }
+
+    /**
+     * Writes the configured checksums of the jar to sidecar files and sets them as project properties.
+     */
+    private void publishChecksums(File warFile, Checksums checksums) throws IOException
+    {
+        Map<String, String> hexDigests = checksums.getHexDigests();
+        for (String algorithm : getChecksumAlgorithms())
+        {
+            String hex = hexDigests.get(algorithm);
+            File sidecar = Checksums.getSidecar(warFile, algorithm);
+            FileUtils.fileWrite(sidecar.getPath(), "US-ASCII", hex);
+            getProject().getProperties().setProperty("openfire.checksum." + Checksums.getExtension(algorithm), hex);
+            getLog().info("Wrote " + algorithm + " checksum " + sidecar);
+        }
+    }
+
+    /**
+     * Writes the delta from the baseline jar to the new jar, and a list of the changed entries next to it.
+     */
+    private void createDelta(File warFile) throws IOException
+    {
+        if (deltaBaseline == null)
+        {
+            return;
+        }
+        if (!deltaBaseline.isFile())
+        {
+            getLog().warn("Baseline " + deltaBaseline + " does not exist, no delta created");
+            return;
+        }
+
+        JarDelta.Report report = JarDelta.create(deltaBaseline, warFile, deltaFile);
+        FileUtils.fileWrite(deltaFile.getPath() + ".txt", "UTF-8", report.toString());
+        getLog().info("Generated delta " + deltaFile + ": " + report.getAdded().size() + " added, "
+                + report.getRemoved().size() + " removed, " + report.getChanged().size() + " changed entries, "
+                + report.getDeltaSize() + " of " + report.getTargetSize() + " bytes");
+    }
+
+    private void attachArtifact(File warFile)
+    {
         String classifier = this.classifier;
         if (classifier != null)
         {
@@ -0,0 +1,97 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Reports the files the <tt>openfire-plugin</tt> goal writes to the exploded plugin, where they come from,
+ * whether they are filtered and why a write is skipped, without building anything.
+ * <p/>
+ * Files that get different content from more than one stage, e.g. a web resource with the same path as a
+ * file of the <tt>warSourceDirectory</tt>, are reported as conflicts. The first of <tt>webResources</tt>,
+ * <tt>warSourceDirectory</tt> and <tt>openfireSourceDirectory</tt> wins. The other stages, like
+ * <tt>webXml</tt> or <tt>databaseSourceDirectory</tt>, replace them on purpose and are not conflicts.
+ * Only directories are listed, so the goal is fast enough for a pre-commit check.
+ *
+ * @goal plan
+ * @requiresDependencyResolution runtime
+ */
+public class PlanMojo extends AbstractOpenfireMojo
+{
+    /**
+     * Whether to fail the build on conflicts.
+     *
+     * @parameter property="openfire.failOnConflicts" default-value="false"
+     */
+    private boolean failOnConflicts;
+
+    /**
+     * The file the plan is written to.
+     *
+     * @parameter default-value="${project.build.directory}/openfire-plan.txt"
+     */
+    private File planReport;
+
+    public void execute() throws MojoExecutionException, MojoFailureException
+    {
+        long start = System.currentTimeMillis();
+        BuildPlan plan;
+        try
+        {
+            plan = computeBuildPlan(getOpenfirePluginDirectory(), true);
+            planReport.getParentFile().mkdirs();
+            FileUtils.fileWrite(planReport.getPath(), "UTF-8", plan.toString());
+        }
+        catch (IOException e)
+        {
+            throw new MojoExecutionException("Error computing the build plan: " + e.getMessage(), e);
+        }
+
+        int writes = 0;
+        int skipped = 0;
+        for (List<BuildPlan.Write> destinationWrites : plan.getWrites().values())
+        {
+            for (BuildPlan.Write write : destinationWrites)
+            {
+                if (plan.getSkipReason(write) == null)
+                {
+                    writes++;
+                }
+                else
+                {
+                    skipped++;
+                }
+            }
+        }
+
+        Map<String, List<BuildPlan.Write>> conflicts = plan.getConflicts();
+        for (Map.Entry<String, List<BuildPlan.Write>> conflict : conflicts.entrySet())
+        {
+            StringBuilder stages = new StringBuilder();
+            for (BuildPlan.Write write : conflict.getValue())
+            {
+                stages.append(stages.length() > 0 ? ", " : "").append(write.getStage());
+                if (plan.getSkipReason(write) == null)
+                {
+                    stages.append(" (wins)");
+                }
+            }
+            getLog().warn("Conflict: " + conflict.getKey().replace(File.separatorChar, '/') + " is written by " + stages);
+        }
+        getLog().info(plan.getWrites().size() + " files, " + writes + " writes, " + skipped + " skipped, "
+                + conflicts.size() + " conflicts in " + (System.currentTimeMillis() - start) + " ms, see "
+                + planReport);
+
+        if (failOnConflicts && !conflicts.isEmpty())
+        {
+            throw new MojoFailureException(conflicts.size() + " files get different content from more than one"
+                    + " stage, see " + planReport);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Measures what it costs Openfire to load a plugin jar.
+ * <p/>
+ * Each run extracts the jar like Openfire's <tt>PluginManager</tt>, creates the plugin class loader,
+ * loads the class named in <tt>plugin.xml</tt> and the servlets of <tt>web/WEB-INF/web.xml</tt>, which
+ * are the compiled JSPs, and records the time of each step and the growth of the metaspace (or the
+ * permanent generation before Java 8). The class loader is Openfire's <tt>PluginClassLoader</tt> if it
+ * can be created from the Openfire class loader, otherwise a class loader with the same layout:
+ * <tt>classes</tt>, <tt>database</tt>, <tt>i18n</tt>, <tt>web</tt> and the jars and zips in <tt>lib</tt>.
+ */
+class PluginLoadBenchmark
+{
+    private static final String PLUGIN_CLASS_LOADER = "org.jivesoftware.openfire.container.PluginClassLoader";
+
+    private static final Pattern PLUGIN_CLASS = Pattern.compile("<class>\\s*([\\w.$]+)\\s*</class>");
+
+    private static final Pattern SERVLET_CLASS = Pattern.compile("<servlet-class>\\s*([\\w.$]+)\\s*</servlet-class>");
+
+    private final Log log;
+
+    private final ClassLoader openfireClassLoader;
+
+    private boolean warnedFallback;
+
+    /**
+     * @param log                 the log
+     * @param openfireClassLoader the class loader with Openfire and its libraries, the parent of the plugin
+     */
+    PluginLoadBenchmark(Log log, ClassLoader openfireClassLoader)
+    {
+        this.log = log;
+        this.openfireClassLoader = openfireClassLoader;
+    }
+
+    /**
+     * Extracts and loads a plugin once.
+     *
+     * @param pluginJar the plugin jar
+     * @param directory the directory to extract the plugin to, it is deleted first
+     * @return the measurements
+     * @throws IOException if the plugin cannot be extracted
+     */
+    public Run run(File pluginJar, File directory) throws IOException
+    {
+        Run run = new Run();
+        FileUtils.deleteDirectory(directory);
+        long metaspaceBefore = getMetaspaceUsed();
+        ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+        long classesBefore = classLoading.getTotalLoadedClassCount();
+
+        long start = System.nanoTime();
+        BuildCache.extract(pluginJar, directory);
+        run.extractNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        ClassLoader loader = createClassLoader(directory);
+        run.classLoaderNanos = System.nanoTime() - start;
+        try
+        {
+            start = System.nanoTime();
+            List<String> classNames = new ArrayList<String>();
+            classNames.addAll(find(PLUGIN_CLASS, new File(directory, "plugin.xml")));
+            classNames.addAll(find(SERVLET_CLASS, new File(directory, "web" + File.separator + "WEB-INF"
+                    + File.separator + "web.xml")));
+            for (String className : classNames)
+            {
+                try
+                {
+                    Class.forName(className, true, loader);
+                    run.loaded++;
+                }
+                catch (Throwable e)
+                {
+                    run.failed.add(className + ": " + e);
+                }
+            }
+            run.loadNanos = System.nanoTime() - start;
+            run.classes = classLoading.getTotalLoadedClassCount() - classesBefore;
+            run.metaspaceGrowth = getMetaspaceUsed() - metaspaceBefore;
+        }
+        finally
+        {
+            close(loader);
+        }
+        return run;
+    }
+
+    /**
+     * Returns the used bytes of the non-heap pools that hold class metadata.
+     */
+    static long getMetaspaceUsed()
+    {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.NON_HEAP
+                    && (pool.getName().contains("Metaspace") || pool.getName().contains("Perm Gen")))
+            {
+                used += pool.getUsage().getUsed();
+            }
+        }
+        return used;
+    }
+
+    private ClassLoader createClassLoader(File directory) throws IOException
+    {
+        try
+        {
+            Class<?> pluginClassLoader = Class.forName(PLUGIN_CLASS_LOADER, true, openfireClassLoader);
+            Object loader = pluginClassLoader.getConstructor().newInstance();
+            pluginClassLoader.getMethod("addDirectory", File.class, boolean.class).invoke(loader, directory, false);
+            return (ClassLoader) loader;
+        }
+        catch (Throwable e)
+        {
+            if (!warnedFallback)
+            {
+                log.warn("Unable to create Openfire's " + PLUGIN_CLASS_LOADER + " (" + e
+                        + "), using a class loader with the same layout");
+                warnedFallback = true;
+            }
+        }
+
+        List<URL> urls = new ArrayList<URL>();
+        for (String name : new String[]{"classes", "database", "i18n", "web"})
+        {
+            File file = new File(directory, name);
+            if (file.exists())
+            {
+                urls.add(file.toURI().toURL());
+            }
+        }
+        File[] jars = new File(directory, "lib").listFiles(new FileFilter()
+        {
+            public boolean accept(File file)
+            {
+                String name = file.getName().toLowerCase();
+                return name.endsWith(".jar") || name.endsWith(".zip");
+            }
+        });
+        if (jars != null)
+        {
+            for (File jar : jars)
+            {
+                urls.add(jar.toURI().toURL());
+            }
+        }
+        return new URLClassLoader(urls.toArray(new URL[urls.size()]), openfireClassLoader);
+    }
+
+    /**
+     * Releases the jars of a plugin class loader like Openfire does when it unloads a plugin.
+     */
+    private static void close(ClassLoader loader)
+    {
+        try
+        {
+            Method unload = loader.getClass().getMethod("unloadJarFiles");
+            unload.invoke(loader);
+        }
+        catch (Exception e)
+        {
+            // not Openfire's class loader
+        }
+        if (loader instanceof URLClassLoader)
+        {
+            try
+            {
+                ((URLClassLoader) loader).close();
+            }
+            catch (IOException e)
+            {
+                // ignore
+            }
+        }
+    }
+
+    private static List<String> find(Pattern pattern, File file) throws IOException
+    {
+        List<String> classNames = new ArrayList<String>();
+        if (file.isFile())
+        {
+            Matcher matcher = pattern.matcher(FileUtils.fileRead(file, "UTF-8"));
+            while (matcher.find())
+            {
+                if (!classNames.contains(matcher.group(1)))
+                {
+                    classNames.add(matcher.group(1));
+                }
+            }
+        }
+        return classNames;
+    }
+
+    /**
+     * The measurements of a single run.
+     */
+    static class Run
+    {
+        private long extractNanos;
+
+        private long classLoaderNanos;
+
+        private long loadNanos;
+
+        private int loaded;
+
+        private final List<String> failed = new ArrayList<String>();
+
+        private long classes;
+
+        private long metaspaceGrowth;
+
+        public long getExtractNanos()
+        {
+            return extractNanos;
+        }
+
+        public long getClassLoaderNanos()
+        {
+            return classLoaderNanos;
+        }
+
+        /**
+         * Returns the time it took to load the plugin class and the servlets.
+         */
+        public long getLoadNanos()
+        {
+            return loadNanos;
+        }
+
+        /**
+         * Returns the number of plugin and servlet classes that were loaded.
+         */
+        public int getLoaded()
+        {
+            return loaded;
+        }
+
+        /**
+         * Returns the plugin and servlet classes that could not be loaded, with the reason.
+         */
+        public List<String> getFailed()
+        {
+            return failed;
+        }
+
+        /**
+         * Returns the number of classes loaded by the JVM during the run, including their dependencies.
+         */
+        public long getClasses()
+        {
+            return classes;
+        }
+
+        public long getMetaspaceGrowth()
+        {
+            return metaspaceGrowth;
+        }
+    }
+}
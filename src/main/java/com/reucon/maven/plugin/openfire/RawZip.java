@@ -0,0 +1,197 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Reads the structure of a zip file from its central directory without inflating anything, so the
+ * compressed data of entries can be compared and copied as it is.
+ * <p/>
+ * Zip64 archives are not supported, plugin jars are far below 4 GB.
+ */
+final class RawZip
+{
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+
+    private static final int CENTRAL_DIRECTORY_HEADER = 0x02014b50;
+
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+
+    private static final int DATA_DESCRIPTOR = 0x08074b50;
+
+    private static final int DATA_DESCRIPTOR_FLAG = 0x08;
+
+    private static final int END_OF_CENTRAL_DIRECTORY_LENGTH = 22;
+
+    private static final int LOCAL_FILE_HEADER_LENGTH = 30;
+
+    private RawZip()
+    {
+        // prevent instantiation
+    }
+
+    /**
+     * Returns the entries of a zip file in the order of their local headers.
+     *
+     * @param file the zip file
+     * @return the entries
+     * @throws IOException if the file cannot be read or is not a supported zip file
+     */
+    public static List<Entry> readEntries(RandomAccessFile file) throws IOException
+    {
+        long endOfCentralDirectory = findEndOfCentralDirectory(file);
+        byte[] end = read(file, endOfCentralDirectory, END_OF_CENTRAL_DIRECTORY_LENGTH);
+        int count = readShort(end, 10);
+        long size = readInt(end, 12);
+        long offset = readInt(end, 16);
+        if (count == 0xffff || size == 0xffffffffL || offset == 0xffffffffL)
+        {
+            throw new IOException("Zip64 archives are not supported");
+        }
+
+        byte[] directory = read(file, offset, (int) size);
+        List<Entry> entries = new ArrayList<Entry>(count);
+        int pos = 0;
+        for (int i = 0; i < count; i++)
+        {
+            if (readInt(directory, pos) != CENTRAL_DIRECTORY_HEADER)
+            {
+                throw new IOException("Corrupt central directory");
+            }
+            Entry entry = new Entry();
+            entry.flags = readShort(directory, pos + 8);
+            entry.method = readShort(directory, pos + 10);
+            entry.crc = readInt(directory, pos + 16);
+            entry.compressedSize = readInt(directory, pos + 20);
+            entry.size = readInt(directory, pos + 24);
+            int nameLength = readShort(directory, pos + 28);
+            int extraLength = readShort(directory, pos + 30);
+            int commentLength = readShort(directory, pos + 32);
+            entry.headerOffset = readInt(directory, pos + 42);
+            entry.name = new String(directory, pos + 46, nameLength, "UTF-8");
+            if (entry.compressedSize == 0xffffffffL || entry.size == 0xffffffffL || entry.headerOffset == 0xffffffffL)
+            {
+                throw new IOException("Zip64 archives are not supported");
+            }
+
+            // the extra field of the local header may differ from the one in the central directory
+            byte[] local = read(file, entry.headerOffset, LOCAL_FILE_HEADER_LENGTH);
+            if (readInt(local, 0) != LOCAL_FILE_HEADER)
+            {
+                throw new IOException("Corrupt local header of " + entry.name);
+            }
+            entry.dataOffset = entry.headerOffset + LOCAL_FILE_HEADER_LENGTH
+                    + readShort(local, 26) + readShort(local, 28);
+            int recordLength = 46 + nameLength + extraLength + commentLength;
+            entry.centralDirectoryRecord = new byte[recordLength];
+            System.arraycopy(directory, pos, entry.centralDirectoryRecord, 0, recordLength);
+
+            entries.add(entry);
+            pos += recordLength;
+        }
+
+        Collections.sort(entries, new Comparator<Entry>()
+        {
+            public int compare(Entry e1, Entry e2)
+            {
+                return Long.valueOf(e1.headerOffset).compareTo(e2.headerOffset);
+            }
+        });
+        return entries;
+    }
+
+    private static long findEndOfCentralDirectory(RandomAccessFile file) throws IOException
+    {
+        // the record is followed by a comment of up to 64 KB
+        long length = file.length();
+        int searchLength = (int) Math.min(length, END_OF_CENTRAL_DIRECTORY_LENGTH + 0xffff);
+        byte[] tail = read(file, length - searchLength, searchLength);
+        for (int i = searchLength - END_OF_CENTRAL_DIRECTORY_LENGTH; i >= 0; i--)
+        {
+            if (readInt(tail, i) == END_OF_CENTRAL_DIRECTORY)
+            {
+                return length - searchLength + i;
+            }
+        }
+        throw new IOException("Not a zip file");
+    }
+
+    /**
+     * Returns the length of the data descriptor following the compressed data of an entry, with or without
+     * its optional signature.
+     */
+    static int getDataDescriptorLength(RandomAccessFile file, Entry entry) throws IOException
+    {
+        if ((entry.flags & DATA_DESCRIPTOR_FLAG) == 0)
+        {
+            return 0;
+        }
+        return readInt(read(file, entry.dataOffset + entry.compressedSize, 4), 0) == DATA_DESCRIPTOR ? 16 : 12;
+    }
+
+    static byte[] read(RandomAccessFile file, long offset, int length) throws IOException
+    {
+        byte[] bytes = new byte[length];
+        file.seek(offset);
+        file.readFully(bytes);
+        return bytes;
+    }
+
+    static int readShort(byte[] bytes, int pos)
+    {
+        return (bytes[pos] & 0xff) | (bytes[pos + 1] & 0xff) << 8;
+    }
+
+    static long readInt(byte[] bytes, int pos)
+    {
+        return (readShort(bytes, pos) | (long) readShort(bytes, pos + 2) << 16) & 0xffffffffL;
+    }
+
+    /**
+     * An entry of a zip file.
+     */
+    static class Entry
+    {
+        String name;
+
+        /**
+         * The general purpose bit flags.
+         */
+        int flags;
+
+        int method;
+
+        long crc;
+
+        long compressedSize;
+
+        long size;
+
+        /**
+         * The offset of the local file header.
+         */
+        long headerOffset;
+
+        /**
+         * The offset of the compressed data following the local file header.
+         */
+        long dataOffset;
+
+        /**
+         * The record of the entry in the central directory as it is.
+         */
+        byte[] centralDirectoryRecord;
+
+        /**
+         * Returns whether the entry has the same uncompressed content as another one, judged by size and CRC.
+         */
+        boolean hasSameContent(Entry other)
+        {
+            return crc == other.crc && size == other.size;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.codehaus.plexus.util.DirectoryScanner;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Determines which library jars of an Openfire Plugin are reachable from the plugin's own classes.
+ * <p/>
+ * All classes of the plugin (including the compiled JSP servlets) and the classes named in the
+ * given descriptors (<tt>plugin.xml</tt>, <tt>web.xml</tt>) are roots. Starting from these the
+ * references in the constant pools of the class files are followed. Implementations registered
+ * in <tt>META-INF/services</tt> are followed once their service interface is reached. Classes
+ * loaded by reflection in other ways must be added as keep patterns.
+ */
+class ReachabilityAnalyzer
+{
+    private static final String SERVICES_PREFIX = "META-INF/services/";
+
+    private static final Pattern DESCRIPTOR_CLASS =
+            Pattern.compile("<(class|servlet-class|filter-class|listener-class)>\\s*([\\w.$]+)\\s*</");
+
+    private final Map<String, File> libraries;
+
+    /**
+     * Library each class is loaded from, keyed by internal class name.
+     */
+    private final Map<String, String> classIndex = new HashMap<String, String>();
+
+    /**
+     * Implementation class names registered for a service, keyed by internal service name.
+     */
+    private final Map<String, List<String>> services = new HashMap<String, List<String>>();
+
+    private final Map<String, ZipFile> zipFiles = new HashMap<String, ZipFile>();
+
+    private final Set<String> reached = new HashSet<String>();
+
+    private final Set<String> reachedLibraries = new LinkedHashSet<String>();
+
+    private final LinkedList<String> queue = new LinkedList<String>();
+
+    /**
+     * @param libraries the library jars keyed by their file name in <tt>lib/</tt>
+     */
+    ReachabilityAnalyzer(Map<String, File> libraries)
+    {
+        this.libraries = new LinkedHashMap<String, File>(libraries);
+    }
+
+    /**
+     * Walks the class graph and returns the libraries that are not reachable.
+     *
+     * @param classesDirectory the plugin's classes including the compiled JSPs
+     * @param descriptors      descriptor files whose class names are used as additional roots
+     * @param keepClasses      class names or package patterns (<tt>com.example.*</tt>) that are always reachable
+     * @return the names of the unreachable libraries
+     * @throws IOException if a class or library cannot be read
+     */
+    public Set<String> findUnreachableLibraries(File classesDirectory, List<File> descriptors,
+                                                List<String> keepClasses)
+            throws IOException
+    {
+        try
+        {
+            buildIndex();
+
+            if (classesDirectory.exists())
+            {
+                DirectoryScanner scanner = new DirectoryScanner();
+                scanner.setBasedir(classesDirectory);
+                scanner.setIncludes(new String[]{"**/*.class"});
+                scanner.scan();
+                for (String fileName : scanner.getIncludedFiles())
+                {
+                    File classFile = new File(classesDirectory, fileName);
+                    reached.add(fileName.replace(File.separatorChar, '/').replaceAll("\\.class$", ""));
+                    InputStream in = new FileInputStream(classFile);
+                    try
+                    {
+                        enqueue(ClassReferenceReader.getReferencedClasses(in));
+                    }
+                    finally
+                    {
+                        IOUtil.close(in);
+                    }
+                }
+
+                // services the plugin registers itself may be implemented in a library
+                File[] serviceFiles = new File(classesDirectory, SERVICES_PREFIX).listFiles();
+                for (int i = 0; serviceFiles != null && i < serviceFiles.length; i++)
+                {
+                    for (String line : FileUtils.fileRead(serviceFiles[i], "UTF-8").split("\n"))
+                    {
+                        String className = line.replaceAll("#.*", "").trim();
+                        if (className.length() > 0)
+                        {
+                            enqueue(className.replace('.', '/'));
+                        }
+                    }
+                }
+            }
+
+            for (File descriptor : descriptors)
+            {
+                if (descriptor.exists())
+                {
+                    Matcher matcher = DESCRIPTOR_CLASS.matcher(FileUtils.fileRead(descriptor, "UTF-8"));
+                    while (matcher.find())
+                    {
+                        enqueue(matcher.group(2).replace('.', '/'));
+                    }
+                }
+            }
+
+            for (String keep : keepClasses)
+            {
+                String pattern = keep.replace('.', '/');
+                for (String className : classIndex.keySet())
+                {
+                    if (pattern.endsWith("/*") ? className.startsWith(pattern.substring(0, pattern.length() - 1))
+                            : className.equals(pattern))
+                    {
+                        enqueue(className);
+                    }
+                }
+            }
+
+            while (!queue.isEmpty())
+            {
+                visit(queue.removeFirst());
+            }
+        }
+        finally
+        {
+            for (ZipFile zipFile : zipFiles.values())
+            {
+                zipFile.close();
+            }
+            zipFiles.clear();
+        }
+
+        Set<String> unreachable = new LinkedHashSet<String>(libraries.keySet());
+        unreachable.removeAll(reachedLibraries);
+        return unreachable;
+    }
+
+    private void buildIndex() throws IOException
+    {
+        for (Map.Entry<String, File> library : libraries.entrySet())
+        {
+            ZipFile zipFile = new ZipFile(library.getValue());
+            zipFiles.put(library.getKey(), zipFile);
+
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements())
+            {
+                ZipEntry entry = entries.nextElement();
+                String name = entry.getName();
+                if (name.endsWith(".class"))
+                {
+                    String className = name.substring(0, name.length() - ".class".length());
+                    if (!classIndex.containsKey(className))
+                    {
+                        classIndex.put(className, library.getKey());
+                    }
+                }
+                else if (name.startsWith(SERVICES_PREFIX) && !entry.isDirectory())
+                {
+                    String service = name.substring(SERVICES_PREFIX.length()).replace('.', '/');
+                    List<String> implementations = services.get(service);
+                    if (implementations == null)
+                    {
+                        implementations = new ArrayList<String>();
+                        services.put(service, implementations);
+                    }
+                    implementations.addAll(readServiceImplementations(zipFile, entry));
+                }
+            }
+        }
+    }
+
+    private static List<String> readServiceImplementations(ZipFile zipFile, ZipEntry entry) throws IOException
+    {
+        List<String> implementations = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(zipFile.getInputStream(entry), "UTF-8"));
+        try
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                int comment = line.indexOf('#');
+                String className = (comment < 0 ? line : line.substring(0, comment)).trim();
+                if (className.length() > 0)
+                {
+                    implementations.add(className.replace('.', '/'));
+                }
+            }
+        }
+        finally
+        {
+            IOUtil.close(reader);
+        }
+        return implementations;
+    }
+
+    private void enqueue(Set<String> classNames)
+    {
+        for (String className : classNames)
+        {
+            enqueue(className);
+        }
+    }
+
+    private void enqueue(String className)
+    {
+        if (!reached.contains(className))
+        {
+            queue.add(className);
+        }
+    }
+
+    private void visit(String className) throws IOException
+    {
+        if (!reached.add(className))
+        {
+            return;
+        }
+
+        List<String> implementations = services.get(className);
+        if (implementations != null)
+        {
+            for (String implementation : implementations)
+            {
+                enqueue(implementation);
+            }
+        }
+
+        String library = classIndex.get(className);
+        if (library == null)
+        {
+            // JDK, Openfire or unresolvable class
+            return;
+        }
+        reachedLibraries.add(library);
+
+        ZipFile zipFile = zipFiles.get(library);
+        InputStream in = zipFile.getInputStream(zipFile.getEntry(className + ".class"));
+        try
+        {
+            enqueue(ClassReferenceReader.getReferencedClasses(in));
+        }
+        finally
+        {
+            IOUtil.close(in);
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Rewrites a jar so that the same content always results in the same bytes.
+ * <p/>
+ * Entries are sorted by name with the manifest first and get a fixed modification time. Manifest
+ * attributes that describe the build environment (<tt>Built-By</tt>, <tt>Build-Jdk</tt>) are removed and
+ * the others sorted, the date comment is removed from <tt>pom.properties</tt> and the generation time
+ * from the sources Jasper generates for JSPs. Only those entries are read into memory, the others are
+ * streamed.
+ */
+final class ReproducibleJar
+{
+    private static final String[] ENVIRONMENT_ATTRIBUTES = {"Built-By", "Build-Jdk", "Build-Jdk-Spec"};
+
+    private static final String JASPER_GENERATED_AT = " * Generated at: ";
+
+    /**
+     * The earliest time a zip entry can have, 1980-01-01T00:00:00Z.
+     */
+    private static final long MIN_TIME = 315532800000L;
+
+    private ReproducibleJar()
+    {
+        // prevent instantiation
+    }
+
+    /**
+     * Parses an output timestamp, either in ISO 8601 format like <tt>2015-06-01T00:00:00Z</tt> or as
+     * seconds since the epoch.
+     *
+     * @param outputTimestamp the timestamp
+     * @return the timestamp in milliseconds since the epoch or <code>-1</code> if none is given
+     * @throws IllegalArgumentException if the timestamp cannot be parsed or is before 1980
+     */
+    public static long parseTimestamp(String outputTimestamp)
+    {
+        if (outputTimestamp == null || outputTimestamp.trim().length() == 0)
+        {
+            return -1;
+        }
+
+        String value = outputTimestamp.trim();
+        long time;
+        if (value.matches("\\d+"))
+        {
+            time = Long.parseLong(value) * 1000;
+        }
+        else
+        {
+            try
+            {
+                time = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX").parse(value).getTime();
+            }
+            catch (ParseException e)
+            {
+                throw new IllegalArgumentException("Invalid output timestamp '" + value
+                        + "', expected e.g. 2015-06-01T00:00:00Z or seconds since the epoch");
+            }
+        }
+        if (time < MIN_TIME)
+        {
+            throw new IllegalArgumentException("Output timestamp '" + value + "' is before 1980-01-01");
+        }
+        return time;
+    }
+
+    /**
+     * Returns the time to set on a zip entry so that its modification time reads as <code>time</code> in
+     * UTC. Zip entries store the local time, which would make the jar depend on the time zone of the build.
+     */
+    static long toEntryTime(long time)
+    {
+        return time - TimeZone.getDefault().getOffset(time);
+    }
+
+    /**
+     * Rewrites a jar in place.
+     *
+     * @param jar      the jar
+     * @param time     the modification time of all entries
+     * @param compress whether to deflate the entries, otherwise they are stored
+     * @throws IOException if the jar cannot be read or written
+     */
+    public static void normalize(File jar, long time, boolean compress) throws IOException
+    {
+        normalize(jar, time, compress, null);
+    }
+
+    /**
+     * Rewrites a jar in place and computes its checksums while writing it.
+     *
+     * @param jar       the jar
+     * @param time      the modification time of all entries
+     * @param compress  whether to deflate the entries, otherwise they are stored
+     * @param checksums the checksums to update with the rewritten jar, may be <code>null</code>
+     * @throws IOException if the jar cannot be read or written
+     */
+    public static void normalize(File jar, long time, boolean compress, Checksums checksums) throws IOException
+    {
+        File tmp = new File(jar.getPath() + ".tmp");
+        ZipFile zipFile = new ZipFile(jar);
+        ZipOutputStream out = null;
+        try
+        {
+            List<String> names = new ArrayList<String>();
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements())
+            {
+                names.add(entries.nextElement().getName());
+            }
+            Collections.sort(names, new EntryOrder());
+
+            OutputStream file = new FileOutputStream(tmp);
+            out = new ZipOutputStream(new BufferedOutputStream(checksums != null ? checksums.wrap(file) : file));
+            long entryTime = toEntryTime(time);
+            byte[] buffer = new byte[64 * 1024];
+            for (String name : names)
+            {
+                ZipEntry entry = zipFile.getEntry(name);
+                ZipEntry target = new ZipEntry(name);
+                target.setTime(entryTime);
+                if (entry.isDirectory())
+                {
+                    if (!compress)
+                    {
+                        setStored(target, 0, 0);
+                    }
+                    out.putNextEntry(target);
+                }
+                else if (isRewritten(name))
+                {
+                    byte[] content = normalize(name, read(zipFile, entry));
+                    if (!compress)
+                    {
+                        CRC32 crc = new CRC32();
+                        crc.update(content);
+                        setStored(target, content.length, crc.getValue());
+                    }
+                    out.putNextEntry(target);
+                    out.write(content);
+                }
+                else
+                {
+                    // the content is unchanged, so are its size and CRC
+                    if (!compress)
+                    {
+                        setStored(target, entry.getSize(), entry.getCrc());
+                    }
+                    out.putNextEntry(target);
+                    InputStream in = zipFile.getInputStream(entry);
+                    try
+                    {
+                        int n;
+                        while ((n = in.read(buffer)) > 0)
+                        {
+                            out.write(buffer, 0, n);
+                        }
+                    }
+                    finally
+                    {
+                        IOUtil.close(in);
+                    }
+                }
+                out.closeEntry();
+            }
+        }
+        finally
+        {
+            IOUtil.close(out);
+            zipFile.close();
+        }
+
+        if (!jar.delete())
+        {
+            throw new IOException("Could not delete " + jar);
+        }
+        if (!tmp.renameTo(jar))
+        {
+            throw new IOException("Could not rename " + tmp + " to " + jar);
+        }
+    }
+
+    private static void setStored(ZipEntry entry, long size, long crc)
+    {
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(size);
+        entry.setCompressedSize(size);
+        entry.setCrc(crc);
+    }
+
+    /**
+     * Returns whether the content of an entry may be changed by {@link #normalize(String, byte[])}.
+     */
+    private static boolean isRewritten(String name)
+    {
+        return JarFile.MANIFEST_NAME.equals(name)
+                || (name.startsWith("META-INF/maven/") && name.endsWith("/pom.properties"))
+                || name.endsWith(".java");
+    }
+
+    private static byte[] normalize(String name, byte[] content) throws IOException
+    {
+        if (JarFile.MANIFEST_NAME.equals(name))
+        {
+            return normalizeManifest(content);
+        }
+        if (name.startsWith("META-INF/maven/") && name.endsWith("/pom.properties"))
+        {
+            return removeLines(content, "#");
+        }
+        if (name.endsWith(".java"))
+        {
+            return removeLines(content, JASPER_GENERATED_AT);
+        }
+        return content;
+    }
+
+    private static byte[] normalizeManifest(byte[] content) throws IOException
+    {
+        Manifest manifest = new Manifest(new ByteArrayInputStream(content));
+        for (String name : ENVIRONMENT_ATTRIBUTES)
+        {
+            manifest.getMainAttributes().remove(new Attributes.Name(name));
+        }
+
+        // Manifest writes Manifest-Version first and the rest in insertion order
+        Manifest sorted = new Manifest();
+        copySorted(manifest.getMainAttributes(), sorted.getMainAttributes());
+        for (Map.Entry<String, Attributes> section : manifest.getEntries().entrySet())
+        {
+            Attributes attributes = new Attributes();
+            copySorted(section.getValue(), attributes);
+            sorted.getEntries().put(section.getKey(), attributes);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        sorted.write(out);
+        return out.toByteArray();
+    }
+
+    private static void copySorted(Attributes from, Attributes to)
+    {
+        Map<String, String> values = new TreeMap<String, String>();
+        for (Map.Entry<Object, Object> attribute : from.entrySet())
+        {
+            values.put(attribute.getKey().toString(), (String) attribute.getValue());
+        }
+        for (Map.Entry<String, String> value : values.entrySet())
+        {
+            to.putValue(value.getKey(), value.getValue());
+        }
+    }
+
+    /**
+     * Removes the lines starting with <code>prefix</code> from a text in an ASCII compatible encoding.
+     */
+    private static byte[] removeLines(byte[] content, String prefix) throws IOException
+    {
+        String text = new String(content, "ISO-8859-1");
+        if (!text.startsWith(prefix) && text.indexOf("\n" + prefix) < 0)
+        {
+            return content;
+        }
+
+        StringBuilder result = new StringBuilder(text.length());
+        int start = 0;
+        while (start < text.length())
+        {
+            int end = text.indexOf('\n', start);
+            end = end < 0 ? text.length() : end + 1;
+            if (!text.startsWith(prefix, start))
+            {
+                result.append(text, start, end);
+            }
+            start = end;
+        }
+        return result.toString().getBytes("ISO-8859-1");
+    }
+
+    private static byte[] read(ZipFile zipFile, ZipEntry entry) throws IOException
+    {
+        InputStream in = zipFile.getInputStream(entry);
+        try
+        {
+            return IOUtil.toByteArray(in);
+        }
+        finally
+        {
+            IOUtil.close(in);
+        }
+    }
+
+    /**
+     * Orders <tt>META-INF/</tt> and the manifest first, as <code>JarInputStream</code> expects, then
+     * all entries by name.
+     */
+    static class EntryOrder implements Comparator<String>
+    {
+        public int compare(String name1, String name2)
+        {
+            int rank = rank(name1) - rank(name2);
+            return rank != 0 ? rank : name1.compareTo(name2);
+        }
+
+        private static int rank(String name)
+        {
+            if ("META-INF/".equals(name))
+            {
+                return 0;
+            }
+            return JarFile.MANIFEST_NAME.equals(name) ? 1 : 2;
+        }
+    }
+}
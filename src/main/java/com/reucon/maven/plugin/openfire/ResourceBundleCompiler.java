@@ -0,0 +1,168 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Generates a <code>ListResourceBundle</code> subclass holding the entries of a properties bundle.
+ * <p/>
+ * <code>ResourceBundle.getBundle()</code> looks for a class before it looks for a properties file,
+ * so the class is used instead of parsing the properties at runtime. The entries are filled in by
+ * several static methods to stay below the size limit of a method.
+ */
+final class ResourceBundleCompiler implements Opcodes
+{
+    private static final int ENTRIES_PER_METHOD = 500;
+
+    /**
+     * Leave some room for the constant pool entries of the class itself.
+     */
+    private static final int MAX_CONSTANTS = 65000;
+
+    private static final int MAX_STRING_BYTES = 65535;
+
+    private static final String SUPER_CLASS = "java/util/ListResourceBundle";
+
+    private static final String CONTENTS_DESCRIPTOR = "[[Ljava/lang/Object;";
+
+    private ResourceBundleCompiler()
+    {
+    }
+
+    /**
+     * Compiles a bundle.
+     *
+     * @param className the internal name of the class, e.g. <tt>messages_de</tt>
+     * @param bundle    the entries of the bundle
+     * @return the class file or <code>null</code> if the bundle cannot be represented as a class
+     */
+    public static byte[] compile(String className, Map<String, String> bundle)
+    {
+        if (!isValidClassName(className) || bundle.size() * 4 > MAX_CONSTANTS)
+        {
+            return null;
+        }
+
+        List<String[]> entries = new ArrayList<String[]>();
+        for (Map.Entry<String, String> entry : bundle.entrySet())
+        {
+            if (utfLength(entry.getKey()) > MAX_STRING_BYTES || utfLength(entry.getValue()) > MAX_STRING_BYTES)
+            {
+                return null;
+            }
+            entries.add(new String[]{entry.getKey(), entry.getValue()});
+        }
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_5, ACC_PUBLIC | ACC_SUPER, className, null, SUPER_CLASS, null);
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, SUPER_CLASS, "<init>", "()V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        int methods = (entries.size() + ENTRIES_PER_METHOD - 1) / ENTRIES_PER_METHOD;
+        mv = cw.visitMethod(ACC_PROTECTED, "getContents", "()" + CONTENTS_DESCRIPTOR, null, null);
+        mv.visitCode();
+        push(mv, entries.size());
+        mv.visitTypeInsn(ANEWARRAY, "[Ljava/lang/Object;");
+        for (int i = 0; i < methods; i++)
+        {
+            mv.visitInsn(DUP);
+            mv.visitMethodInsn(INVOKESTATIC, className, "fill" + i, "(" + CONTENTS_DESCRIPTOR + ")V", false);
+        }
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        for (int i = 0; i < methods; i++)
+        {
+            mv = cw.visitMethod(ACC_PRIVATE | ACC_STATIC, "fill" + i, "(" + CONTENTS_DESCRIPTOR + ")V", null, null);
+            mv.visitCode();
+            int end = Math.min(entries.size(), (i + 1) * ENTRIES_PER_METHOD);
+            for (int index = i * ENTRIES_PER_METHOD; index < end; index++)
+            {
+                mv.visitVarInsn(ALOAD, 0);
+                push(mv, index);
+                mv.visitInsn(ICONST_2);
+                mv.visitTypeInsn(ANEWARRAY, "java/lang/Object");
+                mv.visitInsn(DUP);
+                mv.visitInsn(ICONST_0);
+                mv.visitLdcInsn(entries.get(index)[0]);
+                mv.visitInsn(AASTORE);
+                mv.visitInsn(DUP);
+                mv.visitInsn(ICONST_1);
+                mv.visitLdcInsn(entries.get(index)[1]);
+                mv.visitInsn(AASTORE);
+                mv.visitInsn(AASTORE);
+            }
+            mv.visitInsn(RETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static void push(MethodVisitor mv, int value)
+    {
+        if (value <= 5)
+        {
+            mv.visitInsn(ICONST_0 + value);
+        }
+        else if (value <= Byte.MAX_VALUE)
+        {
+            mv.visitIntInsn(BIPUSH, value);
+        }
+        else if (value <= Short.MAX_VALUE)
+        {
+            mv.visitIntInsn(SIPUSH, value);
+        }
+        else
+        {
+            mv.visitLdcInsn(value);
+        }
+    }
+
+    private static boolean isValidClassName(String className)
+    {
+        for (String segment : className.split("/"))
+        {
+            if (segment.length() == 0 || !Character.isJavaIdentifierStart(segment.charAt(0)))
+            {
+                return false;
+            }
+            for (int i = 1; i < segment.length(); i++)
+            {
+                if (!Character.isJavaIdentifierPart(segment.charAt(i)))
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the length of a string in the modified UTF-8 encoding of the class file format.
+     */
+    private static int utfLength(String s)
+    {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            length += c >= 1 && c <= 0x7f ? 1 : c <= 0x7ff ? 2 : 3;
+        }
+        return length;
+    }
+}
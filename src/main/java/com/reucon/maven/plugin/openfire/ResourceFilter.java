@@ -0,0 +1,265 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.reucon.maven.plugin.openfire.AbstractOpenfireMojo.FilterWrapper;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Copies files through filter wrappers in a given encoding.
+ * <p/>
+ * Files with a NUL byte in their first 8000 bytes are considered binary and copied as they are, like
+ * git does. When only <tt>${token}</tt> and <tt>@token@</tt> are replaced, files that contain neither
+ * <tt>${</tt> nor <tt>@</tt> are copied as they are too, and files in a charset that encodes ASCII as
+ * single bytes are streamed as ISO-8859-1, which maps bytes to chars one to one without decoding. Only
+ * the replacement values are encoded in the real charset then.
+ */
+class ResourceFilter
+{
+    private static final String PASS_THROUGH = "ISO-8859-1";
+
+    private static final int BINARY_CHECK_LENGTH = 8000;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String encoding;
+
+    /**
+     * @param encoding the encoding of the files
+     */
+    ResourceFilter(String encoding)
+    {
+        this.encoding = encoding;
+    }
+
+    /**
+     * Filters a file.
+     *
+     * @param from              the file to filter
+     * @param to                the file to write
+     * @param wrappers          the filters
+     * @param filterProperties  the properties to replace tokens with
+     * @param interpolationOnly whether the filters only replace <tt>${token}</tt> and <tt>@token@</tt>
+     * @return <code>false</code> if the file was copied without filtering
+     * @throws IOException if the file cannot be copied
+     */
+    boolean copy(File from, File to, FilterWrapper[] wrappers, Map<?, ?> filterProperties, boolean interpolationOnly)
+            throws IOException
+    {
+        if (isBinary(from) || (interpolationOnly && !containsTokens(from)))
+        {
+            AbstractOpenfireMojo.copyFileIfModified(from, to);
+            return false;
+        }
+
+        if (interpolationOnly && isAsciiCompatible(encoding))
+        {
+            copy(from, to, PASS_THROUGH, wrappers, new TranscodingMap(filterProperties, encoding));
+        }
+        else
+        {
+            copy(from, to, encoding, wrappers, filterProperties);
+        }
+        return true;
+    }
+
+    private static void copy(File from, File to, String encoding, FilterWrapper[] wrappers,
+                             Map<?, ?> filterProperties) throws IOException
+    {
+        Reader reader = null;
+        Writer writer = null;
+        try
+        {
+            to.getParentFile().mkdirs();
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(from), encoding), BUFFER_SIZE);
+            writer = new OutputStreamWriter(new FileOutputStream(to), encoding);
+
+            Reader filtered = reader;
+            for (FilterWrapper wrapper : wrappers)
+            {
+                filtered = wrapper.getReader(filtered, filterProperties);
+            }
+            IOUtil.copy(filtered, writer, BUFFER_SIZE);
+        }
+        finally
+        {
+            IOUtil.close(reader);
+            IOUtil.close(writer);
+        }
+    }
+
+    static boolean isBinary(File file) throws IOException
+    {
+        InputStream in = new FileInputStream(file);
+        try
+        {
+            byte[] buffer = new byte[BINARY_CHECK_LENGTH];
+            int length = 0;
+            int n;
+            while (length < buffer.length && (n = in.read(buffer, length, buffer.length - length)) > 0)
+            {
+                length += n;
+            }
+            for (int i = 0; i < length; i++)
+            {
+                if (buffer[i] == 0)
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+        finally
+        {
+            IOUtil.close(in);
+        }
+    }
+
+    /**
+     * Returns whether a file contains <tt>${</tt> or <tt>@</tt> in any charset that encodes them as ASCII.
+     */
+    private boolean containsTokens(File file) throws IOException
+    {
+        if (!isAsciiCompatible(encoding))
+        {
+            return true;
+        }
+
+        InputStream in = new FileInputStream(file);
+        try
+        {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            byte previous = 0;
+            int n;
+            while ((n = in.read(buffer)) > 0)
+            {
+                for (int i = 0; i < n; i++)
+                {
+                    byte b = buffer[i];
+                    if (b == '@' || (b == '{' && previous == '$'))
+                    {
+                        return true;
+                    }
+                    previous = b;
+                }
+            }
+            return false;
+        }
+        finally
+        {
+            IOUtil.close(in);
+        }
+    }
+
+    /**
+     * Returns whether the charset encodes ASCII as single bytes and never uses these bytes within
+     * other characters. This excludes e.g. UTF-16 and the stateful ISO-2022 charsets.
+     */
+    static boolean isAsciiCompatible(String encoding)
+    {
+        String name = Charset.forName(encoding).name();
+        return name.equals("UTF-8") || name.equals("US-ASCII") || name.startsWith("ISO-8859-")
+                || name.startsWith("windows-125");
+    }
+
+    /**
+     * Looks up the tokens of a file read as ISO-8859-1 and returns values that are written as ISO-8859-1
+     * but are encoded in the charset of the file.
+     * <p/>
+     * Lookups are delegated to the properties, which may not be enumerable, e.g. the
+     * {@link CompositeMap} of the build. The entries are transcoded on the first enumeration and throw
+     * like those of the properties if they cannot be enumerated.
+     */
+    private static class TranscodingMap extends AbstractMap<Object, Object>
+    {
+        private final Map<?, ?> map;
+
+        private final String encoding;
+
+        private Set<Map.Entry<Object, Object>> entries;
+
+        TranscodingMap(Map<?, ?> map, String encoding)
+        {
+            this.map = map;
+            this.encoding = encoding;
+        }
+
+        public Object get(Object key)
+        {
+            if (key == null)
+            {
+                return null;
+            }
+            Object value = map.get(decode(key.toString()));
+            return value == null ? null : encode(value.toString());
+        }
+
+        public boolean containsKey(Object key)
+        {
+            return key != null && map.containsKey(decode(key.toString()));
+        }
+
+        public Set<Map.Entry<Object, Object>> entrySet()
+        {
+            if (entries == null)
+            {
+                Map<Object, Object> transcoded = new HashMap<Object, Object>();
+                for (Map.Entry<?, ?> entry : map.entrySet())
+                {
+                    if (entry.getKey() != null && entry.getValue() != null)
+                    {
+                        transcoded.put(encode(entry.getKey().toString()), encode(entry.getValue().toString()));
+                    }
+                }
+                entries = Collections.unmodifiableMap(transcoded).entrySet();
+            }
+            return entries;
+        }
+
+        /**
+         * Returns the text of a token read as ISO-8859-1.
+         */
+        private String decode(String s)
+        {
+            try
+            {
+                return new String(s.getBytes(PASS_THROUGH), encoding);
+            }
+            catch (UnsupportedEncodingException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Returns text that is written as ISO-8859-1 in the charset of the file.
+         */
+        private String encode(String s)
+        {
+            try
+            {
+                return new String(s.getBytes(encoding), PASS_THROUGH);
+            }
+            catch (UnsupportedEncodingException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
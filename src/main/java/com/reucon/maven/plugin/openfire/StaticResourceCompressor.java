@@ -0,0 +1,185 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Writes gzip compressed siblings (<tt>.gz</tt>) of static text resources so they can be served
+ * without compressing them on every request.
+ * <p/>
+ * Only the resources the build wrote are compressed, files left over in the directory are ignored.
+ * Resources are only compressed if they are larger than a threshold and their <tt>.gz</tt> sibling is
+ * missing or older. Compressed files that are not smaller than the original are discarded, which is
+ * recorded in an index with the size and modification time of the resource so it is not compressed
+ * again as long as it does not change. <tt>.gz</tt> files written by a previous build for resources that
+ * are no longer compressed are deleted.
+ * <pre>
+ * # path result size lastModified
+ * </pre>
+ */
+class StaticResourceCompressor
+{
+    static final String GZIP_SUFFIX = ".gz";
+
+    private static final String HEADER = "# path result size lastModified";
+
+    private static final String RESULT_COMPRESSED = "gz";
+
+    private static final String RESULT_NOT_SMALLER = "not-smaller";
+
+    private static final String[] EXCLUDES = {"WEB-INF/**", "META-INF/**", "**/*" + GZIP_SUFFIX};
+
+    private final Log log;
+
+    private final String[] includes;
+
+    private final long minSize;
+
+    private final File indexFile;
+
+    /**
+     * @param log       the log
+     * @param includes  the patterns of the resources to compress
+     * @param minSize   the minimum size of a resource to compress
+     * @param indexFile the file to record the results in
+     */
+    StaticResourceCompressor(Log log, String[] includes, long minSize, File indexFile)
+    {
+        this.log = log;
+        this.includes = includes;
+        this.minSize = minSize;
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Compresses the matching resources below <code>directory</code>.
+     *
+     * @param directory the web directory of the exploded plugin
+     * @param fileNames the paths of the resources the build wrote, relative to <code>directory</code>
+     * @return the compressed resources, including those that were up to date
+     * @throws IOException if a resource cannot be compressed or the index cannot be written
+     */
+    public List<File> compress(File directory, Collection<String> fileNames) throws IOException
+    {
+        Map<String, String[]> previous = readIndex();
+        StringBuilder index = new StringBuilder(HEADER).append('\n');
+        List<File> targets = new ArrayList<File>();
+        int compressed = 0;
+        long saved = 0;
+        for (String fileName : FileTreeSnapshot.select(fileNames, includes, EXCLUDES, false))
+        {
+            File source = new File(directory, fileName);
+            File target = new File(directory, fileName + GZIP_SUFFIX);
+            long length = source.length();
+            long lastModified = source.lastModified();
+            if (length < minSize)
+            {
+                continue;
+            }
+            String path = fileName.replace(File.separatorChar, '/');
+            String[] fields = previous.get(path);
+            if (fields != null && RESULT_NOT_SMALLER.equals(fields[1]) && fields[2].equals(String.valueOf(length))
+                    && fields[3].equals(String.valueOf(lastModified)))
+            {
+                index.append(path).append('\t').append(RESULT_NOT_SMALLER).append('\t').append(length)
+                        .append('\t').append(lastModified).append('\n');
+                continue;
+            }
+            if (target.lastModified() < lastModified)
+            {
+                gzip(source, target);
+                if (target.length() >= length)
+                {
+                    log.debug("Discarding " + target + ": not smaller than the original");
+                    target.delete();
+                    index.append(path).append('\t').append(RESULT_NOT_SMALLER).append('\t').append(length)
+                            .append('\t').append(lastModified).append('\n');
+                    continue;
+                }
+                compressed++;
+                saved += length - target.length();
+            }
+            targets.add(target);
+            previous.remove(path);
+            index.append(path).append('\t').append(RESULT_COMPRESSED).append('\t').append(length)
+                    .append('\t').append(lastModified).append('\n');
+        }
+
+        // resources that were removed, renamed or are no longer compressed
+        int deleted = 0;
+        for (Map.Entry<String, String[]> entry : previous.entrySet())
+        {
+            if (RESULT_COMPRESSED.equals(entry.getValue()[1])
+                    && new File(directory, entry.getKey().replace('/', File.separatorChar) + GZIP_SUFFIX).delete())
+            {
+                deleted++;
+            }
+        }
+
+        indexFile.getParentFile().mkdirs();
+        FileUtils.fileWrite(indexFile.getPath(), "UTF-8", index.toString());
+        if (compressed > 0 || deleted > 0)
+        {
+            log.info("Precompressed " + compressed + " web resources (" + saved / 1024 + " KB smaller), deleted "
+                    + deleted + " obsolete compressed files");
+        }
+        return targets;
+    }
+
+    /**
+     * Returns the results of the previous build keyed by path.
+     */
+    private Map<String, String[]> readIndex() throws IOException
+    {
+        Map<String, String[]> results = new HashMap<String, String[]>();
+        if (indexFile.isFile())
+        {
+            for (String line : FileUtils.fileRead(indexFile, "UTF-8").split("\n"))
+            {
+                String[] fields = line.split("\t");
+                if (!line.startsWith("#") && fields.length == 4)
+                {
+                    results.put(fields[0], fields);
+                }
+            }
+        }
+        return results;
+    }
+
+    private static void gzip(File source, File target) throws IOException
+    {
+        InputStream in = new FileInputStream(source);
+        OutputStream out = null;
+        try
+        {
+            out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(target)))
+            {
+                {
+                    def.setLevel(Deflater.BEST_COMPRESSION);
+                }
+            };
+            IOUtil.copy(in, out);
+        }
+        finally
+        {
+            IOUtil.close(in);
+            IOUtil.close(out);
+        }
+    }
+}
@@ -0,0 +1,462 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.SelectorUtils;
+
+/**
+ * Gives static web assets content hashed names like <tt>app.3f9a1c0b.js</tt> and rewrites references
+ * to them while files are copied.
+ * <p/>
+ * Paths are relative to <tt>web/</tt> and use <tt>/</tt> as separator. Assets that contain references
+ * themselves (e.g. stylesheets referencing images) are hashed including the fingerprints of all other
+ * assets, so their names change when a referenced asset changes. Absolute references are only rewritten
+ * below the context path of the plugin.
+ */
+class WebAssetFingerprinter
+{
+    static final String MANIFEST_NAME = "asset-manifest.properties";
+
+    private static final int HASH_LENGTH = 8;
+
+    private static final int MAX_TOKEN_LENGTH = 2048;
+
+    private final String[] assetIncludes;
+
+    private final String[] referenceIncludes;
+
+    private final String contextPath;
+
+    /**
+     * Source file of each asset keyed by its path.
+     */
+    private final Map<String, File> assets = new LinkedHashMap<String, File>();
+
+    /**
+     * Fingerprinted path keyed by original path.
+     */
+    private final Map<String, String> fingerprints = new TreeMap<String, String>();
+
+    /**
+     * @param assetIncludes     the patterns of the assets to fingerprint
+     * @param referenceIncludes the patterns of the files to rewrite references in
+     * @param contextPath       the path <tt>web/</tt> is served at, e.g. <tt>/plugins/sample</tt>, or
+     *                          <code>null</code> to not rewrite absolute references
+     */
+    WebAssetFingerprinter(String[] assetIncludes, String[] referenceIncludes, String contextPath)
+    {
+        this.assetIncludes = assetIncludes;
+        this.referenceIncludes = referenceIncludes;
+        String path = contextPath == null ? "" : contextPath.trim();
+        while (path.endsWith("/"))
+        {
+            path = path.substring(0, path.length() - 1);
+        }
+        this.contextPath = path.length() == 0 || path.startsWith("/") ? path : "/" + path;
+    }
+
+    /**
+     * Registers the files of a source directory. Later registrations of the same path win, like
+     * they do when the files are copied.
+     *
+     * @param sourceDirectory the source directory
+     * @param targetPath      the path below <tt>web/</tt> the files are copied to, may be empty
+     * @param fileNames       the files to copy relative to <code>sourceDirectory</code>
+     */
+    public void addSources(File sourceDirectory, String targetPath, String[] fileNames)
+    {
+        for (String fileName : fileNames)
+        {
+            String path = toWebPath(targetPath, fileName);
+            if (matches(path, assetIncludes))
+            {
+                assets.put(path, new File(sourceDirectory, fileName));
+            }
+        }
+    }
+
+    /**
+     * Computes the fingerprints of all registered assets.
+     *
+     * @throws IOException if an asset cannot be read
+     */
+    public void computeFingerprints() throws IOException
+    {
+        List<String> referencing = new ArrayList<String>();
+        for (Map.Entry<String, File> asset : assets.entrySet())
+        {
+            if (isReference(asset.getKey()))
+            {
+                referencing.add(asset.getKey());
+            }
+            else
+            {
+                fingerprints.put(asset.getKey(), fingerprint(asset.getKey(), asset.getValue(), null));
+            }
+        }
+
+        String leafFingerprints = fingerprints.toString();
+        for (String path : referencing)
+        {
+            fingerprints.put(path, fingerprint(path, assets.get(path), leafFingerprints));
+        }
+    }
+
+    /**
+     * Returns the fingerprinted path of an asset.
+     *
+     * @param path the original path
+     * @return the fingerprinted path or <code>null</code> if the path is not an asset
+     */
+    public String getFingerprintedPath(String path)
+    {
+        return fingerprints.get(path);
+    }
+
+    /**
+     * Returns the fingerprinted paths of all assets.
+     */
+    public Collection<String> getFingerprintedPaths()
+    {
+        return fingerprints.values();
+    }
+
+    /**
+     * Returns whether references in the given file are rewritten.
+     */
+    public boolean isReference(String path)
+    {
+        return matches(path, referenceIncludes);
+    }
+
+    /**
+     * Returns a reader that rewrites references to assets.
+     *
+     * @param reader the reader to filter
+     * @param path   the path of the file being read, used to resolve relative references
+     * @return the filtering reader
+     */
+    public Reader newReader(Reader reader, String path)
+    {
+        int slash = path.lastIndexOf('/');
+        return new ReferenceRewritingReader(reader, slash < 0 ? "" : path.substring(0, slash + 1));
+    }
+
+    /**
+     * Writes the mapping of original to fingerprinted paths.
+     *
+     * @param file the manifest file
+     * @throws IOException if the manifest cannot be written
+     */
+    public void writeManifest(File file) throws IOException
+    {
+        // written by hand instead of Properties.store() to keep the output sorted and free of timestamps
+        StringBuilder content = new StringBuilder("# Fingerprinted web assets\n");
+        for (Map.Entry<String, String> fingerprint : fingerprints.entrySet())
+        {
+            content.append(escape(fingerprint.getKey())).append('=').append(escape(fingerprint.getValue())).append('\n');
+        }
+
+        if (file.exists() && content.toString().equals(FileUtils.fileRead(file, "ISO-8859-1")))
+        {
+            return;
+        }
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite(file.getPath(), "ISO-8859-1", content.toString());
+    }
+
+    /**
+     * Deletes the fingerprinted assets listed in the manifest of a previous build that are no longer current.
+     *
+     * @param file         the manifest of the previous build
+     * @param webDirectory the directory the paths are relative to
+     * @return the number of deleted assets
+     * @throws IOException if the manifest cannot be read
+     */
+    public int deleteOutdated(File file, File webDirectory) throws IOException
+    {
+        if (!file.exists())
+        {
+            return 0;
+        }
+
+        Properties previous = new Properties();
+        InputStream in = new FileInputStream(file);
+        try
+        {
+            previous.load(in);
+        }
+        finally
+        {
+            IOUtil.close(in);
+        }
+
+        int deleted = 0;
+        for (String path : previous.stringPropertyNames())
+        {
+            String fingerprintedPath = previous.getProperty(path);
+            if (!fingerprintedPath.equals(fingerprints.get(path))
+                    && new File(webDirectory, fingerprintedPath).delete())
+            {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    private static String escape(String s)
+    {
+        StringBuilder escaped = new StringBuilder();
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if (c == ' ' || c == ':' || c == '=' || c == '#' || c == '!' || c == '\\')
+            {
+                escaped.append('\\').append(c);
+            }
+            else if (c > 126)
+            {
+                escaped.append(String.format("\\u%04x", (int) c));
+            }
+            else
+            {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    static String toWebPath(String targetPath, String fileName)
+    {
+        String path = fileName.replace(File.separatorChar, '/');
+        if (targetPath != null && targetPath.length() > 0)
+        {
+            String prefix = targetPath.replace(File.separatorChar, '/');
+            path = prefix.endsWith("/") ? prefix + path : prefix + "/" + path;
+        }
+        return path;
+    }
+
+    private static boolean matches(String path, String[] patterns)
+    {
+        for (String pattern : patterns)
+        {
+            if (SelectorUtils.matchPath(pattern.trim(), path, "/", true))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String fingerprint(String path, File file, String salt) throws IOException
+    {
+        MessageDigest digest = DigestUtils.newDigest("SHA-1");
+        if (salt != null)
+        {
+            digest.update(salt.getBytes("UTF-8"));
+        }
+        InputStream in = new FileInputStream(file);
+        try
+        {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0)
+            {
+                digest.update(buffer, 0, n);
+            }
+        }
+        finally
+        {
+            IOUtil.close(in);
+        }
+        String hash = DigestUtils.toHex(digest.digest()).substring(0, HASH_LENGTH);
+
+        int slash = path.lastIndexOf('/');
+        int dot = path.lastIndexOf('.');
+        if (dot <= slash + 1)
+        {
+            return path + "." + hash;
+        }
+        return path.substring(0, dot) + "." + hash + path.substring(dot);
+    }
+
+    /**
+     * Rewrites references token by token, so only the current token is buffered.
+     */
+    private class ReferenceRewritingReader extends FilterReader
+    {
+        private final String directory;
+
+        private final StringBuilder token = new StringBuilder();
+
+        private final StringBuilder pending = new StringBuilder();
+
+        private int pendingPos;
+
+        private boolean eof;
+
+        ReferenceRewritingReader(Reader in, String directory)
+        {
+            super(in);
+            this.directory = directory;
+        }
+
+        public int read() throws IOException
+        {
+            while (pendingPos >= pending.length())
+            {
+                pending.setLength(0);
+                pendingPos = 0;
+                if (eof)
+                {
+                    return -1;
+                }
+
+                int c = in.read();
+                if (c < 0)
+                {
+                    eof = true;
+                    flushToken();
+                }
+                else if (isTokenChar((char) c) && token.length() < MAX_TOKEN_LENGTH)
+                {
+                    token.append((char) c);
+                }
+                else
+                {
+                    flushToken();
+                    pending.append((char) c);
+                }
+            }
+            return pending.charAt(pendingPos++);
+        }
+
+        public int read(char[] buffer, int off, int len) throws IOException
+        {
+            int count = 0;
+            while (count < len)
+            {
+                int c = read();
+                if (c < 0)
+                {
+                    return count == 0 ? -1 : count;
+                }
+                buffer[off + count++] = (char) c;
+                if (pendingPos >= pending.length() && !in.ready())
+                {
+                    break;
+                }
+            }
+            return count;
+        }
+
+        public long skip(long n) throws IOException
+        {
+            long skipped = 0;
+            while (skipped < n && read() >= 0)
+            {
+                skipped++;
+            }
+            return skipped;
+        }
+
+        public boolean markSupported()
+        {
+            return false;
+        }
+
+        public boolean ready() throws IOException
+        {
+            return pendingPos < pending.length() || in.ready();
+        }
+
+        private void flushToken()
+        {
+            if (token.length() > 0)
+            {
+                pending.append(rewrite(token.toString()));
+                token.setLength(0);
+            }
+        }
+
+        private String rewrite(String reference)
+        {
+            String target = null;
+            if (reference.startsWith("/"))
+            {
+                // absolute URL, only those of this plugin
+                if (contextPath.length() > 0 && reference.startsWith(contextPath + "/"))
+                {
+                    String resolved = resolve(reference.substring(contextPath.length() + 1));
+                    target = resolved == null ? null : fingerprints.get(resolved);
+                }
+            }
+            else
+            {
+                String resolved = resolve(directory + reference);
+                target = resolved == null ? null : fingerprints.get(resolved);
+            }
+
+            if (target == null)
+            {
+                return reference;
+            }
+            return reference.substring(0, reference.lastIndexOf('/') + 1) + target.substring(target.lastIndexOf('/') + 1);
+        }
+    }
+
+    private static boolean isTokenChar(char c)
+    {
+        return Character.isLetterOrDigit(c) || c == '/' || c == '.' || c == '_' || c == '-' || c == '~' || c == '%';
+    }
+
+    /**
+     * Normalizes <tt>.</tt> and <tt>..</tt> segments, returns <code>null</code> if the path leaves <tt>web/</tt>.
+     */
+    private static String resolve(String path)
+    {
+        List<String> segments = new ArrayList<String>();
+        for (String segment : path.split("/"))
+        {
+            if (segment.length() == 0 || ".".equals(segment))
+            {
+                continue;
+            }
+            if ("..".equals(segment))
+            {
+                if (segments.isEmpty())
+                {
+                    return null;
+                }
+                segments.remove(segments.size() - 1);
+            }
+            else
+            {
+                segments.add(segment);
+            }
+        }
+
+        StringBuilder resolved = new StringBuilder();
+        for (String segment : segments)
+        {
+            resolved.append(resolved.length() > 0 ? "/" : "").append(segment);
+        }
+        return resolved.toString();
+    }
+}
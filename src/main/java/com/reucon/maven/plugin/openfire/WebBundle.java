@@ -0,0 +1,82 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A group of JavaScript or stylesheet files in <tt>web/</tt> that are concatenated into one bundle.
+ */
+public class WebBundle
+{
+    /**
+     * The path of the bundle relative to <tt>web/</tt>, e.g. <tt>js/console.js</tt>. Its extension
+     * (<tt>.js</tt> or <tt>.css</tt>) determines how the files are minified.
+     */
+    private String name;
+
+    /**
+     * Patterns of the files to bundle, relative to <tt>web/</tt>. Files are added in the order of the
+     * patterns, files matched by the same pattern in alphabetical order.
+     */
+    private List<String> includes = new ArrayList<String>();
+
+    /**
+     * Whether to remove comments and whitespace.
+     */
+    private boolean minify = true;
+
+    /**
+     * Whether to write a source map next to the bundle.
+     */
+    private boolean sourceMap;
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public void setName(String name)
+    {
+        this.name = name;
+    }
+
+    public List<String> getIncludes()
+    {
+        return includes;
+    }
+
+    public void setIncludes(List<String> includes)
+    {
+        this.includes = includes;
+    }
+
+    public boolean isMinify()
+    {
+        return minify;
+    }
+
+    public void setMinify(boolean minify)
+    {
+        this.minify = minify;
+    }
+
+    public boolean isSourceMap()
+    {
+        return sourceMap;
+    }
+
+    public void setSourceMap(boolean sourceMap)
+    {
+        this.sourceMap = sourceMap;
+    }
+
+    public boolean isStylesheet()
+    {
+        return name.endsWith(".css");
+    }
+
+    public String toString()
+    {
+        return name + includes + (minify ? " minify" : "") + (sourceMap ? " sourceMap" : "");
+    }
+}
@@ -0,0 +1,158 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Concatenates and optionally minifies groups of JavaScript and stylesheet files into bundles.
+ * <p/>
+ * A bundle is only rebuilt if the hash of its configuration and its input files differs from the
+ * hash recorded in the cache directory when it was last built.
+ */
+class WebBundler
+{
+    private static final String ENCODING = "UTF-8";
+
+    private final Log log;
+
+    private final File cacheDirectory;
+
+    WebBundler(Log log, File cacheDirectory)
+    {
+        this.log = log;
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * Builds a bundle from the files in <code>webDirectory</code> unless it is up to date.
+     *
+     * @param webDirectory the web directory of the exploded plugin
+     * @param fileNames    the files the inputs are selected from, relative to <code>webDirectory</code>
+     *                     with platform separators
+     * @param bundle       the bundle to build
+     * @return <code>true</code> if the bundle was built, <code>false</code> if it was up to date
+     * @throws IOException if an input cannot be read or the bundle cannot be written
+     */
+    public boolean bundle(File webDirectory, Collection<String> fileNames, WebBundle bundle) throws IOException
+    {
+        List<String> inputs = getInputs(fileNames, bundle);
+        if (inputs.isEmpty())
+        {
+            log.warn("No files found for bundle " + bundle.getName());
+            return false;
+        }
+
+        List<String> contents = new ArrayList<String>();
+        for (String input : inputs)
+        {
+            contents.add(FileUtils.fileRead(new File(webDirectory, input), ENCODING));
+        }
+
+        File target = new File(webDirectory, bundle.getName());
+        File sourceMap = new File(target.getPath() + ".map");
+        File hashFile = new File(cacheDirectory, bundle.getName().replace('/', '_') + ".sha1");
+        String hash = hash(bundle, inputs, contents);
+        if (target.exists() && (!bundle.isSourceMap() || sourceMap.exists()) && hashFile.exists()
+                && hash.equals(FileUtils.fileRead(hashFile, ENCODING)))
+        {
+            log.debug("Bundle " + bundle.getName() + " is up to date");
+            return false;
+        }
+
+        BundleWriter out = new BundleWriter();
+        for (int i = 0; i < inputs.size(); i++)
+        {
+            if (bundle.isStylesheet())
+            {
+                WebResourceMinifier.appendStylesheet(contents.get(i), i, out, bundle.isMinify());
+            }
+            else
+            {
+                WebResourceMinifier.appendJavaScript(contents.get(i), i, out, bundle.isMinify());
+            }
+        }
+
+        if (bundle.isSourceMap())
+        {
+            String mapName = sourceMap.getName();
+            out.writeGenerated(bundle.isStylesheet()
+                    ? "/*# sourceMappingURL=" + mapName + " */\n"
+                    : "//# sourceMappingURL=" + mapName + "\n");
+            FileUtils.fileWrite(sourceMap.getPath(), ENCODING,
+                    out.getSourceMap(target.getName(), getRelativeSources(bundle.getName(), inputs)));
+        }
+
+        target.getParentFile().mkdirs();
+        FileUtils.fileWrite(target.getPath(), ENCODING, out.getContent());
+        cacheDirectory.mkdirs();
+        FileUtils.fileWrite(hashFile.getPath(), ENCODING, hash);
+
+        log.info("Built bundle " + bundle.getName() + " from " + inputs.size() + " files");
+        return true;
+    }
+
+    private static List<String> getInputs(Collection<String> webFileNames, WebBundle bundle)
+    {
+        Set<String> inputs = new LinkedHashSet<String>();
+        for (String include : bundle.getIncludes())
+        {
+            List<String> fileNames = FileTreeSnapshot.select(webFileNames, new String[]{include}, null, false);
+            Collections.sort(fileNames);
+            for (String fileName : fileNames)
+            {
+                String path = fileName.replace(File.separatorChar, '/');
+                // never bundle the bundle itself or its derivatives
+                if (!path.startsWith(bundle.getName()))
+                {
+                    inputs.add(path);
+                }
+            }
+        }
+        return new ArrayList<String>(inputs);
+    }
+
+    /**
+     * Returns the paths of the inputs relative to the directory of the bundle.
+     */
+    private static List<String> getRelativeSources(String bundleName, List<String> inputs)
+    {
+        int depth = bundleName.split("/").length - 1;
+        StringBuilder up = new StringBuilder();
+        for (int i = 0; i < depth; i++)
+        {
+            up.append("../");
+        }
+
+        List<String> sources = new ArrayList<String>();
+        for (String input : inputs)
+        {
+            sources.add(up + input);
+        }
+        return sources;
+    }
+
+    private static String hash(WebBundle bundle, List<String> inputs, List<String> contents) throws IOException
+    {
+        MessageDigest digest = DigestUtils.newDigest("SHA-1");
+
+        digest.update(bundle.toString().getBytes(ENCODING));
+        for (int i = 0; i < inputs.size(); i++)
+        {
+            digest.update((byte) 0);
+            digest.update(inputs.get(i).getBytes(ENCODING));
+            digest.update((byte) 0);
+            digest.update(contents.get(i).getBytes(ENCODING));
+        }
+        return DigestUtils.toHex(digest.digest());
+    }
+}
@@ -0,0 +1,493 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.util.LinkedList;
+
+/**
+ * A conservative minifier for JavaScript and stylesheets.
+ * <p/>
+ * Comments (except <tt>/*!</tt> license comments), indentation and redundant whitespace are removed.
+ * JavaScript keeps its line structure so automatic semicolon insertion is not affected, stylesheets
+ * are written on a single line. Identifiers are never renamed.
+ */
+class WebResourceMinifier
+{
+    private static final String REGEX_PRECEDERS = "(,=:[!&|?{};+-*%<>~^";
+
+    private static final String[] REGEX_KEYWORDS = {
+            "return", "typeof", "case", "do", "else", "in", "of", "new", "delete", "void", "throw"};
+
+    private static final String CSS_SEPARATORS = "{};,>";
+
+    /**
+     * At-rules whose blocks contain rules with selectors instead of declarations.
+     */
+    private static final String[] CSS_GROUPING_RULES = {
+            "media", "supports", "document", "layer", "container", "scope", "keyframes"};
+
+    private final String source;
+
+    private final int sourceIndex;
+
+    private final BundleWriter out;
+
+    private int pos;
+
+    private int line;
+
+    private WebResourceMinifier(String source, int sourceIndex, BundleWriter out)
+    {
+        this.source = source;
+        this.sourceIndex = sourceIndex;
+        this.out = out;
+    }
+
+    /**
+     * Appends a JavaScript file to a bundle.
+     *
+     * @param source      the content of the file
+     * @param sourceIndex the index of the file in the source map
+     * @param out         the bundle
+     * @param minify      whether to minify or just copy the content
+     */
+    public static void appendJavaScript(String source, int sourceIndex, BundleWriter out, boolean minify)
+    {
+        WebResourceMinifier minifier = new WebResourceMinifier(source, sourceIndex, out);
+        if (minify)
+        {
+            minifier.minifyJavaScript();
+        }
+        else
+        {
+            minifier.copy();
+        }
+    }
+
+    /**
+     * Appends a stylesheet to a bundle.
+     *
+     * @param source      the content of the file
+     * @param sourceIndex the index of the file in the source map
+     * @param out         the bundle
+     * @param minify      whether to minify or just copy the content
+     */
+    public static void appendStylesheet(String source, int sourceIndex, BundleWriter out, boolean minify)
+    {
+        WebResourceMinifier minifier = new WebResourceMinifier(source, sourceIndex, out);
+        if (minify)
+        {
+            minifier.minifyStylesheet();
+        }
+        else
+        {
+            minifier.copy();
+        }
+    }
+
+    private void copy()
+    {
+        while (pos < source.length())
+        {
+            char c = source.charAt(pos++);
+            if (c != '\r')
+            {
+                emit(c);
+            }
+            if (c == '\n')
+            {
+                line++;
+            }
+        }
+        if (out.lastChar() != '\n' && out.lastChar() != 0)
+        {
+            emit('\n');
+        }
+    }
+
+    private void minifyJavaScript()
+    {
+        boolean lineHasContent = false;
+        boolean pendingSpace = false;
+        // whether the last token is a postfix ++ or --, after which a / is a division
+        boolean postfix = false;
+        char previous = 0;
+        char beforePrevious = 0;
+        StringBuilder word = new StringBuilder();
+
+        while (pos < source.length())
+        {
+            char c = source.charAt(pos);
+            char next = pos + 1 < source.length() ? source.charAt(pos + 1) : 0;
+
+            if (c == '\n')
+            {
+                if (lineHasContent)
+                {
+                    emit('\n');
+                }
+                pos++;
+                line++;
+                lineHasContent = false;
+                pendingSpace = false;
+            }
+            else if (Character.isWhitespace(c))
+            {
+                pendingSpace = lineHasContent;
+                pos++;
+            }
+            else if (c == '/' && next == '/')
+            {
+                while (pos < source.length() && source.charAt(pos) != '\n')
+                {
+                    pos++;
+                }
+            }
+            else if (c == '/' && next == '*')
+            {
+                int end = source.indexOf("*/", pos + 2);
+                end = end < 0 ? source.length() : end + 2;
+                if (pos + 2 < source.length() && source.charAt(pos + 2) == '!')
+                {
+                    if (pendingSpace)
+                    {
+                        emit(' ');
+                    }
+                    copyVerbatim(end);
+                    lineHasContent = true;
+                    postfix = false;
+                    previous = '/';
+                }
+                else
+                {
+                    // keep the line breaks of the comment so lines still match the source
+                    for (; pos < end; pos++)
+                    {
+                        if (source.charAt(pos) == '\n')
+                        {
+                            if (lineHasContent)
+                            {
+                                emit('\n');
+                            }
+                            line++;
+                            lineHasContent = false;
+                        }
+                    }
+                    pendingSpace = lineHasContent;
+                }
+                word.setLength(0);
+            }
+            else if (c == '"' || c == '\'' || c == '`')
+            {
+                if (pendingSpace && isWordChar(previous))
+                {
+                    emit(' ');
+                }
+                copyQuoted(c);
+                lineHasContent = true;
+                pendingSpace = false;
+                postfix = false;
+                previous = c;
+                word.setLength(0);
+            }
+            else if (c == '/' && !postfix && isRegexAllowed(previous, word.toString()))
+            {
+                if (pendingSpace && isWordChar(previous))
+                {
+                    emit(' ');
+                }
+                copyRegex();
+                lineHasContent = true;
+                pendingSpace = false;
+                postfix = false;
+                previous = '/';
+                word.setLength(0);
+            }
+            else
+            {
+                postfix = (c == '+' || c == '-') && c == previous && !pendingSpace
+                        && isOperandEnd(beforePrevious);
+                if (pendingSpace && needsSpace(previous, word.toString(), c))
+                {
+                    emit(' ');
+                }
+                emit(c);
+                pos++;
+                lineHasContent = true;
+                pendingSpace = false;
+                if (isWordChar(c))
+                {
+                    if (!isWordChar(previous))
+                    {
+                        word.setLength(0);
+                    }
+                    word.append(c);
+                }
+                else
+                {
+                    word.setLength(0);
+                }
+                beforePrevious = previous;
+                previous = c;
+            }
+        }
+
+        // protect the next file of the bundle from a missing semicolon
+        if (previous != ';' && previous != 0)
+        {
+            emit(';');
+        }
+        if (out.lastChar() != '\n' && out.lastChar() != 0)
+        {
+            emit('\n');
+        }
+    }
+
+    private void minifyStylesheet()
+    {
+        boolean pendingSpace = false;
+        char previous = 0;
+        // whether each open block holds declarations, colons in selectors like a :hover are significant
+        LinkedList<Boolean> blocks = new LinkedList<Boolean>();
+        StringBuilder prelude = new StringBuilder();
+
+        while (pos < source.length())
+        {
+            char c = source.charAt(pos);
+            char next = pos + 1 < source.length() ? source.charAt(pos + 1) : 0;
+
+            if (Character.isWhitespace(c))
+            {
+                if (c == '\n')
+                {
+                    line++;
+                }
+                pendingSpace = previous != 0;
+                prelude.append(' ');
+                pos++;
+            }
+            else if (c == '/' && next == '*')
+            {
+                int end = source.indexOf("*/", pos + 2);
+                end = end < 0 ? source.length() : end + 2;
+                if (pos + 2 < source.length() && source.charAt(pos + 2) == '!')
+                {
+                    copyVerbatim(end);
+                    previous = '/';
+                }
+                else
+                {
+                    for (; pos < end; pos++)
+                    {
+                        if (source.charAt(pos) == '\n')
+                        {
+                            line++;
+                        }
+                    }
+                    pendingSpace = previous != 0;
+                }
+            }
+            else if (c == '"' || c == '\'')
+            {
+                boolean declarations = !blocks.isEmpty() && blocks.getFirst();
+                if (pendingSpace && !isCssSeparator(previous, declarations))
+                {
+                    emit(' ');
+                }
+                copyQuoted(c);
+                pendingSpace = false;
+                previous = c;
+                prelude.append(c);
+            }
+            else
+            {
+                boolean declarations = !blocks.isEmpty() && blocks.getFirst();
+                if (pendingSpace && !isCssSeparator(previous, declarations) && !isCssSeparator(c, declarations))
+                {
+                    emit(' ');
+                }
+                if (c == '{')
+                {
+                    blocks.addFirst(!isCssGroupingRule(prelude.toString().trim()));
+                    prelude.setLength(0);
+                }
+                else if (c == '}')
+                {
+                    if (!blocks.isEmpty())
+                    {
+                        blocks.removeFirst();
+                    }
+                    prelude.setLength(0);
+                }
+                else if (c == ';')
+                {
+                    prelude.setLength(0);
+                }
+                else
+                {
+                    prelude.append(c);
+                }
+                emit(c);
+                pos++;
+                pendingSpace = false;
+                previous = c;
+            }
+        }
+
+        if (out.lastChar() != '\n' && out.lastChar() != 0)
+        {
+            emit('\n');
+        }
+    }
+
+    private void copyVerbatim(int end)
+    {
+        for (; pos < end; pos++)
+        {
+            char c = source.charAt(pos);
+            if (c != '\r')
+            {
+                emit(c);
+            }
+            if (c == '\n')
+            {
+                line++;
+            }
+        }
+    }
+
+    private void copyQuoted(char quote)
+    {
+        emit(source.charAt(pos++));
+        while (pos < source.length())
+        {
+            char c = source.charAt(pos++);
+            if (c == '\n')
+            {
+                if (quote != '`')
+                {
+                    // unterminated string, leave it to the browser to complain
+                    pos--;
+                    return;
+                }
+                line++;
+            }
+            if (c != '\r')
+            {
+                emit(c);
+            }
+            if (c == '\\' && pos < source.length())
+            {
+                char escaped = source.charAt(pos++);
+                emit(escaped);
+                if (escaped == '\n')
+                {
+                    line++;
+                }
+            }
+            else if (c == quote)
+            {
+                return;
+            }
+        }
+    }
+
+    private void copyRegex()
+    {
+        boolean inClass = false;
+        emit(source.charAt(pos++));
+        while (pos < source.length())
+        {
+            char c = source.charAt(pos);
+            if (c == '\n')
+            {
+                return;
+            }
+            emit(c);
+            pos++;
+            if (c == '\\' && pos < source.length())
+            {
+                emit(source.charAt(pos++));
+            }
+            else if (c == '[')
+            {
+                inClass = true;
+            }
+            else if (c == ']')
+            {
+                inClass = false;
+            }
+            else if (c == '/' && !inClass)
+            {
+                return;
+            }
+        }
+    }
+
+    private void emit(char c)
+    {
+        out.write(c, sourceIndex, line);
+    }
+
+    private static boolean isRegexAllowed(char previous, String word)
+    {
+        if (previous == 0 || REGEX_PRECEDERS.indexOf(previous) >= 0)
+        {
+            return true;
+        }
+        for (String keyword : REGEX_KEYWORDS)
+        {
+            if (keyword.equals(word))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether a character ends an operand, so a following <tt>++</tt> or <tt>--</tt> is postfix.
+     */
+    private static boolean isOperandEnd(char c)
+    {
+        return isWordChar(c) || c == ')' || c == ']';
+    }
+
+    private static boolean needsSpace(char previous, String word, char c)
+    {
+        return (isWordChar(previous) && isWordChar(c))
+                // 1 .toString() is not 1.toString()
+                || (c == '.' && word.length() > 0 && Character.isDigit(word.charAt(0)))
+                || ((previous == '+' || previous == '-') && (c == '+' || c == '-'))
+                || (previous == '/' && c == '/');
+    }
+
+    private static boolean isWordChar(char c)
+    {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '\\' || c > 127;
+    }
+
+    private static boolean isCssSeparator(char c, boolean declarations)
+    {
+        return CSS_SEPARATORS.indexOf(c) >= 0 || (c == ':' && declarations);
+    }
+
+    /**
+     * Returns whether the block after a prelude holds rules, e.g. <tt>@media screen</tt> or
+     * <tt>@-webkit-keyframes spin</tt>.
+     */
+    private static boolean isCssGroupingRule(String prelude)
+    {
+        if (!prelude.startsWith("@"))
+        {
+            return false;
+        }
+        String name = prelude.substring(1).split("[^\\w-]", 2)[0].replaceFirst("^-\\w+-", "");
+        for (String rule : CSS_GROUPING_RULES)
+        {
+            if (rule.equals(name))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,168 @@
+package com.reucon.maven.plugin.openfire.jspc;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.tomcat.util.descriptor.tld.TaglibXml;
+
+/**
+ * Shares the class loader with the dependencies of the JSPs between the <tt>jspc</tt> executions of a
+ * build.
+ * <p/>
+ * The plugin's classes are loaded once per build, so the modules of a reactor that depend on the same
+ * jars, e.g. Openfire and common libraries, get the same class loader. Its jars are opened and the
+ * classes Jasper and the Java compiler load from them are defined once. A module only adds a class
+ * loader for its own classes on top. The TLDs parsed from the jars are kept with the class loader.
+ * <p/>
+ * The loaders are keyed by the paths, sizes and modification times of the jars. The least recently used
+ * ones are evicted together with their TLDs and closed once no execution of a parallel build uses them
+ * any more.
+ */
+final class JspClassLoaderCache
+{
+    private static final int MAX_SIZE = 4;
+
+    private static final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+    {
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+        {
+            if (size() <= MAX_SIZE)
+            {
+                return false;
+            }
+            eldest.getValue().evicted = true;
+            eldest.getValue().closeIfUnused();
+            return true;
+        }
+    };
+
+    private static int hits;
+
+    private JspClassLoaderCache()
+    {
+    }
+
+    /**
+     * Returns the class loader for a list of jars, creating it if no execution of the build did. It must
+     * be released when the execution is done with it.
+     *
+     * @param jars   the jars in class path order
+     * @param parent the parent of the class loader
+     * @return the shared class loader
+     * @throws IOException if a path cannot be resolved
+     */
+    static synchronized Entry acquire(List<File> jars, ClassLoader parent) throws IOException
+    {
+        StringBuilder key = new StringBuilder().append(System.identityHashCode(parent));
+        for (File jar : jars)
+        {
+            key.append('\n').append(jar.getPath()).append(' ').append(jar.length()).append(' ')
+                    .append(jar.lastModified());
+        }
+
+        Entry entry = entries.get(key.toString());
+        if (entry != null)
+        {
+            hits++;
+        }
+        else
+        {
+            URL[] urls = new URL[jars.size()];
+            Iterator<File> i = jars.iterator();
+            for (int n = 0; n < urls.length; n++)
+            {
+                urls[n] = i.next().toURI().toURL();
+            }
+            entry = new Entry(new URLClassLoader(urls, parent));
+            entries.put(key.toString(), entry);
+        }
+        entry.users++;
+        return entry;
+    }
+
+    /**
+     * Releases a class loader, closing it if it was evicted and no other execution uses it.
+     */
+    static synchronized void release(Entry entry)
+    {
+        entry.users--;
+        entry.closeIfUnused();
+    }
+
+    /**
+     * Returns how often a class loader was reused.
+     */
+    static synchronized int getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * A shared class loader and the TLDs parsed from its jars.
+     */
+    static final class Entry
+    {
+        private final URLClassLoader loader;
+
+        private final Map<String, TaglibXml> tlds = new HashMap<String, TaglibXml>();
+
+        private int users;
+
+        private boolean evicted;
+
+        private Entry(URLClassLoader loader)
+        {
+            this.loader = loader;
+        }
+
+        URLClassLoader getLoader()
+        {
+            return loader;
+        }
+
+        /**
+         * Returns a parsed TLD, or <code>null</code> if it was not parsed yet.
+         */
+        TaglibXml getTld(String key)
+        {
+            synchronized (tlds)
+            {
+                return tlds.get(key);
+            }
+        }
+
+        void putTld(String key, TaglibXml tld)
+        {
+            synchronized (tlds)
+            {
+                tlds.put(key, tld);
+            }
+        }
+
+        private void closeIfUnused()
+        {
+            if (evicted && users == 0)
+            {
+                synchronized (tlds)
+                {
+                    tlds.clear();
+                }
+                try
+                {
+                    loader.close();
+                }
+                catch (IOException e)
+                {
+                    // the jars are only read
+                }
+            }
+        }
+    }
+}
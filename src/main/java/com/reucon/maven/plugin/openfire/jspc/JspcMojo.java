@@ -20,16 +20,30 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.FilenameFilter;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+import com.reucon.maven.plugin.openfire.BuildCache;
 import org.apache.jasper.JspC;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecution;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.FileUtils;
 import org.eclipse.jetty.util.IO;
 import org.eclipse.jetty.webapp.WebAppClassLoader;
 import org.eclipse.jetty.webapp.WebAppContext;
@@ -189,6 +203,74 @@ public class JspcMojo extends AbstractMojo
     private String jspCompilerTarget;
 
 
+    /**
+     * A directory to cache compiled JSPs in, keyed by a hash of all inputs of the compilation. If the
+     * inputs did not change the classes and web.xml are restored from the cache. Disabled if not set.
+     *
+     * @parameter property="openfire.buildCacheDirectory"
+     */
+    private File buildCacheDirectory;
+
+    /**
+     * The maximum size of the build cache in megabytes.
+     *
+     * @parameter property="openfire.buildCacheMaxSize" default-value="2048"
+     */
+    private long buildCacheMaxSize;
+
+    /**
+     * Whether to cache the classes compiled from the tag files in <tt>WEB-INF/tags</tt>. They are keyed by a
+     * hash of the tag files, the TLDs, the project classes and the dependencies and restored after a clean,
+     * so only the JSPs are compiled. Disabled by default like the build cache, as the cache is kept outside
+     * of the project in <tt>tagCacheDirectory</tt>.
+     *
+     * @parameter property="openfire.cacheTagFiles" default-value="false"
+     */
+    private boolean cacheTagFiles;
+
+    /**
+     * The directory to cache compiled tag files in.
+     *
+     * @parameter property="openfire.tagCacheDirectory" default-value="${user.home}/.m2/openfire-tag-cache"
+     */
+    private File tagCacheDirectory;
+
+    /**
+     * The maximum size of the tag file cache in megabytes.
+     *
+     * @parameter property="openfire.tagCacheMaxSize" default-value="256"
+     */
+    private long tagCacheMaxSize;
+
+    /**
+     * Whether to share the class loader with the dependencies and the TLDs parsed from them between the
+     * executions of a build, e.g. the plugin modules of a reactor. The shared class loader delegates to
+     * the plugin's class loader first, so tag handler and TEI classes that are also part of the plugin,
+     * e.g. from Jasper or Jetty, are loaded in the plugin's version instead of the project's.
+     *
+     * @parameter property="openfire.jspc.shareClassLoader" default-value="false"
+     */
+    private boolean shareClassLoader;
+
+    /**
+     * The number of JSPs to compile with one JspC, or <tt>0</tt> to compile all at once. JspC keeps the
+     * state of every page until it is done, so plugins with many JSPs need a heap that grows with their
+     * number. In batches the state is released after each batch and the web.xml fragments of the batches
+     * are merged. Only <tt>*.jsp</tt> and <tt>*.jspx</tt> files are compiled in batches, not other
+     * extensions mapped by a <tt>jsp-property-group</tt>.
+     *
+     * @parameter property="openfire.jspc.batchSize" default-value="0"
+     */
+    private int batchSize;
+
+    /**
+     * @parameter default-value="${mojoExecution}"
+     * @required
+     * @readonly
+     */
+    private MojoExecution mojoExecution;
+
+
     public void execute() throws MojoExecutionException, MojoFailureException
     {
         if (getLog().isDebugEnabled())
@@ -209,10 +291,45 @@ public class JspcMojo extends AbstractMojo
         }
         try
         {
+            BuildCache buildCache = null;
+            String cacheKey = null;
+            if (buildCacheDirectory != null)
+            {
+                buildCache = new BuildCache(getLog(), buildCacheDirectory, buildCacheMaxSize * 1024 * 1024);
+                cacheKey = getBuildCacheKey().toString();
+                if (buildCache.restore(cacheKey, getOutputs()))
+                {
+                    getLog().info("Restored compiled jsps from the build cache");
+                    return;
+                }
+            }
+
             prepare();
+
+            TagFileCache tagFileCache = null;
+            String tagCacheKey = null;
+            if (cacheTagFiles)
+            {
+                tagFileCache = new TagFileCache(getLog(),
+                        new BuildCache(getLog(), tagCacheDirectory, tagCacheMaxSize * 1024 * 1024),
+                        new File(webAppSourceDirectory), new File(generatedClasses));
+                tagCacheKey = getTagCacheKey(tagFileCache);
+                tagFileCache.restore(tagCacheKey);
+            }
+
             compile();
+
+            if (tagFileCache != null)
+            {
+                tagFileCache.store(tagCacheKey);
+            }
             cleanupSrcs();
             mergeWebXml();
+
+            if (buildCache != null)
+            {
+                buildCache.store(cacheKey, getOutputs());
+            }
         }
         catch (Exception e)
         {
@@ -231,40 +348,120 @@ public class JspcMojo extends AbstractMojo
         webAppContext.setContextPath("/");
         webAppContext.setWar(webAppSourceDirectory);
 
-        WebAppClassLoader webAppClassLoader = new WebAppClassLoader(currentClassLoader, webAppContext);
-        setUpClassPath(webAppClassLoader);
+        List<File> dependencies = getDependencyFiles();
+        JspClassLoaderCache.Entry sharedDependencies = null;
+        if (shareClassLoader)
+        {
+            int hits = JspClassLoaderCache.getHits();
+            sharedDependencies = JspClassLoaderCache.acquire(dependencies, currentClassLoader);
+            getLog().info((JspClassLoaderCache.getHits() > hits ? "Reusing" : "Created")
+                    + " shared class loader for " + dependencies.size() + " dependencies");
+        }
+        try
+        {
+            compile(webAppContext, dependencies, sharedDependencies, currentClassLoader);
+        }
+        finally
+        {
+            Thread.currentThread().setContextClassLoader(currentClassLoader);
+            if (sharedDependencies != null)
+            {
+                JspClassLoaderCache.release(sharedDependencies);
+            }
+        }
+    }
+
+    /**
+     * Compiles the jsps with the shared class loader of the dependencies, if any.
+     */
+    private void compile(WebAppContext webAppContext, List<File> dependencies,
+                         JspClassLoaderCache.Entry sharedDependencies, ClassLoader currentClassLoader) throws Exception
+    {
+        URLClassLoader dependencyLoader = sharedDependencies != null ? sharedDependencies.getLoader() : null;
+
+        WebAppClassLoader webAppClassLoader = new WebAppClassLoader(
+                dependencyLoader != null ? dependencyLoader : currentClassLoader, webAppContext);
+        setUpClassPath(webAppClassLoader, dependencyLoader != null ? Collections.<File>emptyList() : dependencies);
         StringBuffer classpathStr = new StringBuffer();
-        URL[] urls = webAppClassLoader.getURLs();
-        for (int i = 0; i < urls.length; i++)
+        List<URL> urls = new ArrayList<URL>(Arrays.asList(webAppClassLoader.getURLs()));
+        if (dependencyLoader != null)
+        {
+            urls.addAll(Arrays.asList(dependencyLoader.getURLs()));
+        }
+        for (URL url : urls)
         {
             if (getLog().isDebugEnabled())
             {
-                getLog().debug("webappclassloader contains: " + urls[i]);
+                getLog().debug("webappclassloader contains: " + url);
             }
-            classpathStr.append(urls[i].getFile());
+            classpathStr.append(url.getFile());
             if (getLog().isDebugEnabled())
             {
-                getLog().debug("added to classpath: " + urls[i].getFile());
+                getLog().debug("added to classpath: " + url.getFile());
             }
             classpathStr.append(System.getProperty("path.separator"));
         }
 
         Thread.currentThread().setContextClassLoader(webAppClassLoader);
 
-        JspC jspc = new JspC();
-        jspc.setWebXmlFragment(webXmlFragment);
+        resetPeakHeapUsage();
+        int tldHits = SharedJspC.getTldHits();
+        if (batchSize > 0)
+        {
+            compileInBatches(sharedDependencies, webAppClassLoader, classpathStr.toString());
+        }
+        else
+        {
+            JspC jspc = createJspC(sharedDependencies, webAppClassLoader, classpathStr.toString());
+            jspc.setWebXmlFragment(webXmlFragment);
+            jspc.execute();
+            getLog().info("Peak heap usage while compiling jsps: " + getPeakHeapUsage() / (1024 * 1024) + " MB");
+        }
+        if (dependencyLoader != null && SharedJspC.getTldHits() > tldHits)
+        {
+            getLog().info("Reused " + (SharedJspC.getTldHits() - tldHits) + " TLDs parsed by a previous execution");
+        }
+    }
+
+
+    /**
+     * Returns a JspC configured for the webapp.
+     *
+     * @param sharedDependencies the shared class loader with the dependencies, <code>null</code> if not shared
+     * @param webAppClassLoader  the class loader with the classes of the webapp
+     * @param classPath          the class path for the Java compiler
+     */
+    private JspC createJspC(JspClassLoaderCache.Entry sharedDependencies, WebAppClassLoader webAppClassLoader,
+                            String classPath)
+    {
+        JspC jspc;
+        if (sharedDependencies != null)
+        {
+            List<File> webappClassPath = new ArrayList<File>();
+            for (URL url : webAppClassLoader.getURLs())
+            {
+                webappClassPath.add(new File(url.getFile()));
+            }
+            jspc = new SharedJspC(sharedDependencies, webappClassPath);
+        }
+        else
+        {
+            jspc = new JspC();
+        }
         jspc.setUriroot(webAppSourceDirectory);
 
         jspc.setPackage(jspPackageRoot);
         jspc.setOutputDir(generatedClasses);
         jspc.setValidateXml(validateXml);
-        jspc.setClassPath(classpathStr.toString());
+        jspc.setClassPath(classPath);
         jspc.setCompile(true);
         jspc.setSmapSuppressed(suppressSmap);
         jspc.setSmapDumped(!suppressSmap);
         jspc.setJavaEncoding(javaEncoding);
         jspc.setCompilerSourceVM(jspCompilerSource);
         jspc.setCompilerTargetVM(jspCompilerTarget);
+        // parse each TLD once per run instead of once per page
+        jspc.setCaching(true);
 
         //Glassfish jspc only checks
 //        try
@@ -295,11 +492,112 @@ public class JspcMojo extends AbstractMojo
         {
             jspc.setVerbose(0);
         }
-        jspc.execute();
+        return jspc;
+    }
+
+    /**
+     * Compiles the jsps in batches of <tt>batchSize</tt> with a new JspC each, so the state of a batch can be
+     * collected before the next one, and merges the web.xml fragments of the batches.
+     */
+    private void compileInBatches(JspClassLoaderCache.Entry sharedDependencies, WebAppClassLoader webAppClassLoader,
+                                  String classPath) throws IOException
+    {
+        File webAppDirectory = new File(webAppSourceDirectory);
+        List<String> pages = new ArrayList<String>();
+        if (webAppDirectory.isDirectory())
+        {
+            pages.addAll(FileUtils.getFileNames(webAppDirectory, "**/*.jsp,**/*.jspx", null, false));
+        }
+        Collections.sort(pages);
+
+        File batchFragment = new File(webXmlFragment + ".batch");
+        StringBuilder servlets = new StringBuilder();
+        StringBuilder mappings = new StringBuilder();
+        String header = null;
+        String footer = null;
+        int batches = 0;
+        for (int i = 0; i < pages.size(); i += batchSize)
+        {
+            StringBuilder jspFiles = new StringBuilder();
+            for (String page : pages.subList(i, Math.min(i + batchSize, pages.size())))
+            {
+                jspFiles.append(jspFiles.length() > 0 ? "," : "").append(page);
+            }
 
-        Thread.currentThread().setContextClassLoader(currentClassLoader);
+            JspC jspc = createJspC(sharedDependencies, webAppClassLoader, classPath);
+            jspc.setWebXmlFragment(batchFragment.getPath());
+            jspc.setJspFiles(jspFiles.toString());
+            jspc.execute();
+            batches++;
+
+            // header comment, servlets, servlet mappings and footer comment
+            String fragment = FileUtils.fileRead(batchFragment, "UTF-8");
+            int bodyStart = fragment.indexOf("-->") + "-->".length();
+            int bodyEnd = fragment.lastIndexOf("<!--");
+            if (header == null)
+            {
+                header = fragment.substring(0, bodyStart);
+                footer = fragment.substring(bodyEnd);
+            }
+            String body = fragment.substring(bodyStart, bodyEnd);
+            int mappingStart = body.indexOf("<servlet-mapping>");
+            mappingStart = mappingStart < 0 ? body.length() : body.lastIndexOf('\n', mappingStart) + 1;
+            appendDeclarations(servlets, body.substring(0, mappingStart));
+            appendDeclarations(mappings, body.substring(mappingStart));
+            if (getLog().isDebugEnabled())
+            {
+                getLog().debug("Compiled batch " + batches + ", peak heap usage " + getPeakHeapUsage() / (1024 * 1024)
+                        + " MB");
+            }
+        }
+        batchFragment.delete();
+
+        FileUtils.fileWrite(webXmlFragment, "UTF-8",
+                header != null ? header + "\n\n" + servlets + mappings + footer : "");
+        getLog().info("Compiled " + pages.size() + " jsps in " + batches + " batches, peak heap usage "
+                + getPeakHeapUsage() / (1024 * 1024) + " MB");
     }
 
+    /**
+     * Appends declarations of a web.xml fragment, indented and separated by an empty line like JspC does.
+     */
+    private static void appendDeclarations(StringBuilder declarations, String part)
+    {
+        if (part.trim().length() > 0)
+        {
+            declarations.append("    ").append(part.trim()).append("\n\n");
+        }
+    }
+
+    /**
+     * Resets the peak usage of the heap memory pools.
+     */
+    private static void resetPeakHeapUsage()
+    {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP)
+            {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * Returns the sum of the peak usage of the heap memory pools since they were reset.
+     */
+    private static long getPeakHeapUsage()
+    {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP)
+            {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
 
     /**
      * Until Jasper supports the option to generate the srcs in a
@@ -436,6 +734,84 @@ public class JspcMojo extends AbstractMojo
     }
 
 
+    /**
+     * Returns the files and directories produced by the compilation keyed by their name in the build cache.
+     */
+    private Map<String, File> getOutputs()
+    {
+        Map<String, File> outputs = new LinkedHashMap<String, File>();
+        outputs.put("classes", new File(generatedClasses, jspPackageRoot.replace('.', File.separatorChar)));
+        outputs.put("tags", new File(generatedClasses, TagFileCache.TAG_DIRECTORY));
+        outputs.put("webfrag.xml", new File(webXmlFragment));
+        if (mergeFragment)
+        {
+            outputs.put("web.xml", new File(new File(webXmlFragment).getParentFile(), "web.xml"));
+        }
+        return outputs;
+    }
+
+    /**
+     * Returns the key of the compilation in the build cache. It covers the configuration, the jsps,
+     * the project classes except the compiled jsps and the dependencies.
+     */
+    private BuildCache.Key getBuildCacheKey() throws Exception
+    {
+        BuildCache.Key key = new BuildCache.Key();
+        key.add("plugin", mojoExecution.getMojoDescriptor().getPluginDescriptor().getId());
+        key.add("goal", mojoExecution.getMojoDescriptor().getGoal());
+        key.add("configuration", mojoExecution.getConfiguration());
+        key.add("project", project.getId());
+        key.addDirectory("webapp", new File(webAppSourceDirectory), null);
+        key.addDirectory("classes", classesDirectory,
+                new String[]{jspPackageRoot.replace('.', '/') + "/**", "org/apache/jsp/**"});
+        for (Iterator iter = project.getArtifacts().iterator(); iter.hasNext();)
+        {
+            Artifact artifact = (Artifact) iter.next();
+            if (!Artifact.SCOPE_TEST.equals(artifact.getScope()))
+            {
+                key.addArtifact(artifact);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Returns the key of the compiled tag files. It covers the tag files, the TLDs, the compiler settings,
+     * the project classes except the compiled jsps and the dependencies.
+     */
+    private String getTagCacheKey(TagFileCache tagFileCache) throws Exception
+    {
+        BuildCache.Key key = new BuildCache.Key();
+        key.add("plugin", mojoExecution.getMojoDescriptor().getPluginDescriptor().getId());
+        key.add("javaEncoding", javaEncoding);
+        key.add("suppressSmap", suppressSmap);
+        key.add("jspCompilerSource", jspCompilerSource);
+        key.add("jspCompilerTarget", jspCompilerTarget);
+        File webAppDirectory = new File(webAppSourceDirectory);
+        for (String tagFile : tagFileCache.getTagFiles())
+        {
+            key.addFile(tagFile.replace(File.separatorChar, '/'), new File(webAppDirectory, tagFile));
+        }
+        if (webAppDirectory.isDirectory())
+        {
+            for (String tldFile : FileUtils.getFileNames(webAppDirectory, TagFileCache.TLD_FILES, null, false))
+            {
+                key.addFile(tldFile.replace(File.separatorChar, '/'), new File(webAppDirectory, tldFile));
+            }
+        }
+        key.addDirectory("classes", classesDirectory,
+                new String[]{jspPackageRoot.replace('.', '/') + "/**", "org/apache/jsp/**"});
+        for (Iterator iter = project.getArtifacts().iterator(); iter.hasNext();)
+        {
+            Artifact artifact = (Artifact) iter.next();
+            if (!Artifact.SCOPE_TEST.equals(artifact.getScope()))
+            {
+                key.addArtifact(artifact);
+            }
+        }
+        return key.toString();
+    }
+
     private void prepare()
             throws Exception
     {
@@ -455,10 +831,11 @@ public class JspcMojo extends AbstractMojo
      * Put everything in the classesDirectory and all
      * of the dependencies on the classpath.
      *
-     * @param classLoader we use a Jetty WebAppClassLoader to load the classes
+     * @param classLoader  we use a Jetty WebAppClassLoader to load the classes
+     * @param dependencies the dependencies to add, none if they are loaded by the parent
      * @throws Exception
      */
-    private void setUpClassPath(WebAppClassLoader classLoader) throws Exception
+    private void setUpClassPath(WebAppClassLoader classLoader, List<File> dependencies) throws Exception
     {
         String classesDir = classesDirectory.getCanonicalPath();
         classesDir = classesDir + (classesDir.endsWith(File.pathSeparator) ? "" : File.separator);
@@ -468,20 +845,30 @@ public class JspcMojo extends AbstractMojo
             getLog().debug("Adding to classpath classes dir: " + classesDir);
         }
 
+        for (File dependency : dependencies)
+        {
+            if (getLog().isDebugEnabled())
+            {
+                getLog().debug("Adding to classpath dependency file: " + dependency);
+            }
+            classLoader.addClassPath(dependency.getPath());
+        }
+    }
+
+    /**
+     * Returns the canonical files of the dependencies that are not in test scope.
+     */
+    private List<File> getDependencyFiles() throws IOException
+    {
+        List<File> dependencies = new ArrayList<File>();
         for (Iterator iter = project.getArtifacts().iterator(); iter.hasNext();)
         {
             Artifact artifact = (Artifact) iter.next();
-            String filePath = artifact.getFile().getCanonicalPath();
-
             if (!Artifact.SCOPE_TEST.equals(artifact.getScope()))
             {
-                if (getLog().isDebugEnabled())
-                {
-                    getLog().debug("Adding to classpath dependency file: " + filePath);
-                }
-
-                classLoader.addClassPath(filePath);
+                dependencies.add(artifact.getFile().getCanonicalFile());
             }
         }
+        return dependencies;
     }
 }
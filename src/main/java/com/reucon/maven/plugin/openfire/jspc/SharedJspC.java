@@ -0,0 +1,215 @@
+package com.reucon.maven.plugin.openfire.jspc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.ServletContext;
+
+import org.apache.jasper.Constants;
+import org.apache.jasper.JasperException;
+import org.apache.jasper.JspC;
+import org.apache.jasper.compiler.JspConfig;
+import org.apache.jasper.compiler.JspRuntimeContext;
+import org.apache.jasper.compiler.TagPluginManager;
+import org.apache.jasper.compiler.TldCache;
+import org.apache.jasper.servlet.JspCServletContext;
+import org.apache.jasper.servlet.TldScanner;
+import org.apache.tomcat.util.descriptor.tld.TaglibXml;
+import org.apache.tomcat.util.descriptor.tld.TldParser;
+import org.apache.tomcat.util.descriptor.tld.TldResourcePath;
+import org.xml.sax.SAXException;
+
+/**
+ * A JspC that loads the dependencies through a class loader shared between executions and parses the
+ * TLDs of the dependency jars once per build.
+ * <p/>
+ * {@link #initClassLoader()} and {@link #initServletContext(ClassLoader)} follow those of Jasper 8.0, but
+ * the class loader of the webapp has the shared one as parent and the TLDs in jars are kept with the
+ * shared class loader, keyed by the jar and its modification time.
+ */
+class SharedJspC extends JspC
+{
+    private static final Object tldHitsLock = new Object();
+
+    private static int tldHits;
+
+    private final JspClassLoaderCache.Entry dependencies;
+
+    private final List<File> webappClassPath;
+
+    /**
+     * @param dependencies    the shared class loader with the dependencies
+     * @param webappClassPath the class path of the webapp without the dependencies, e.g. the classes
+     *                        directory
+     */
+    SharedJspC(JspClassLoaderCache.Entry dependencies, List<File> webappClassPath)
+    {
+        this.dependencies = dependencies;
+        this.webappClassPath = webappClassPath;
+    }
+
+    /**
+     * Returns how often a parsed TLD was reused.
+     */
+    static int getTldHits()
+    {
+        synchronized (tldHitsLock)
+        {
+            return tldHits;
+        }
+    }
+
+    protected ClassLoader initClassLoader() throws IOException
+    {
+        StringBuilder classPath = new StringBuilder(getClassPath());
+        List<URL> urls = new ArrayList<URL>();
+        for (File file : webappClassPath)
+        {
+            urls.add(file.toURI().toURL());
+        }
+
+        File webinfClasses = new File(uriRoot, "WEB-INF" + File.separator + "classes");
+        if (webinfClasses.exists())
+        {
+            classPath.append(File.pathSeparator).append(webinfClasses.getCanonicalPath());
+            urls.add(webinfClasses.getCanonicalFile().toURI().toURL());
+        }
+        String[] libs = new File(uriRoot, "WEB-INF" + File.separator + "lib").list();
+        if (libs != null)
+        {
+            for (String lib : libs)
+            {
+                if (lib.toLowerCase().endsWith(".jar"))
+                {
+                    File jar = new File(uriRoot, "WEB-INF" + File.separator + "lib" + File.separator + lib);
+                    classPath.append(File.pathSeparator).append(jar.getAbsolutePath());
+                    urls.add(jar.getAbsoluteFile().toURI().toURL());
+                }
+            }
+        }
+        setClassPath(classPath.toString());
+
+        loader = new URLClassLoader(urls.toArray(new URL[urls.size()]), dependencies.getLoader());
+        return loader;
+    }
+
+    protected void initServletContext(ClassLoader classLoader) throws IOException, JasperException
+    {
+        context = new JspCServletContext(new PrintWriter(System.out),
+                new File(uriRoot).getCanonicalFile().toURI().toURL(), classLoader, isValidateXml(), isBlockExternal());
+        if (isValidateTld())
+        {
+            context.setInitParameter(Constants.XML_VALIDATION_TLD_INIT_PARAM, "true");
+        }
+
+        TldScanner scanner = new SharedTldScanner(context, dependencies, isValidateTld(), isBlockExternal());
+        scanner.setClassLoader(classLoader);
+        try
+        {
+            scanner.scan();
+        }
+        catch (SAXException e)
+        {
+            throw new JasperException(e);
+        }
+        tldCache = new TldCache(context, scanner.getUriTldResourcePathMap(), scanner.getTldResourcePathTaglibXmlMap());
+        context.setAttribute(TldCache.SERVLET_CONTEXT_ATTRIBUTE_NAME, tldCache);
+        rctxt = new JspRuntimeContext(context, this);
+        jspConfig = new JspConfig(context);
+        tagPluginManager = new TagPluginManager(context);
+    }
+
+    /**
+     * Takes the TLDs of jars from the shared index, the TLDs of the webapp are parsed as usual.
+     */
+    private static class SharedTldScanner extends TldScanner
+    {
+        private final JspClassLoaderCache.Entry dependencies;
+
+        private final TldParser parser;
+
+        private final boolean validate;
+
+        SharedTldScanner(ServletContext context, JspClassLoaderCache.Entry dependencies, boolean validate,
+                         boolean blockExternal)
+        {
+            super(context, true, validate, blockExternal);
+            this.dependencies = dependencies;
+            this.parser = new TldParser(true, validate, blockExternal);
+            this.validate = validate;
+        }
+
+        public void setClassLoader(ClassLoader classLoader)
+        {
+            super.setClassLoader(classLoader);
+            parser.setClassLoader(classLoader);
+        }
+
+        protected void parseTld(TldResourcePath path) throws IOException, SAXException
+        {
+            File jar = getJarFile(path);
+            if (jar == null)
+            {
+                super.parseTld(path);
+                return;
+            }
+            if (getTldResourcePathTaglibXmlMap().containsKey(path))
+            {
+                return;
+            }
+
+            String key = path.toExternalForm() + ' ' + path.getWebappPath() + ' ' + validate + ' '
+                    + jar.length() + ' ' + jar.lastModified();
+            TaglibXml tld = dependencies.getTld(key);
+            if (tld != null)
+            {
+                synchronized (tldHitsLock)
+                {
+                    tldHits++;
+                }
+            }
+            else
+            {
+                tld = parser.parse(path);
+                dependencies.putTld(key, tld);
+            }
+
+            // like TldScanner.parseTld(TldResourcePath)
+            String uri = tld.getUri();
+            if (uri != null && !getUriTldResourcePathMap().containsKey(uri))
+            {
+                getUriTldResourcePathMap().put(uri, path);
+            }
+            getTldResourcePathTaglibXmlMap().put(path, tld);
+            if (tld.getListeners() != null)
+            {
+                getListeners().addAll(tld.getListeners());
+            }
+        }
+
+        /**
+         * Returns the jar file of a TLD in a jar, or <code>null</code> if it is a file of the webapp.
+         */
+        private static File getJarFile(TldResourcePath path)
+        {
+            URL url = path.getUrl();
+            if (path.getEntryName() == null || !"file".equals(url.getProtocol()))
+            {
+                return null;
+            }
+            try
+            {
+                return new File(url.toURI());
+            }
+            catch (Exception e)
+            {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.reucon.maven.plugin.openfire.jspc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.reucon.maven.plugin.openfire.BuildCache;
+import org.apache.jasper.JasperException;
+import org.apache.jasper.compiler.ErrorDispatcher;
+import org.apache.jasper.compiler.JspUtil;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Caches the classes Jasper compiles from the tag files of a webapp.
+ * <p/>
+ * Jasper compiles a tag file once per run and skips it if the class file has exactly the modification
+ * time of the tag file. After a clean the tag classes are therefore restored from the cache and given
+ * the modification times of their tag files, so Jasper only compiles the JSPs.
+ */
+class TagFileCache
+{
+    /**
+     * The directory of the tag handler classes relative to the output directory.
+     */
+    static final String TAG_DIRECTORY = "org" + File.separator + "apache" + File.separator + "jsp"
+            + File.separator + "tag";
+
+    static final String TAG_FILES = "WEB-INF/tags/**/*.tag,WEB-INF/tags/**/*.tagx";
+
+    static final String TLD_FILES = "WEB-INF/**/*.tld";
+
+    private final Log log;
+
+    private final BuildCache cache;
+
+    private final File webAppSourceDirectory;
+
+    private final File tagDirectory;
+
+    private final File outputDirectory;
+
+    /**
+     * @param log                   the log
+     * @param cache                 the cache holding the compiled tag files
+     * @param webAppSourceDirectory the webapp with the tag files
+     * @param outputDirectory       the output directory of Jasper
+     */
+    TagFileCache(Log log, BuildCache cache, File webAppSourceDirectory, File outputDirectory)
+    {
+        this.log = log;
+        this.cache = cache;
+        this.webAppSourceDirectory = webAppSourceDirectory;
+        this.outputDirectory = outputDirectory;
+        this.tagDirectory = new File(outputDirectory, TAG_DIRECTORY);
+    }
+
+    /**
+     * Returns the tag files of the webapp relative to its root.
+     */
+    List<String> getTagFiles() throws IOException
+    {
+        if (!new File(webAppSourceDirectory, "WEB-INF" + File.separator + "tags").isDirectory())
+        {
+            return Collections.emptyList();
+        }
+        List<String> tagFiles = FileUtils.getFileNames(webAppSourceDirectory, TAG_FILES, null, false);
+        Collections.sort(tagFiles);
+        return tagFiles;
+    }
+
+    /**
+     * Restores the tag classes unless all of them are up to date.
+     *
+     * @param key the key of the tag files and everything they are compiled against
+     * @return <code>true</code> if the tag classes are up to date now
+     * @throws IOException if the classes cannot be restored
+     */
+    boolean restore(String key) throws IOException, JasperException
+    {
+        List<String> tagFiles = getTagFiles();
+        if (tagFiles.isEmpty() || isUpToDate(tagFiles))
+        {
+            return true;
+        }
+        if (!cache.restore(key, getOutputs()))
+        {
+            return false;
+        }
+
+        for (String tagFile : tagFiles)
+        {
+            long lastModified = new File(webAppSourceDirectory, tagFile).lastModified();
+            File classFile = getClassFile(tagFile);
+            classFile.setLastModified(lastModified);
+            File javaFile = new File(classFile.getPath().replaceAll("\\.class$", ".java"));
+            if (javaFile.exists())
+            {
+                javaFile.setLastModified(lastModified);
+            }
+        }
+        log.info("Restored " + tagFiles.size() + " compiled tag files from " + tagDirectory);
+        return true;
+    }
+
+    /**
+     * Stores the tag classes compiled by Jasper unless the cache already has them.
+     *
+     * @param key the key of the tag files and everything they are compiled against
+     * @throws IOException if the classes cannot be stored
+     */
+    void store(String key) throws IOException, JasperException
+    {
+        List<String> tagFiles = getTagFiles();
+        if (tagFiles.isEmpty() || cache.contains(key) || !isUpToDate(tagFiles))
+        {
+            return;
+        }
+        cache.store(key, getOutputs());
+    }
+
+    private boolean isUpToDate(List<String> tagFiles) throws JasperException
+    {
+        for (String tagFile : tagFiles)
+        {
+            if (getClassFile(tagFile).lastModified() != new File(webAppSourceDirectory, tagFile).lastModified())
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Map<String, File> getOutputs()
+    {
+        return Collections.singletonMap("tags", tagDirectory);
+    }
+
+    /**
+     * Returns the class file Jasper compiles a tag file to.
+     */
+    private File getClassFile(String tagFile) throws JasperException
+    {
+        String className = JspUtil.getTagHandlerClassName("/" + tagFile.replace(File.separatorChar, '/'), null,
+                new ErrorDispatcher(false));
+        return new File(outputDirectory, className.replace('.', File.separatorChar) + ".class");
+    }
+}
@@ -0,0 +1,75 @@
+package com.reucon.maven.plugin.openfire;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BuildCacheTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void extractsEntries() throws IOException
+    {
+        File archive = zip("plugin.xml", "web/index.html");
+        File directory = new File(folder.getRoot(), "plugin");
+
+        BuildCache.extract(archive, directory);
+
+        assertEquals("plugin.xml", FileUtils.fileRead(new File(directory, "plugin.xml"), "UTF-8"));
+        assertEquals("web/index.html", FileUtils.fileRead(new File(directory, "web/index.html"), "UTF-8"));
+    }
+
+    @Test
+    public void rejectsEntriesOutsideOfTheDirectory() throws IOException
+    {
+        File archive = zip("plugin.xml", "../evil.txt");
+        File directory = new File(folder.getRoot(), "plugin");
+
+        try
+        {
+            BuildCache.extract(archive, directory);
+            fail("extracted an entry outside of the directory");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+        assertFalse(new File(folder.getRoot(), "evil.txt").exists());
+    }
+
+    /**
+     * Creates a zip file whose entries contain their names.
+     */
+    private File zip(String... names) throws IOException
+    {
+        File file = folder.newFile();
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+        try
+        {
+            for (String name : names)
+            {
+                out.putNextEntry(new ZipEntry(name));
+                out.write(name.getBytes("UTF-8"));
+                out.closeEntry();
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,107 @@
+package com.reucon.maven.plugin.openfire;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JarDeltaTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void appliedDeltaEqualsTarget() throws IOException
+    {
+        Map<String, String> entries = plugin();
+        File baseline = TestJars.write(folder.newFile("baseline.jar"), entries);
+
+        entries.put("web/index.html", "<html>changed</html>");
+        entries.put("web/added.js", "added();");
+        entries.remove("web/removed.css");
+        File target = TestJars.write(folder.newFile("target.jar"), entries,
+                Collections.singleton("plugin.xml"));
+
+        File delta = new File(folder.getRoot(), "plugin.delta");
+        JarDelta.Report report = JarDelta.create(baseline, target, delta);
+        File rebuilt = new File(folder.getRoot(), "rebuilt.jar");
+        JarDelta.apply(baseline, delta, rebuilt);
+
+        assertArrayEquals(Files.readAllBytes(target.toPath()), Files.readAllBytes(rebuilt.toPath()));
+        assertEquals(Collections.singleton("web/added.js"), report.getAdded());
+        assertEquals(Collections.singleton("web/removed.css"), report.getRemoved());
+        // plugin.xml is stored instead of deflated, but its content did not change
+        assertEquals(Collections.singleton("web/index.html"), report.getChanged());
+        assertTrue(report.getCopiedBytes() > 0);
+    }
+
+    @Test
+    public void appliedDeltaOfRecompressedJarEqualsTarget() throws IOException
+    {
+        Map<String, String> entries = plugin();
+        File baseline = TestJars.write(folder.newFile("baseline.jar"), entries);
+        File target = TestJars.write(folder.newFile("target.jar"), entries, new HashSet<String>(entries.keySet()));
+
+        File delta = new File(folder.getRoot(), "plugin.delta");
+        JarDelta.Report report = JarDelta.create(baseline, target, delta);
+        File rebuilt = new File(folder.getRoot(), "rebuilt.jar");
+        JarDelta.apply(baseline, delta, rebuilt);
+
+        assertArrayEquals(Files.readAllBytes(target.toPath()), Files.readAllBytes(rebuilt.toPath()));
+        assertTrue(report.getChanged().isEmpty());
+    }
+
+    @Test
+    public void rejectsWrongBaseline() throws IOException
+    {
+        Map<String, String> entries = plugin();
+        File baseline = TestJars.write(folder.newFile("baseline.jar"), entries);
+        entries.put("web/index.html", "<html>changed</html>");
+        File target = TestJars.write(folder.newFile("target.jar"), entries);
+        File delta = new File(folder.getRoot(), "plugin.delta");
+        JarDelta.create(baseline, target, delta);
+
+        File rebuilt = new File(folder.getRoot(), "rebuilt.jar");
+        try
+        {
+            JarDelta.apply(target, delta, rebuilt);
+            fail("applied a delta to the wrong baseline");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+        assertFalse(rebuilt.exists());
+    }
+
+    private static Map<String, String> plugin()
+    {
+        char[] text = new char[4096];
+        Arrays.fill(text, 'x');
+
+        Map<String, String> entries = new LinkedHashMap<String, String>();
+        entries.put("META-INF/", "");
+        entries.put("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\n\r\n");
+        entries.put("classes/", "");
+        entries.put("classes/Plugin.class", new String(text));
+        entries.put("plugin.xml", "<plugin><name>Sample</name></plugin>");
+        entries.put("web/", "");
+        entries.put("web/index.html", "<html>index</html>");
+        entries.put("web/removed.css", "body { color: red }");
+        return entries;
+    }
+}
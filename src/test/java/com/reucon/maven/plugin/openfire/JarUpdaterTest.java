@@ -0,0 +1,93 @@
+package com.reucon.maven.plugin.openfire;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JarUpdaterTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void mergedJarEqualsRebuild() throws IOException
+    {
+        Map<String, String> entries = plugin();
+        File previous = TestJars.write(folder.newFile("previous.jar"), entries);
+
+        entries.put("web/index.html", "<html>changed</html>");
+        entries.put("web/js/", "");
+        entries.put("web/js/app.js", "added();");
+        entries.remove("lib/");
+        entries.remove("lib/library.jar");
+        File rebuilt = TestJars.write(folder.newFile("rebuilt.jar"), entries);
+
+        // like the archiver, the changes contain the manifest and the directories of the changed entries
+        Map<String, String> changes = new LinkedHashMap<String, String>();
+        for (String name : new String[]{"META-INF/", "META-INF/MANIFEST.MF", "web/", "web/index.html", "web/js/",
+                "web/js/app.js"})
+        {
+            changes.put(name, entries.get(name));
+        }
+        File changesJar = TestJars.write(folder.newFile("changes.jar"), changes);
+        Set<String> unchanged = new HashSet<String>(Arrays.asList("classes/Plugin.class", "plugin.xml",
+                "web/images/logo.gif"));
+
+        File merged = new File(folder.getRoot(), "merged.jar");
+        int copied = JarUpdater.merge(changesJar, previous, unchanged, merged, null);
+
+        assertEquals(3, copied);
+        assertEquals(TestJars.read(rebuilt), TestJars.read(merged));
+        assertArrayEquals(Files.readAllBytes(rebuilt.toPath()), Files.readAllBytes(merged.toPath()));
+    }
+
+    @Test
+    public void mergeWithoutChangesKeepsJar() throws IOException
+    {
+        Map<String, String> entries = plugin();
+        File jar = TestJars.write(folder.newFile("plugin.jar"), entries);
+        byte[] before = Files.readAllBytes(jar.toPath());
+
+        Map<String, String> changes = new LinkedHashMap<String, String>();
+        changes.put("META-INF/", "");
+        changes.put("META-INF/MANIFEST.MF", entries.get("META-INF/MANIFEST.MF"));
+        File changesJar = TestJars.write(folder.newFile("changes.jar"), changes);
+        Set<String> unchanged = new HashSet<String>(entries.keySet());
+        unchanged.removeAll(changes.keySet());
+
+        // updated in place, like the plugin jar
+        JarUpdater.merge(changesJar, jar, unchanged, jar, null);
+
+        assertEquals(entries.keySet(), TestJars.read(jar).keySet());
+        assertArrayEquals(before, Files.readAllBytes(jar.toPath()));
+    }
+
+    private static Map<String, String> plugin()
+    {
+        Map<String, String> entries = new LinkedHashMap<String, String>();
+        entries.put("META-INF/", "");
+        entries.put("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\n\r\n");
+        entries.put("classes/", "");
+        entries.put("classes/Plugin.class", "class");
+        entries.put("lib/", "");
+        entries.put("lib/library.jar", "library");
+        entries.put("plugin.xml", "<plugin><name>Sample</name></plugin>");
+        entries.put("web/", "");
+        entries.put("web/images/", "");
+        entries.put("web/images/logo.gif", "GIF89a");
+        entries.put("web/index.html", "<html>index</html>");
+        return entries;
+    }
+}
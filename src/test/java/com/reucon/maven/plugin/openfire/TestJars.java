@@ -0,0 +1,111 @@
+package com.reucon.maven.plugin.openfire;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Writes and reads small jars for the tests.
+ */
+final class TestJars
+{
+    private static final long TIME = ReproducibleJar.toEntryTime(1433116800000L);
+
+    private TestJars()
+    {
+    }
+
+    /**
+     * Writes a jar with deflated entries in the order of a reproducible build.
+     *
+     * @param entries the contents keyed by entry name, directories end with <tt>/</tt>
+     */
+    static File write(File file, Map<String, String> entries) throws IOException
+    {
+        return write(file, entries, Collections.<String>emptySet());
+    }
+
+    /**
+     * Writes a jar in the order of a reproducible build.
+     *
+     * @param entries the contents keyed by entry name, directories end with <tt>/</tt>
+     * @param stored  the entries to store, the others are deflated
+     */
+    static File write(File file, Map<String, String> entries, Set<String> stored) throws IOException
+    {
+        Map<String, String> sorted = new TreeMap<String, String>(new ReproducibleJar.EntryOrder());
+        sorted.putAll(entries);
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+        try
+        {
+            for (Map.Entry<String, String> entry : sorted.entrySet())
+            {
+                byte[] content = entry.getKey().endsWith("/") ? new byte[0] : entry.getValue().getBytes("UTF-8");
+                ZipEntry zipEntry = new ZipEntry(entry.getKey());
+                zipEntry.setTime(TIME);
+                if (stored.contains(entry.getKey()))
+                {
+                    CRC32 crc = new CRC32();
+                    crc.update(content);
+                    zipEntry.setMethod(ZipEntry.STORED);
+                    zipEntry.setSize(content.length);
+                    zipEntry.setCompressedSize(content.length);
+                    zipEntry.setCrc(crc.getValue());
+                }
+                out.putNextEntry(zipEntry);
+                out.write(content);
+                out.closeEntry();
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * Reads a jar with <code>ZipFile</code>.
+     *
+     * @return the contents keyed by entry name
+     */
+    static Map<String, String> read(File file) throws IOException
+    {
+        Map<String, String> entries = new TreeMap<String, String>();
+        ZipFile zipFile = new ZipFile(file);
+        try
+        {
+            Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+            while (zipEntries.hasMoreElements())
+            {
+                ZipEntry entry = zipEntries.nextElement();
+                InputStream in = zipFile.getInputStream(entry);
+                try
+                {
+                    entries.put(entry.getName(), new String(IOUtil.toByteArray(in), "UTF-8"));
+                }
+                finally
+                {
+                    IOUtil.close(in);
+                }
+            }
+        }
+        finally
+        {
+            zipFile.close();
+        }
+        return entries;
+    }
+}
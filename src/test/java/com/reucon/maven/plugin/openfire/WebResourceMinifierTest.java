@@ -0,0 +1,86 @@
+package com.reucon.maven.plugin.openfire;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class WebResourceMinifierTest
+{
+    @Test
+    public void keepsSpaceBetweenNumberAndDot()
+    {
+        assertEquals("var x=1 .toString();\n", minifyJavaScript("var x = 1 .toString();"));
+        assertEquals("var y=1.5 .toFixed();\n", minifyJavaScript("var y = 1.5 .toFixed();"));
+        assertEquals("var z=a.b;\n", minifyJavaScript("var z = a .b;"));
+    }
+
+    @Test
+    public void keepsSpaceBetweenPlusAndUnaryPlus()
+    {
+        assertEquals("var c=a+ +b;\n", minifyJavaScript("var c = a + +b;"));
+        assertEquals("var d=a- -b;\n", minifyJavaScript("var d = a - -b;"));
+    }
+
+    @Test
+    public void copiesRegexLiterals()
+    {
+        assertEquals("var r=/a \\/ b[/ ]*/g;\n", minifyJavaScript("var r = /a \\/ b[/ ]*/g;"));
+        assertEquals("return /  x/.test(s);\n", minifyJavaScript("return /  x/.test(s);"));
+        assertEquals("var q=a/b/c;\n", minifyJavaScript("var q = a / b / c;"));
+    }
+
+    @Test
+    public void treatsSlashAfterPostfixIncrementAsDivision()
+    {
+        assertEquals("a=i++/2;b='/  x  y';\n", minifyJavaScript("a = i++ / 2; b = '/  x  y';"));
+        assertEquals("c=a[i]--/2;\n", minifyJavaScript("c = a[i]-- / 2;"));
+        assertEquals("d=x++/2/g;\n", minifyJavaScript("d = x++ / 2 / g;"));
+        assertEquals("e=a+ +/ x/.source;\n", minifyJavaScript("e = a + +/ x/.source;"));
+    }
+
+    @Test
+    public void copiesTemplateLiterals()
+    {
+        assertEquals("var t=`a  // b\n  ${ x }`;\n", minifyJavaScript("var t = `a  // b\n  ${ x }`;"));
+    }
+
+    @Test
+    public void removesCommentsAndKeepsLines()
+    {
+        assertEquals("a();\nb();\n", minifyJavaScript("  a(); // first\n\n/* two\nlines */ b();"));
+    }
+
+    @Test
+    public void keepsSpaceBeforeColonInSelectors()
+    {
+        assertEquals("div :first-child{color:red}\n", minifyStylesheet("div :first-child { color : red; }")
+                .replace(";}", "}"));
+        assertEquals("@media screen{div :first-child{color:red}}\n",
+                minifyStylesheet("@media screen {\n  div :first-child { color : red }\n}"));
+        assertEquals("@supports (display:grid){a :hover{b:c}}\n",
+                minifyStylesheet("@supports (display:grid) { a :hover { b : c } }"));
+    }
+
+    @Test
+    public void removesSpaceAroundColonInDeclarations()
+    {
+        assertEquals("@font-face{font-family:x;src:url(a.woff)}\n",
+                minifyStylesheet("@font-face { font-family : x; src : url(a.woff) }"));
+        assertEquals("@keyframes spin{from{top:0}to{top:1px}}\n",
+                minifyStylesheet("@keyframes spin { from { top : 0 } to { top : 1px } }"));
+    }
+
+    private static String minifyJavaScript(String source)
+    {
+        BundleWriter out = new BundleWriter();
+        WebResourceMinifier.appendJavaScript(source, 0, out, true);
+        return out.getContent();
+    }
+
+    private static String minifyStylesheet(String source)
+    {
+        BundleWriter out = new BundleWriter();
+        WebResourceMinifier.appendStylesheet(source, 0, out, true);
+        return out.getContent();
+    }
+}